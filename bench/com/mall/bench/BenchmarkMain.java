@@ -0,0 +1,24 @@
+package com.mall.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the persistence benchmarks with the GC profiler attached, so every result also
+ * reports allocation rate and bytes allocated per operation.
+ * Any standard JMH option can be passed, e.g. -p backend=json,binary -p sales=1000000.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class);
+        if (new CommandLineOptions(args).getIncludes().isEmpty())
+            options.include(PersistenceBenchmark.class.getSimpleName());
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,152 @@
+package com.mall.bench;
+
+import com.mall.persistence.DataStorageInterface;
+import com.mall.persistence.DatasetGenerator;
+import com.mall.persistence.JsonDataHandler;
+import com.mall.persistence.StorageBackends;
+import com.mall.persistence.StorageOptions;
+import com.mall.persistence.StreamCodecs;
+import com.mall.persistence.SystemStateDto;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH benchmarks for loading and saving the complete system state.
+ *
+ * Every combination of the parameters below is run. The defaults are one mid-sized dataset
+ * for each backend (5 trials); widen the matrix on the command line, e.g. the full size sweep
+ * -p products=1000,100000,1000000 -p sales=10000,1000000,10000000 -p ratingsPerProduct=0,5
+ * -p cartFill=0,3 (108 trials with three backends, many hours), or pick a backend with
+ * -p backend=json.
+ * The backend parameter is a StorageBackends mode ("json", "binary", "journal", "sections",
+ * "paged") or "class:" followed by the name of any DataStorageInterface implementation with a public
+ * no-argument constructor.
+ *
+ * The state is generated by DatasetGenerator (seed 42, so every run benchmarks the same data)
+ * and read back with the JSON loader. Throughput and sampled latency are reported for each
+ * benchmark; run through BenchmarkMain (or add -prof gc) for allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx12g" })
+public class PersistenceBenchmark {
+
+    @Param({ "json", "binary", "journal", "sections", "paged" })
+    public String backend;
+
+    @Param({ "100000" })
+    public int products;
+
+    @Param({ "1000000" })
+    public int sales;
+
+    @Param({ "10000" })
+    public int customers;
+
+    // Average ratings per product
+    @Param({ "3" })
+    public int ratingsPerProduct;
+
+    // Average items per customer cart
+    @Param({ "3" })
+    public int cartFill;
+
+    @Param({ "false" })
+    public boolean mappedReads;
+
+    @Param({ "1" })
+    public int loadParallelism;
+
+    // StreamCodecs name, e.g. "gzip"
+    @Param({ "none" })
+    public String compression;
+
+    private Path workDir;
+    private String loadPath;
+    private String savePath;
+    private SystemStateDto state;
+    private DataStorageInterface loader;
+    private DataStorageInterface saver;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workDir = Files.createTempDirectory("mall-bench");
+        state = generate(workDir.resolve("source.json"));
+
+        // Sectioned storage lives in a directory; the others in a single file
+        String name = backend.equals("binary") ? "data.bin" : backend.equals("sections") ? "data/"
+                : backend.equals("paged") ? "data.db" : "data.json";
+        loadPath = workDir.resolve("load").resolve(name).toString();
+        savePath = workDir.resolve("save").resolve(name).toString();
+        Files.createDirectories(workDir.resolve("load"));
+        Files.createDirectories(workDir.resolve("save"));
+
+        // The load benchmark reads a file written once by the same backend
+        createHandler(loadPath).save(loadPath, state);
+        loader = createHandler(loadPath);
+        saver = createHandler(savePath);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(workDir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    // A fresh handler per iteration so incremental backends cannot skip unchanged data
+    @Setup(Level.Iteration)
+    public void freshSaver() throws Exception {
+        saver = createHandler(savePath);
+    }
+
+    @Benchmark
+    public SystemStateDto load() throws IOException {
+        return loader.load(loadPath);
+    }
+
+    /**
+     * Full save of the state. Incremental backends write everything on the first save of an
+     * iteration and only measure their change detection afterwards.
+     */
+    @Benchmark
+    public void save() throws IOException {
+        saver.save(savePath, state);
+    }
+
+    private SystemStateDto generate(Path file) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        options.put("customers", Integer.toString(customers));
+        options.put("products", Integer.toString(products));
+        options.put("sales", Integer.toString(sales));
+        options.put("ratings", Integer.toString(ratingsPerProduct));
+        // Every customer has a cart of cartFill items on average
+        options.put("carts", cartFill == 0 ? "0" : "1");
+        options.put("cart-items", Integer.toString(cartFill));
+        options.put("seed", "42");
+        new DatasetGenerator(options).generate(file.toString());
+        SystemStateDto generated = new JsonDataHandler().load(file.toString());
+        Files.delete(file);
+        return generated;
+    }
+
+    private DataStorageInterface createHandler(String path) throws Exception {
+        if (backend.startsWith("class:")) {
+            return (DataStorageInterface) Class.forName(backend.substring("class:".length()))
+                    .getDeclaredConstructor().newInstance();
+        }
+        return StorageBackends.create(backend, path, new StorageOptions(mappedReads, loadParallelism,
+                StreamCodecs.forName(compression)));
+    }
+}
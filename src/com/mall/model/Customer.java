@@ -10,6 +10,9 @@ import com.mall.service.ShoppingCart;
 public class Customer extends User {
     private final ShoppingCart cart;
     private BigDecimal balance;
+    // Unchanging copy handed out by freeze(), valid while the balance and the cart version stay the same
+    private Customer frozen;
+    private int frozenCartVersion;
 
     /**
      * Initializes a new Customer with a unique ID and starting balance.
@@ -20,6 +23,29 @@ public class Customer extends User {
         this.cart = new ShoppingCart();
     }
 
+    // Copy with its own detached cart
+    private Customer(Customer source) {
+        super(source.id, source.username, source.password, UserRole.CUSTOMER);
+        this.balance = source.balance;
+        this.cart = source.cart.copy();
+        this.frozen = this;
+        this.frozenCartVersion = cart.getVersion();
+    }
+
+    /**
+     * Copy of the balance and cart that is never changed; reused until either changes.
+     */
+    @Override
+    public Customer freeze() {
+        Customer f = frozen;
+        if (f == null || frozenCartVersion != cart.getVersion()) {
+            f = new Customer(this);
+            frozen = f;
+            frozenCartVersion = cart.getVersion();
+        }
+        return f;
+    }
+
     /**
      * @return The current funds available for the customer to make purchases.
      */
@@ -32,6 +58,7 @@ public class Customer extends User {
      */
     public void setBalance(BigDecimal balance) {
         this.balance = balance;
+        frozen = null;
     }
 
     /**
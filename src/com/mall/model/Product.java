@@ -1,7 +1,9 @@
 package com.mall.model;
 
 import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
 
@@ -13,17 +15,23 @@ public class Product {
     private String id;
     private String name;
     private String category;
+    // Dictionary code of the lower-cased category, compared by category filters
+    private int categoryCode;
     private BigDecimal price;
     private int stockQty;
     private String description;
     private String imagePath;
     private Map<Customer, Integer> ratings;
+    // While set, description, image path and ratings live here instead of the fields above
+    private ProductDetails.Source detailSource;
+    // Unchanging copy handed out by freeze(); dropped by every change
+    private Product frozen;
 
     public Product(String id, String name, String category, BigDecimal price,
             int stockQty, String description, String imagePath) {
         this.id = id;
         this.name = name;
-        this.category = category;
+        setCategory(category);
         this.price = price;
         this.stockQty = stockQty;
         this.description = description;
@@ -31,6 +39,48 @@ public class Product {
         this.ratings = new HashMap<>();
     }
 
+    /**
+     * Product whose description, image path and ratings are fetched from the given source
+     * when first needed.
+     */
+    public Product(String id, String name, String category, BigDecimal price,
+            int stockQty, ProductDetails.Source details) {
+        this(id, name, category, price, stockQty, null, null);
+        this.detailSource = details;
+    }
+
+    // Copy of every field; the ratings map is copied in the same iteration order (so it
+    // serializes identically), its customers are shared
+    private Product(Product source) {
+        this.id = source.id;
+        this.name = source.name;
+        this.category = source.category;
+        this.categoryCode = source.categoryCode;
+        this.price = source.price;
+        this.stockQty = source.stockQty;
+        this.description = source.description;
+        this.imagePath = source.imagePath;
+        this.ratings = new LinkedHashMap<>(source.ratings);
+        this.detailSource = source.detailSource;
+        this.frozen = this;
+    }
+
+    /**
+     * Point-in-time copy for background writers, which may read it while this product keeps
+     * changing. The copy is reused until the next change, so freezing an unchanged product
+     * is free. Call on the thread that changes the product.
+     *
+     * @return A copy that is never changed.
+     */
+    public Product freeze() {
+        Product f = frozen;
+        if (f == null) {
+            f = new Product(this);
+            frozen = f;
+        }
+        return f;
+    }
+
     /**
      * Adds a new rating or updates an existing one for a specific customer.
      * This ensures each customer has exactly one rating per product.
@@ -39,9 +89,11 @@ public class Product {
      * @param rating   Integer value of the rating.
      */
     public void addOrUpdateRating(Customer customer, int rating) {
+        pinDetails();
         // If the customer already exists in the map, .put() will overwrite the old
         // value.
         ratings.put(customer, rating);
+        frozen = null;
     }
 
     /**
@@ -50,6 +102,7 @@ public class Product {
      * @return The arithmetic mean of all ratings, or 0.0 if no ratings exist.
      */
     public double getAverageRating() {
+        Map<Customer, Integer> ratings = getRatings();
         if (ratings.isEmpty()) {
             return 0.0;
         }
@@ -60,6 +113,25 @@ public class Product {
         return sum / ratings.size();
     }
 
+    /**
+     * @return False while description, image path and ratings are left in storage.
+     */
+    public boolean hasResidentDetails() {
+        return detailSource == null;
+    }
+
+    // Takes the details out of storage so they can be changed
+    private void pinDetails() {
+        ProductDetails.Source source = detailSource;
+        if (source == null)
+            return;
+        ProductDetails details = source.read();
+        description = details.getDescription();
+        imagePath = details.getImagePath();
+        ratings = new HashMap<>(details.getRatings());
+        detailSource = null;
+    }
+
     // getters:
     public String getId() {
         return id;
@@ -73,6 +145,13 @@ public class Product {
         return category;
     }
 
+    /**
+     * @return The shared dictionary code of the category ignoring case, or -1 if it has none.
+     */
+    public int getCategoryCode() {
+        return categoryCode;
+    }
+
     public BigDecimal getPrice() {
         return price;
     }
@@ -82,36 +161,62 @@ public class Product {
     }
 
     public String getDescription() {
-        return description;
+        ProductDetails.Source source = detailSource;
+        return source != null ? source.read().getDescription() : description;
     }
 
     public String getImagePath() {
-        return imagePath;
+        ProductDetails.Source source = detailSource;
+        return source != null ? source.read().getImagePath() : imagePath;
     }
 
+    /**
+     * @return Read-only view of the ratings; change them with addOrUpdateRating() or setRatings().
+     */
     public Map<Customer, Integer> getRatings(){
-        return ratings;
+        ProductDetails.Source source = detailSource;
+        if (source != null)
+            return source.read().getRatings();
+        return Collections.unmodifiableMap(ratings);
     }
 
     // setters:
     public void setName(String name) {
         this.name = name;
+        frozen = null;
     }
 
     public void setCategory(String category) {
-        this.category = category;
+        StringDictionary dictionary = StringDictionary.shared();
+        this.category = dictionary.intern(category);
+        this.categoryCode = dictionary.foldedCode(category);
+        frozen = null;
     }
 
     public void setPrice(BigDecimal price) {
         this.price = price;
+        frozen = null;
     }
 
     public void setStockQty(int stockQty) {
         this.stockQty = stockQty;
+        frozen = null;
     }
 
     public void setDescription(String description) {
+        pinDetails();
         this.description = description;
+        frozen = null;
+    }
+
+    /**
+     * Replaces all ratings with the given ones.
+     */
+    public void setRatings(Map<Customer, Integer> ratings) {
+        pinDetails();
+        this.ratings.clear();
+        this.ratings.putAll(ratings);
+        frozen = null;
     }
 
     @Override
@@ -0,0 +1,48 @@
+package com.mall.model;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The large, rarely read part of a product: description, image path and ratings.
+ * A loader may leave these in storage and give the product a Source to fetch them from
+ * on first access instead.
+ */
+public final class ProductDetails {
+    private final String description;
+    private final String imagePath;
+    private final Map<Customer, Integer> ratings;
+
+    /**
+     * @param ratings Ratings in their stored order; the map is kept, not copied.
+     */
+    public ProductDetails(String description, String imagePath, Map<Customer, Integer> ratings) {
+        this.description = description;
+        this.imagePath = imagePath;
+        this.ratings = Collections.unmodifiableMap(ratings);
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getImagePath() {
+        return imagePath;
+    }
+
+    public Map<Customer, Integer> getRatings() {
+        return ratings;
+    }
+
+    /**
+     * Where the details of a product are stored while they are not resident.
+     * Implementations must be safe to call from any thread.
+     */
+    public interface Source {
+        /**
+         * @return The details; may be read again on each call.
+         * @throws java.io.UncheckedIOException if they cannot be read.
+         */
+        ProductDetails read();
+    }
+}
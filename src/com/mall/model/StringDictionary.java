@@ -0,0 +1,99 @@
+package com.mall.model;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared dictionary of product categories. Each distinct value gets one canonical instance
+ * and an int code, so a category held by thousands of products is stored once and category
+ * filters compare codes.
+ *
+ * Codes are assigned in first-seen order and never change while the program runs; they are
+ * not persisted. Entries are never removed, so only values of small, bounded variety belong
+ * here: not usernames or product names, which grow with the data and would outlive it (the
+ * loaders share those through a dictionary of their own, see JsonDataHandler.LoadContext).
+ * Safe for use from several threads.
+ */
+public final class StringDictionary {
+    private static final StringDictionary SHARED = new StringDictionary();
+
+    private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+    // Written before the code is published in 'codes', so a found code always has its value
+    private volatile String[] values = new String[256];
+    private int size;
+
+    /**
+     * @return The dictionary used by the loaders and services.
+     */
+    public static StringDictionary shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return The canonical instance equal to the value, or null for null.
+     */
+    public String intern(String value) {
+        if (value == null)
+            return null;
+        int code = code(value);
+        return values[code];
+    }
+
+    /**
+     * @return The code of the value, adding it if it is new, or -1 for null.
+     */
+    public int code(String value) {
+        if (value == null)
+            return -1;
+        Integer code = codes.get(value);
+        return code != null ? code : add(value);
+    }
+
+    /**
+     * @return The code of the value, or -1 if it has never been added.
+     */
+    public int find(String value) {
+        if (value == null)
+            return -1;
+        Integer code = codes.get(value);
+        return code != null ? code : -1;
+    }
+
+    /**
+     * @return The value with the given code.
+     */
+    public String value(int code) {
+        return code < 0 ? null : values[code];
+    }
+
+    private synchronized int add(String value) {
+        Integer code = codes.get(value);
+        if (code != null)
+            return code;
+        String[] v = values;
+        if (size == v.length) {
+            v = Arrays.copyOf(v, size * 2);
+            values = v;
+        }
+        v[size] = value;
+        codes.put(value, size);
+        return size++;
+    }
+
+    /**
+     * Code of the case-folded value, for case-insensitive comparisons such as categories.
+     *
+     * @return The code, or -1 for null.
+     */
+    public int foldedCode(String value) {
+        return value == null ? -1 : code(value.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Like foldedCode(), but does not add the value.
+     */
+    public int findFolded(String value) {
+        return value == null ? -1 : find(value.toLowerCase(Locale.ROOT));
+    }
+}
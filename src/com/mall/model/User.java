@@ -43,6 +43,15 @@ public abstract class User {
         return role;
     }
 
+    /**
+     * Point-in-time copy for background writers, which may read it while this user keeps
+     * changing. Users without mutable state return themselves. Call on the thread that
+     * changes the user.
+     */
+    public User freeze() {
+        return this;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o)
@@ -0,0 +1,418 @@
+package com.mall.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * B+tree of byte[] keys and values on a PageFile. Keys are ordered as unsigned bytes;
+ * leaves are linked left to right for range scans. The root page id is kept in a meta slot
+ * of the file, so several trees can share one file.
+ *
+ * Values longer than a quarter page are stored in a chain of overflow pages and the leaf
+ * keeps a reference. Nodes are decoded from their page, changed and encoded back; a node
+ * that no longer fits its page is split in two by size, except that the last leaf splits
+ * at an appended key so ascending inserts leave full leaves behind. Deletes remove the
+ * entry without merging nodes, so a leaf may become empty; its space is reused by later
+ * inserts.
+ *
+ * Page layouts (after a type byte and a 2-byte entry count):
+ * leaf:     next leaf (4), then per entry: key length (2), key, stored length (2), stored value
+ * internal: first child (4), then per entry: key length (2), key, child (4)
+ * overflow: next page (4), length (2), bytes
+ * A stored value is a flag byte followed by the value (0) or its length and first overflow
+ * page (1).
+ */
+final class BPlusTree {
+    static final int MAX_KEY_LENGTH = 255;
+
+    private static final byte LEAF = 1;
+    private static final byte INTERNAL = 2;
+    private static final byte OVERFLOW = 3;
+    private static final int NODE_HEADER = 7;
+    private static final int OVERFLOW_HEADER = 7;
+    private static final int OVERFLOW_CAPACITY = PageFile.PAGE_SIZE - OVERFLOW_HEADER;
+    // Longest value kept in the leaf; keeps at least a few entries per leaf
+    private static final int MAX_INLINE = PageFile.PAGE_SIZE / 4;
+
+    private final PageFile file;
+    private final int rootSlot;
+
+    /**
+     * @param rootSlot Meta slot of the file holding the root page id (0 while empty).
+     */
+    BPlusTree(PageFile file, int rootSlot) {
+        this.file = file;
+        this.rootSlot = rootSlot;
+    }
+
+    /**
+     * Receives the entries of a scan in key order; returns false to stop.
+     */
+    interface Visitor {
+        boolean visit(byte[] key, byte[] value) throws IOException;
+    }
+
+    // Decoded page: a leaf has values, an internal node has one more child than keys
+    private static final class Node {
+        final boolean leaf;
+        final List<byte[]> keys = new ArrayList<>();
+        final List<byte[]> values = new ArrayList<>();
+        final List<Integer> children = new ArrayList<>();
+        int next;
+
+        Node(boolean leaf) {
+            this.leaf = leaf;
+        }
+
+        int entrySize(int i) {
+            return 2 + keys.get(i).length + (leaf ? 2 + values.get(i).length : 4);
+        }
+
+        int size() {
+            int size = NODE_HEADER;
+            for (int i = 0; i < keys.size(); i++)
+                size += entrySize(i);
+            return size;
+        }
+    }
+
+    private static final class Split {
+        final byte[] separator;
+        final int right;
+
+        Split(byte[] separator, int right) {
+            this.separator = separator;
+            this.right = right;
+        }
+    }
+
+    private int root() {
+        return (int) file.getMeta(rootSlot);
+    }
+
+    // --- Reads ---
+
+    /**
+     * @return The value stored under the key, or null.
+     */
+    byte[] get(byte[] key) throws IOException {
+        int pageId = root();
+        if (pageId == 0)
+            return null;
+        Node node = readNode(pageId);
+        while (!node.leaf)
+            node = readNode(node.children.get(childIndex(node, key)));
+        int i = search(node.keys, key);
+        return i >= 0 ? resolve(node.values.get(i)) : null;
+    }
+
+    /**
+     * Visits the entries with from <= key < to in key order.
+     *
+     * @param from Inclusive lower bound, or null for the first entry.
+     * @param to   Exclusive upper bound, or null for no bound.
+     */
+    void scan(byte[] from, byte[] to, Visitor visitor) throws IOException {
+        int pageId = root();
+        if (pageId == 0)
+            return;
+        Node node = readNode(pageId);
+        while (!node.leaf)
+            node = readNode(node.children.get(from == null ? 0 : childIndex(node, from)));
+        int i = 0;
+        if (from != null) {
+            i = search(node.keys, from);
+            if (i < 0)
+                i = -i - 1;
+        }
+        while (true) {
+            for (; i < node.keys.size(); i++) {
+                byte[] key = node.keys.get(i);
+                if (to != null && Arrays.compareUnsigned(key, to) >= 0)
+                    return;
+                if (!visitor.visit(key, resolve(node.values.get(i))))
+                    return;
+            }
+            if (node.next == 0)
+                return;
+            node = readNode(node.next);
+            i = 0;
+        }
+    }
+
+    /**
+     * @return The first key that is >= from, or null if there is none.
+     */
+    byte[] ceilingKey(byte[] from) throws IOException {
+        byte[][] found = new byte[1][];
+        scan(from, null, (key, value) -> {
+            found[0] = key;
+            return false;
+        });
+        return found[0];
+    }
+
+    // --- Updates ---
+
+    /**
+     * Inserts or replaces the value of a key.
+     */
+    void put(byte[] key, byte[] value) throws IOException {
+        if (key.length > MAX_KEY_LENGTH)
+            throw new IOException("Key of " + key.length + " bytes exceeds " + MAX_KEY_LENGTH);
+        byte[] stored = store(value);
+        int pageId = root();
+        if (pageId == 0) {
+            pageId = file.allocate();
+            writeNode(pageId, new Node(true));
+            file.setMeta(rootSlot, pageId);
+        }
+        Split split = insert(pageId, key, stored);
+        if (split != null) {
+            Node root = new Node(false);
+            root.children.add(pageId);
+            root.keys.add(split.separator);
+            root.children.add(split.right);
+            int rootId = file.allocate();
+            writeNode(rootId, root);
+            file.setMeta(rootSlot, rootId);
+        }
+    }
+
+    private Split insert(int pageId, byte[] key, byte[] stored) throws IOException {
+        Node node = readNode(pageId);
+        boolean appended = false;
+        if (node.leaf) {
+            int i = search(node.keys, key);
+            if (i >= 0) {
+                release(node.values.get(i));
+                node.values.set(i, stored);
+            } else {
+                node.keys.add(-i - 1, key);
+                node.values.add(-i - 1, stored);
+                appended = node.next == 0 && -i - 1 == node.keys.size() - 1;
+            }
+        } else {
+            int c = childIndex(node, key);
+            Split split = insert(node.children.get(c), key, stored);
+            if (split == null)
+                return null;
+            node.keys.add(c, split.separator);
+            node.children.add(c + 1, split.right);
+        }
+        if (node.size() <= PageFile.PAGE_SIZE) {
+            writeNode(pageId, node);
+            return null;
+        }
+        return split(pageId, node, appended);
+    }
+
+    // Split an overfull node into two of about half its size each, or before the appended key
+    private Split split(int pageId, Node node, boolean appended) throws IOException {
+        int m = 0;
+        if (appended) {
+            m = node.keys.size() - 1;
+        } else {
+            int half = node.size() / 2;
+            for (int size = NODE_HEADER; m < node.keys.size() - 1 && size + node.entrySize(m) <= half; m++)
+                size += node.entrySize(m);
+        }
+        if (m == 0)
+            m = 1;
+        Node right = new Node(node.leaf);
+        byte[] separator;
+        int n = node.keys.size();
+        if (node.leaf) {
+            right.keys.addAll(node.keys.subList(m, n));
+            right.values.addAll(node.values.subList(m, n));
+            node.keys.subList(m, n).clear();
+            node.values.subList(m, n).clear();
+            separator = right.keys.get(0);
+        } else {
+            // The middle key moves up; its right child starts the new node
+            separator = node.keys.get(m);
+            right.keys.addAll(node.keys.subList(m + 1, n));
+            right.children.addAll(node.children.subList(m + 1, n + 1));
+            node.keys.subList(m, n).clear();
+            node.children.subList(m + 1, n + 1).clear();
+        }
+        int rightId = file.allocate();
+        if (node.leaf) {
+            right.next = node.next;
+            node.next = rightId;
+        }
+        writeNode(pageId, node);
+        writeNode(rightId, right);
+        return new Split(separator, rightId);
+    }
+
+    /**
+     * Removes a key.
+     *
+     * @return True if the key was present.
+     */
+    boolean delete(byte[] key) throws IOException {
+        int pageId = root();
+        if (pageId == 0)
+            return false;
+        Node node = readNode(pageId);
+        while (!node.leaf) {
+            pageId = node.children.get(childIndex(node, key));
+            node = readNode(pageId);
+        }
+        int i = search(node.keys, key);
+        if (i < 0)
+            return false;
+        release(node.values.get(i));
+        node.keys.remove(i);
+        node.values.remove(i);
+        writeNode(pageId, node);
+        return true;
+    }
+
+    /**
+     * Removes every entry and frees all pages of the tree.
+     */
+    void clear() throws IOException {
+        int pageId = root();
+        if (pageId != 0)
+            freeSubtree(pageId);
+        file.setMeta(rootSlot, 0);
+    }
+
+    private void freeSubtree(int pageId) throws IOException {
+        Node node = readNode(pageId);
+        if (node.leaf) {
+            for (byte[] stored : node.values)
+                release(stored);
+        } else {
+            for (int child : node.children)
+                freeSubtree(child);
+        }
+        file.free(pageId);
+    }
+
+    // --- Node helpers ---
+
+    // Index of the key, or -(insertion point) - 1
+    private static int search(List<byte[]> keys, byte[] key) {
+        int lo = 0, hi = keys.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = Arrays.compareUnsigned(keys.get(mid), key);
+            if (cmp < 0)
+                lo = mid + 1;
+            else if (cmp > 0)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -lo - 1;
+    }
+
+    // Child i holds the keys in [keys[i-1], keys[i])
+    private static int childIndex(Node node, byte[] key) {
+        int i = search(node.keys, key);
+        return i >= 0 ? i + 1 : -i - 1;
+    }
+
+    private Node readNode(int pageId) throws IOException {
+        ByteBuffer buf = file.read(pageId);
+        byte type = buf.get();
+        if (type != LEAF && type != INTERNAL)
+            throw new IOException("Page " + pageId + " is not a tree node (type " + type + ")");
+        Node node = new Node(type == LEAF);
+        int count = buf.getShort() & 0xFFFF;
+        if (node.leaf)
+            node.next = buf.getInt();
+        else
+            node.children.add(buf.getInt());
+        for (int i = 0; i < count; i++) {
+            byte[] key = new byte[buf.getShort() & 0xFFFF];
+            buf.get(key);
+            node.keys.add(key);
+            if (node.leaf) {
+                byte[] stored = new byte[buf.getShort() & 0xFFFF];
+                buf.get(stored);
+                node.values.add(stored);
+            } else {
+                node.children.add(buf.getInt());
+            }
+        }
+        return node;
+    }
+
+    private void writeNode(int pageId, Node node) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(node.size());
+        buf.put(node.leaf ? LEAF : INTERNAL).putShort((short) node.keys.size());
+        buf.putInt(node.leaf ? node.next : node.children.get(0));
+        for (int i = 0; i < node.keys.size(); i++) {
+            byte[] key = node.keys.get(i);
+            buf.putShort((short) key.length).put(key);
+            if (node.leaf) {
+                byte[] stored = node.values.get(i);
+                buf.putShort((short) stored.length).put(stored);
+            } else {
+                buf.putInt(node.children.get(i + 1));
+            }
+        }
+        file.write(pageId, buf.flip());
+    }
+
+    // --- Values and overflow chains ---
+
+    private byte[] store(byte[] value) throws IOException {
+        if (value.length <= MAX_INLINE) {
+            byte[] stored = new byte[value.length + 1];
+            System.arraycopy(value, 0, stored, 1, value.length);
+            return stored;
+        }
+        // Written back to front so each page knows its successor
+        int next = 0;
+        int pages = (value.length + OVERFLOW_CAPACITY - 1) / OVERFLOW_CAPACITY;
+        for (int p = pages - 1; p >= 0; p--) {
+            int offset = p * OVERFLOW_CAPACITY;
+            int length = Math.min(OVERFLOW_CAPACITY, value.length - offset);
+            ByteBuffer buf = ByteBuffer.allocate(OVERFLOW_HEADER + length);
+            buf.put(OVERFLOW).putInt(next).putShort((short) length).put(value, offset, length);
+            int pageId = file.allocate();
+            file.write(pageId, buf.flip());
+            next = pageId;
+        }
+        return ByteBuffer.allocate(9).put((byte) 1).putInt(value.length).putInt(next).array();
+    }
+
+    private byte[] resolve(byte[] stored) throws IOException {
+        if (stored[0] == 0)
+            return Arrays.copyOfRange(stored, 1, stored.length);
+        ByteBuffer ref = ByteBuffer.wrap(stored, 1, 8);
+        byte[] value = new byte[ref.getInt()];
+        int pageId = ref.getInt();
+        int offset = 0;
+        while (offset < value.length) {
+            ByteBuffer buf = file.read(pageId);
+            if (buf.get() != OVERFLOW)
+                throw new IOException("Page " + pageId + " is not an overflow page");
+            pageId = buf.getInt();
+            int length = buf.getShort() & 0xFFFF;
+            buf.get(value, offset, length);
+            offset += length;
+        }
+        return value;
+    }
+
+    // Free the overflow chain of a stored value
+    private void release(byte[] stored) throws IOException {
+        if (stored[0] == 0)
+            return;
+        int pageId = ByteBuffer.wrap(stored, 5, 4).getInt();
+        while (pageId != 0) {
+            int next = file.read(pageId).getInt(1);
+            file.free(pageId);
+            pageId = next;
+        }
+    }
+}
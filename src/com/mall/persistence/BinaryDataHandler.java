@@ -0,0 +1,538 @@
+package com.mall.persistence;
+
+import com.mall.model.*;
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * Compact binary snapshot format for the Shopping Mall system.
+ *
+ * Layout: magic "MALB", varint format version, then length-prefixed sections
+ * (tag byte, varint payload length, payload) terminated by tag 0. Every string is stored
+ * once in the string table and referenced by index; quantities are varints, prices and
+ * balances scaled longs, and sale dates epoch millis (UTC) delta-encoded against the
+ * previous sale. Unknown sections are skipped, so newer files stay readable.
+ * The whole file may be wrapped in a StreamCodec; it is recognized again on load.
+ *
+ * Since version 2 the products section holds only the fields needed to list and search;
+ * descriptions, image paths and ratings are in a details section of one record per product,
+ * so a lazy load can skip it and read each record by its offset when first needed.
+ */
+public class BinaryDataHandler implements DataStorageInterface {
+    static final byte[] MAGIC = { 'M', 'A', 'L', 'B' };
+    static final int VERSION = 2;
+
+    private static final int SECTION_END = 0;
+    private static final int SECTION_STRINGS = 1;
+    private static final int SECTION_USERS = 2;
+    private static final int SECTION_PRODUCTS = 3;
+    private static final int SECTION_SALES = 4;
+    private static final int SECTION_CARTS = 5;
+    private static final int SECTION_DETAILS = 6;
+
+    private static final int ROLE_ADMIN = 0;
+    private static final int ROLE_CUSTOMER = 1;
+
+    private final StreamCodec compression;
+    private final boolean lazyDetails;
+    private final int detailCacheSize;
+    private LoadStats lastLoadStats;
+    // Details file of the last lazy load; closed when another load replaces it
+    private ProductDetailFile detailFile;
+
+    public BinaryDataHandler() {
+        this(StreamCodecs.NONE);
+    }
+
+    /**
+     * @param compression Codec snapshots are written with.
+     */
+    public BinaryDataHandler(StreamCodec compression) {
+        this(new StorageOptions(false, 1, compression));
+    }
+
+    /**
+     * @param options Compression, and whether product details are loaded lazily.
+     */
+    public BinaryDataHandler(StorageOptions options) {
+        this.compression = options.getCompression();
+        this.lazyDetails = options.isLazyDetails();
+        this.detailCacheSize = options.getDetailCacheSize();
+    }
+
+    // --- Save ---
+
+    @Override
+    public void save(String filePath, SystemStateDto state) throws IOException {
+        StringTable strings = new StringTable();
+        BinaryWriter users = encodeUsers(state.getUsers(), strings);
+        int[] detailLengths = new int[state.getProducts().size()];
+        BinaryWriter details = encodeDetails(state.getProducts(), state.getUsers(), detailLengths);
+        BinaryWriter products = encodeProducts(state.getProducts(), strings, detailLengths);
+        BinaryWriter sales = encodeSales(state.getSales(), strings);
+        BinaryWriter carts = encodeCarts(state.getUsers(), strings);
+
+        // Written aside and renamed over the old file, which lazily loaded products may still read
+        Path target = new File(filePath).toPath();
+        Path tmp = new File(filePath + ".tmp").toPath();
+        try (OutputStream out = StreamCodecs.openOutput(tmp, compression)) {
+            out.write(MAGIC);
+            BinaryWriter header = new BinaryWriter(16);
+            header.writeVarInt(VERSION);
+            header.writeTo(out);
+
+            // The string table comes first so the loader can resolve references in one pass
+            writeSection(out, SECTION_STRINGS, strings.encode());
+            writeSection(out, SECTION_USERS, users);
+            // Before the products, so an eager load has the records at hand when it meets them
+            writeSection(out, SECTION_DETAILS, details);
+            writeSection(out, SECTION_PRODUCTS, products);
+            writeSection(out, SECTION_SALES, sales);
+            writeSection(out, SECTION_CARTS, carts);
+            out.write(SECTION_END);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeSection(OutputStream out, int tag, BinaryWriter payload) throws IOException {
+        BinaryWriter header = new BinaryWriter(16);
+        header.writeByte(tag);
+        header.writeVarInt(payload.size());
+        header.writeTo(out);
+        payload.writeTo(out);
+    }
+
+    private BinaryWriter encodeUsers(List<User> users, StringTable strings) {
+        BinaryWriter w = new BinaryWriter(users.size() * 16);
+        w.writeVarInt(users.size());
+        for (User u : users) {
+            boolean customer = u instanceof Customer;
+            w.writeByte(customer ? ROLE_CUSTOMER : ROLE_ADMIN);
+            w.writeVarInt(strings.ref(u.getId()));
+            w.writeVarInt(strings.ref(u.getUsername()));
+            w.writeVarInt(strings.ref(u.getPassword()));
+            if (customer)
+                w.writeDecimal(((Customer) u).getBalance());
+        }
+        return w;
+    }
+
+    // Hot fields, then the length of the product's details record
+    private BinaryWriter encodeProducts(List<Product> products, StringTable strings, int[] detailLengths) {
+        BinaryWriter w = new BinaryWriter(products.size() * 16);
+        w.writeVarInt(products.size());
+        for (int i = 0; i < products.size(); i++) {
+            Product p = products.get(i);
+            w.writeVarInt(strings.ref(p.getId()));
+            w.writeVarInt(strings.ref(p.getName()));
+            w.writeVarInt(strings.ref(p.getCategory()));
+            w.writeDecimal(p.getPrice());
+            w.writeSignedVarLong(p.getStockQty());
+            w.writeVarInt(detailLengths[i]);
+        }
+        return w;
+    }
+
+    // One record per product, in product order; strings are inline so a record reads on its own
+    private BinaryWriter encodeDetails(List<Product> products, List<User> users, int[] lengths) {
+        Map<String, Integer> userPositions = new HashMap<>(users.size() * 2);
+        for (int i = 0; i < users.size(); i++)
+            userPositions.put(users.get(i).getId(), i);
+        BinaryWriter w = new BinaryWriter(products.size() * 64);
+        for (int i = 0; i < products.size(); i++) {
+            Product p = products.get(i);
+            int start = w.size();
+            ProductDetailFile.writeOptionalUtf8(w, p.getDescription());
+            ProductDetailFile.writeOptionalUtf8(w, p.getImagePath());
+            // Ratings by users that are not saved could not be resolved on load anyway
+            List<Map.Entry<Customer, Integer>> ratings = new ArrayList<>();
+            for (Map.Entry<Customer, Integer> r : p.getRatings().entrySet()) {
+                if (userPositions.containsKey(r.getKey().getId()))
+                    ratings.add(r);
+            }
+            w.writeVarInt(ratings.size());
+            for (Map.Entry<Customer, Integer> r : ratings) {
+                w.writeVarInt(userPositions.get(r.getKey().getId()) + 1);
+                w.writeSignedVarLong(r.getValue());
+            }
+            lengths[i] = w.size() - start;
+        }
+        return w;
+    }
+
+    private BinaryWriter encodeSales(List<SaleRecord> sales, StringTable strings) {
+        BinaryWriter w = new BinaryWriter(sales.size() * 16);
+        w.writeVarInt(sales.size());
+        long previousMillis = 0;
+        for (SaleRecord s : sales) {
+            w.writeVarInt(strings.ref(s.getTransactionId()));
+            w.writeVarInt(strings.ref(s.getCustomerUsername()));
+            w.writeVarInt(strings.ref(s.getProductName()));
+            w.writeSignedVarLong(s.getQuantity());
+            w.writeDecimal(s.getAmountPaid());
+            long millis = toEpochMillis(s.getDate());
+            w.writeSignedVarLong(millis - previousMillis);
+            previousMillis = millis;
+        }
+        return w;
+    }
+
+    private BinaryWriter encodeCarts(List<User> users, StringTable strings) {
+        BinaryWriter w = new BinaryWriter(256);
+        List<Customer> customers = new ArrayList<>();
+        for (User u : users) {
+            if (u instanceof Customer && !((Customer) u).getCart().getItems().isEmpty())
+                customers.add((Customer) u);
+        }
+        w.writeVarInt(customers.size());
+        for (Customer c : customers) {
+            List<CartItem> items = c.getCart().getItems();
+            w.writeVarInt(strings.ref(c.getId()));
+            w.writeVarInt(items.size());
+            for (CartItem item : items) {
+                w.writeVarInt(strings.ref(item.getProduct().getId()));
+                w.writeSignedVarLong(item.getQuantity());
+            }
+        }
+        return w;
+    }
+
+    // --- Load ---
+
+    /**
+     * Products of a lazy load read their details through the file opened here until the next
+     * successful load closes it; products of earlier loads must not be used after that.
+     */
+    @Override
+    public SystemStateDto load(String filePath) throws IOException {
+        long started = System.nanoTime();
+        JsonDataHandler.LoadContext ctx = new JsonDataHandler.LoadContext();
+        lastLoadStats = ctx.stats;
+        List<User> users = new ArrayList<>();
+        List<Product> products = new ArrayList<>();
+        List<SaleRecord> sales = new ArrayList<>();
+
+        File file = new File(filePath);
+        if (!file.exists()) {
+            replaceDetailFile(null);
+            return new SystemStateDto(products, users, sales);
+        }
+
+        // Details can only be read in place from an uncompressed file
+        boolean lazy = lazyDetails && StreamCodecs.detect(file, compression) == StreamCodecs.NONE;
+        CountingInputStream counter = new CountingInputStream(
+                new BufferedInputStream(StreamCodecs.openInput(file, compression), 1 << 16));
+        Details details = new Details();
+        try (DataInputStream in = new DataInputStream(counter)) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC))
+                throw new IOException(filePath + " is not a binary mall snapshot");
+            int version = readVarInt(in);
+            if (version > VERSION)
+                throw new IOException("Unsupported binary snapshot version " + version);
+
+            String[] strings = new String[0];
+            byte[] payload = new byte[0];
+            boolean inlineDetails = version < 2;
+            int tag;
+            while ((tag = in.read()) > SECTION_END) {
+                int length = readVarInt(in);
+                if (tag == SECTION_DETAILS && !inlineDetails) {
+                    long sectionStart = System.nanoTime();
+                    details.users = users.toArray(new User[0]);
+                    if (lazy) {
+                        details.file = new ProductDetailFile(file.toPath(), counter.count, details.users, detailCacheSize);
+                        in.skipNBytes(length);
+                    } else {
+                        details.payload = new byte[length];
+                        in.readFully(details.payload);
+                    }
+                    ctx.stats.addSectionTime("details", System.nanoTime() - sectionStart);
+                    continue;
+                }
+                if (payload.length < length)
+                    payload = new byte[length];
+                in.readFully(payload, 0, length);
+                BinaryReader r = new BinaryReader(payload, 0, length);
+
+                long sectionStart = System.nanoTime();
+                String section;
+                switch (tag) {
+                    case SECTION_STRINGS:
+                        section = "strings";
+                        strings = StringTable.decode(r);
+                        ctx.stats.addRecords(section, strings.length);
+                        break;
+                    case SECTION_USERS:
+                        section = "users";
+                        decodeUsers(r, strings, ctx, users);
+                        break;
+                    case SECTION_PRODUCTS:
+                        section = "products";
+                        if (inlineDetails)
+                            decodeProductsV1(r, strings, ctx, products);
+                        else
+                            decodeProducts(r, strings, ctx, products, details);
+                        break;
+                    case SECTION_SALES:
+                        section = "sales";
+                        decodeSales(r, strings, ctx, sales);
+                        break;
+                    case SECTION_CARTS:
+                        section = "carts";
+                        decodeCarts(r, strings, ctx);
+                        break;
+                    default:
+                        // Section written by a newer version; its length lets us skip it
+                        continue;
+                }
+                ctx.stats.addSectionTime(section, System.nanoTime() - sectionStart);
+            }
+            if (tag < 0)
+                throw new IOException("Binary snapshot is truncated");
+        } catch (IOException | RuntimeException e) {
+            if (details.file != null)
+                details.file.close();
+            throw e;
+        }
+        replaceDetailFile(details.file);
+        ctx.stats.setTotalNanos(System.nanoTime() - started);
+        return new SystemStateDto(products, users, sales);
+    }
+
+    @Override
+    public LoadStats getLastLoadStats() {
+        return lastLoadStats;
+    }
+
+    private void decodeUsers(BinaryReader r, String[] strings, JsonDataHandler.LoadContext ctx,
+            List<User> users) throws IOException {
+        int count = r.readVarInt();
+        for (int i = 0; i < count; i++) {
+            int role = r.readByte();
+            String id = string(strings, r.readVarInt());
+            String username = string(strings, r.readVarInt());
+            String password = string(strings, r.readVarInt());
+            User u = (role == ROLE_CUSTOMER)
+                    ? new Customer(id, username, password, r.readDecimal())
+                    : new Administrator(id, username, password);
+            users.add(ctx.index(u));
+        }
+        ctx.stats.addRecords("users", count);
+    }
+
+    private synchronized void replaceDetailFile(ProductDetailFile file) {
+        ProductDetailFile previous = detailFile;
+        detailFile = file;
+        if (previous != null) {
+            try {
+                previous.close();
+            } catch (IOException e) {
+                System.err.println("Error closing product details file: " + e.getMessage());
+            }
+        }
+    }
+
+    private void decodeProducts(BinaryReader r, String[] strings, JsonDataHandler.LoadContext ctx,
+            List<Product> products, Details details) throws IOException {
+        if (details.file == null && details.payload == null)
+            throw new IOException("Binary snapshot has no product details section");
+        int count = r.readVarInt();
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            String id = string(strings, r.readVarInt());
+            String name = string(strings, r.readVarInt());
+            String category = string(strings, r.readVarInt());
+            BigDecimal price = r.readDecimal();
+            int stock = (int) r.readSignedVarLong();
+            int length = r.readVarInt();
+            Product p;
+            if (details.file != null) {
+                p = new Product(id, name, category, price, stock, details.file.source(offset, length));
+            } else {
+                if (length < 0 || length > details.payload.length - offset)
+                    throw new IOException("Product details record outside the details section");
+                ProductDetails d = ProductDetailFile.decode(new BinaryReader(details.payload, offset, length),
+                        details.users, ctx.stats);
+                p = new Product(id, name, category, price, stock, d.getDescription(), d.getImagePath());
+                for (Map.Entry<Customer, Integer> rating : d.getRatings().entrySet())
+                    p.addOrUpdateRating(rating.getKey(), rating.getValue());
+            }
+            offset += length;
+            products.add(ctx.index(p));
+        }
+        ctx.stats.addRecords("products", count);
+    }
+
+    // Version 1: details inline in the products section
+    private void decodeProductsV1(BinaryReader r, String[] strings, JsonDataHandler.LoadContext ctx,
+            List<Product> products) throws IOException {
+        int count = r.readVarInt();
+        for (int i = 0; i < count; i++) {
+            Product p = new Product(
+                    string(strings, r.readVarInt()),
+                    string(strings, r.readVarInt()),
+                    string(strings, r.readVarInt()),
+                    r.readDecimal(),
+                    (int) r.readSignedVarLong(),
+                    string(strings, r.readVarInt()),
+                    string(strings, r.readVarInt()));
+            int ratings = r.readVarInt();
+            for (int j = 0; j < ratings; j++) {
+                Customer customer = ctx.customer(string(strings, r.readVarInt()));
+                int score = (int) r.readSignedVarLong();
+                if (customer == null)
+                    ctx.stats.unresolvedRating();
+                else
+                    p.addOrUpdateRating(customer, score);
+            }
+            products.add(ctx.index(p));
+        }
+        ctx.stats.addRecords("products", count);
+    }
+
+    private void decodeSales(BinaryReader r, String[] strings, JsonDataHandler.LoadContext ctx,
+            List<SaleRecord> sales) throws IOException {
+        int count = r.readVarInt();
+        long millis = 0;
+        for (int i = 0; i < count; i++) {
+            String tid = string(strings, r.readVarInt());
+            String user = string(strings, r.readVarInt());
+            String product = string(strings, r.readVarInt());
+            int qty = (int) r.readSignedVarLong();
+            BigDecimal amount = r.readDecimal();
+            millis += r.readSignedVarLong();
+            sales.add(new SaleRecord(tid, user, product, qty, amount, fromEpochMillis(millis)));
+        }
+        ctx.stats.addRecords("sales", count);
+    }
+
+    private void decodeCarts(BinaryReader r, String[] strings, JsonDataHandler.LoadContext ctx) throws IOException {
+        int count = r.readVarInt();
+        for (int i = 0; i < count; i++) {
+            Customer customer = ctx.customer(string(strings, r.readVarInt()));
+            int items = r.readVarInt();
+            for (int j = 0; j < items; j++) {
+                Product p = ctx.productsById.get(string(strings, r.readVarInt()));
+                int qty = (int) r.readSignedVarLong();
+                if (customer == null || p == null)
+                    ctx.stats.unresolvedCartItem();
+                else
+                    customer.getCart().addProduct(p, qty);
+            }
+        }
+        ctx.stats.addRecords("carts", count);
+    }
+
+    // --- Helpers ---
+
+    static long toEpochMillis(LocalDateTime date) {
+        return date.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    static LocalDateTime fromEpochMillis(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+    }
+
+    private static String string(String[] strings, int ref) throws IOException {
+        if (ref == 0)
+            return null;
+        if (ref > strings.length)
+            throw new IOException("String reference " + ref + " outside the string table");
+        return strings[ref - 1];
+    }
+
+    // Varint straight from the stream, used for the file and section headers
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return result;
+        }
+        throw new IOException("Malformed varint in binary snapshot");
+    }
+
+    // Product details section of a version 2 file: kept in memory, or left in the file
+    private static final class Details {
+        User[] users = new User[0];
+        byte[] payload;
+        ProductDetailFile file;
+    }
+
+    // Tracks the file position of a lazily loaded details section
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0)
+                count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * Deduplicating string table. Reference 0 is null; other references are 1-based indexes.
+     */
+    static final class StringTable {
+        private final Map<String, Integer> refs = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int ref(String s) {
+            if (s == null)
+                return 0;
+            Integer ref = refs.get(s);
+            if (ref == null) {
+                values.add(s);
+                ref = values.size();
+                refs.put(s, ref);
+            }
+            return ref;
+        }
+
+        BinaryWriter encode() {
+            BinaryWriter w = new BinaryWriter(values.size() * 12);
+            w.writeVarInt(values.size());
+            for (String s : values)
+                w.writeUtf8(s);
+            return w;
+        }
+
+        static String[] decode(BinaryReader r) throws IOException {
+            String[] strings = new String[r.readVarInt()];
+            for (int i = 0; i < strings.length; i++)
+                strings[i] = r.readUtf8();
+            return strings;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.mall.persistence;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Cursor over a byte array holding data written by BinaryWriter.
+ * Reports truncated or corrupt input as IOException.
+ */
+class BinaryReader {
+    private final byte[] buf;
+    private int pos;
+    private final int limit;
+
+    BinaryReader(byte[] buf, int off, int len) {
+        this.buf = buf;
+        this.pos = off;
+        this.limit = off + len;
+    }
+
+    boolean hasRemaining() {
+        return pos < limit;
+    }
+
+    int readByte() throws IOException {
+        if (pos >= limit)
+            throw new IOException("Unexpected end of binary data");
+        return buf[pos++] & 0xFF;
+    }
+
+    long readVarLong() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return result;
+        }
+        throw new IOException("Malformed varint in binary data");
+    }
+
+    int readVarInt() throws IOException {
+        long v = readVarLong();
+        if (v > 0xFFFFFFFFL)
+            throw new IOException("Varint out of int range");
+        return (int) v;
+    }
+
+    long readSignedVarLong() throws IOException {
+        long v = readVarLong();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    String readUtf8() throws IOException {
+        int len = readVarInt();
+        if (len < 0 || len > limit - pos)
+            throw new IOException("String length exceeds binary data");
+        String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+        pos += len;
+        return s;
+    }
+
+    BigDecimal readDecimal() throws IOException {
+        int kind = readByte();
+        if (kind == 0) {
+            int scale = (int) readSignedVarLong();
+            return BigDecimal.valueOf(readSignedVarLong(), scale);
+        }
+        if (kind == 1)
+            return new BigDecimal(readUtf8());
+        throw new IOException("Unknown decimal encoding " + kind);
+    }
+
+    void skip(int n) throws IOException {
+        if (n < 0 || n > limit - pos)
+            throw new IOException("Skip beyond binary data");
+        pos += n;
+    }
+
+    int position() {
+        return pos;
+    }
+}
@@ -0,0 +1,90 @@
+package com.mall.persistence;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer with the primitive encodings used by the binary storage format:
+ * LEB128 varints, zig-zag signed varints, length-prefixed UTF-8 and scaled decimals.
+ */
+class BinaryWriter {
+    private byte[] buf;
+    private int size;
+
+    BinaryWriter(int initialCapacity) {
+        buf = new byte[Math.max(16, initialCapacity)];
+    }
+
+    void writeByte(int b) {
+        ensure(1);
+        buf[size++] = (byte) b;
+    }
+
+    void writeBytes(byte[] bytes, int off, int len) {
+        ensure(len);
+        System.arraycopy(bytes, off, buf, size, len);
+        size += len;
+    }
+
+    // Unsigned LEB128: 7 bits per byte, high bit set on all but the last byte
+    void writeVarLong(long v) {
+        ensure(10);
+        while ((v & ~0x7FL) != 0) {
+            buf[size++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[size++] = (byte) v;
+    }
+
+    void writeVarInt(int v) {
+        writeVarLong(v & 0xFFFFFFFFL);
+    }
+
+    // Zig-zag keeps small negative numbers short: 0, -1, 1, -2 ... -> 0, 1, 2, 3 ...
+    void writeSignedVarLong(long v) {
+        writeVarLong((v << 1) ^ (v >> 63));
+    }
+
+    void writeUtf8(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Writes a decimal as scale + unscaled long. Values whose unscaled part does not fit in a
+     * long (never the case for prices and balances in practice) fall back to their text form.
+     */
+    void writeDecimal(BigDecimal d) {
+        BigInteger unscaled = d.unscaledValue();
+        if (unscaled.bitLength() < 64) {
+            writeByte(0);
+            writeSignedVarLong(d.scale());
+            writeSignedVarLong(unscaled.longValue());
+        } else {
+            writeByte(1);
+            writeUtf8(d.toString());
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void reset() {
+        size = 0;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, size);
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > buf.length)
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+    }
+}
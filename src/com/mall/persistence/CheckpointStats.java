@@ -0,0 +1,64 @@
+package com.mall.persistence;
+
+/**
+ * Outcome of the most recent checkpoint: a snapshot written to replace a journal prefix.
+ */
+public class CheckpointStats {
+    private final int sequence;
+    private final boolean background;
+    private final long finishedAtMillis;
+    private final long durationNanos;
+    private final int recordsFolded;
+    private final int recordsKept;
+    private final long snapshotBytes;
+
+    CheckpointStats(int sequence, boolean background, long finishedAtMillis, long durationNanos,
+            int recordsFolded, int recordsKept, long snapshotBytes) {
+        this.sequence = sequence;
+        this.background = background;
+        this.finishedAtMillis = finishedAtMillis;
+        this.durationNanos = durationNanos;
+        this.recordsFolded = recordsFolded;
+        this.recordsKept = recordsKept;
+        this.snapshotBytes = snapshotBytes;
+    }
+
+    // Checkpoints completed by this handler so far, including this one
+    public int getSequence() {
+        return sequence;
+    }
+
+    // True if written by the background checkpointer, false if a save wrote the snapshot itself
+    public boolean isBackground() {
+        return background;
+    }
+
+    public long getFinishedAtMillis() {
+        return finishedAtMillis;
+    }
+
+    public double getDurationMillis() {
+        return durationNanos / 1_000_000.0;
+    }
+
+    // Journal records the snapshot made unnecessary
+    public int getRecordsFolded() {
+        return recordsFolded;
+    }
+
+    // Records appended while the snapshot was written, carried over into the new journal
+    public int getRecordsKept() {
+        return recordsKept;
+    }
+
+    public long getSnapshotBytes() {
+        return snapshotBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Checkpoint #%d (%s): folded %d journal records, kept %d, snapshot %,d bytes in %.1f ms",
+                sequence, background ? "background" : "on save", recordsFolded, recordsKept, snapshotBytes,
+                getDurationMillis());
+    }
+}
@@ -12,4 +12,24 @@ public interface DataStorageInterface {
     // Load and return a SystemStateDto from the given file path.
     // Implementations should throw IOException on I/O failures.
     SystemStateDto load(String filePath) throws IOException;
-}
\ No newline at end of file
+
+    // Statistics of the most recent load(), or null if the implementation does not collect them.
+    default LoadStats getLastLoadStats() {
+        return null;
+    }
+
+    // Sales left on disk by load(), or null if load() returns the complete sales history.
+    default SalesArchive getSalesArchive() {
+        return null;
+    }
+
+    // The most recent checkpoint, or null if the backend does not checkpoint or has not yet.
+    default CheckpointStats getLastCheckpoint() {
+        return null;
+    }
+
+    // Point updates of single records, or null if the backend only loads and saves whole states.
+    default RecordStore getRecordStore() {
+        return null;
+    }
+}
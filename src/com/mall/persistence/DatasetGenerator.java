@@ -0,0 +1,305 @@
+package com.mall.persistence;
+
+import com.mall.model.*;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Command-line generator of synthetic data.json-compatible datasets for load and capacity tests.
+ *
+ * Records are produced one at a time and written straight to the output, so heap use does not
+ * depend on the dataset size beyond two bytes of stock per product, kept so carts stay within
+ * it. Every section draws from its own Random derived from the seed, which makes the output
+ * identical for identical options.
+ *
+ * Usage: java com.mall.persistence.DatasetGenerator --out big.json [--customers 10000]
+ * [--admins 1] [--products 100000] [--sales 1000000] [--years 2] [--end 2026-01-01T00:00]
+ * [--zipf 1.0] [--ratings 3] [--carts 0.3] [--cart-items 3] [--seed 42]
+ *
+ * --zipf      Exponent of the Zipfian product popularity used by sales and carts (0 = uniform)
+ * --ratings   Average number of ratings per product
+ * --carts     Fraction of customers with a non-empty cart
+ * --cart-items Average number of items in a non-empty cart
+ * --years     Sales are spread evenly, in date order, over this many years before --end
+ */
+public class DatasetGenerator {
+    private static final String[] CATEGORIES = {
+            "Electronics", "Books", "Clothing", "Home", "Sports", "Toys", "Beauty", "Grocery" };
+
+    private final Map<String, String> options;
+    private final int customers;
+    private final int admins;
+    private final int products;
+    private final long sales;
+    private final double zipf;
+    private final double ratings;
+    private final double carts;
+    private final double cartItems;
+    private final int years;
+    private final LocalDateTime end;
+    private final long seed;
+    // Stock of each generated product, so carts never ask for more than the catalog holds
+    private short[] stock;
+
+    public DatasetGenerator(Map<String, String> options) {
+        this.options = options;
+        this.customers = Integer.parseInt(option("customers", "10000"));
+        this.admins = Integer.parseInt(option("admins", "1"));
+        this.products = Integer.parseInt(option("products", "100000"));
+        this.sales = Long.parseLong(option("sales", "1000000"));
+        this.zipf = Double.parseDouble(option("zipf", "1.0"));
+        this.ratings = Double.parseDouble(option("ratings", "3"));
+        this.carts = Double.parseDouble(option("carts", "0.3"));
+        this.cartItems = Double.parseDouble(option("cart-items", "3"));
+        this.years = Integer.parseInt(option("years", "2"));
+        this.end = LocalDateTime.parse(option("end", "2026-01-01T00:00"));
+        this.seed = Long.parseLong(option("seed", "42"));
+        if (customers < 1 || products < 1 || sales < 0 || years < 1)
+            throw new IllegalArgumentException("customers, products and years must be positive");
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                usage();
+                return;
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        if (args.length % 2 != 0 || !options.containsKey("out")) {
+            usage();
+            return;
+        }
+        try {
+            long started = System.nanoTime();
+            String out = options.get("out");
+            new DatasetGenerator(options).generate(out);
+            System.out.printf("Wrote %s: %,d bytes in %.1f s%n", out, new File(out).length(),
+                    (System.nanoTime() - started) / 1e9);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Generation failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: DatasetGenerator --out <file> [--customers N] [--admins N] [--products N]"
+                + " [--sales N] [--years N] [--end yyyy-MM-ddTHH:mm] [--zipf S] [--ratings AVG]"
+                + " [--carts FRACTION] [--cart-items AVG] [--seed N]");
+        System.exit(2);
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    /**
+     * Writes the dataset as a JSON data document.
+     */
+    public void generate(String filePath) throws IOException {
+        try (JsonRecordWriter out = new JsonRecordWriter(Paths.get(filePath))) {
+            out.write("{\n");
+            out.write("  \"format\": " + JsonDataHandler.FORMAT_VERSION);
+            writeUsers(out, new Random(seed));
+            writeProducts(out, new Random(seed + 1));
+            writeSales(out, new Random(seed + 2));
+            writeCarts(out, new Random(seed + 3));
+            out.write("\n}");
+        }
+    }
+
+    private void writeUsers(JsonRecordWriter out, Random random) throws IOException {
+        JsonDataHandler.beginSection(out, "users");
+        for (int i = 0; i < admins; i++)
+            JsonDataHandler.nextRecord(out, i == 0).user(new Administrator("admin-" + i, "admin" + i, "admin" + i));
+        for (int i = 0; i < customers; i++) {
+            Customer c = customer(i, BigDecimal.valueOf(random.nextInt(10_000_000), 2));
+            JsonDataHandler.nextRecord(out, admins == 0 && i == 0).user(c);
+        }
+        JsonDataHandler.endSection(out);
+    }
+
+    private void writeProducts(JsonRecordWriter out, Random random) throws IOException {
+        JsonDataHandler.beginSection(out, "products");
+        stock = new short[products];
+        for (int i = 0; i < products; i++) {
+            stock[i] = (short) random.nextInt(1000);
+            Product p = new Product(productId(i), productName(i), CATEGORIES[random.nextInt(CATEGORIES.length)],
+                    BigDecimal.valueOf(100 + random.nextInt(500_000), 2), stock[i],
+                    "Synthetic product " + i, "resources\\images\\products\\" + productId(i) + ".jpg");
+            // Raters are only needed for their id while the record is written
+            int count = around(random, ratings);
+            for (int r = 0; r < count; r++)
+                p.addOrUpdateRating(customer(random.nextInt(customers), BigDecimal.ZERO), 1 + random.nextInt(5));
+            JsonDataHandler.nextRecord(out, i == 0).product(p);
+        }
+        JsonDataHandler.endSection(out);
+    }
+
+    private void writeSales(JsonRecordWriter out, Random random) throws IOException {
+        JsonDataHandler.beginSection(out, "sales");
+        ZipfSampler popularity = new ZipfSampler(products, zipf, random);
+        long endSecond = end.toEpochSecond(ZoneOffset.UTC);
+        long span = end.minusYears(years).until(end, ChronoUnit.SECONDS);
+        double step = sales == 0 ? 0 : (double) span / sales;
+        for (long i = 0; i < sales; i++) {
+            // Evenly spread with jitter inside each slot, so dates stay in order
+            long second = endSecond - span + (long) ((i + random.nextDouble()) * step);
+            int product = popularity.next();
+            int qty = 1 + random.nextInt(5);
+            SaleRecord s = new SaleRecord("T" + i, username(random.nextInt(customers)), productName(product), qty,
+                    BigDecimal.valueOf((100 + random.nextInt(500_000)) * (long) qty, 2),
+                    LocalDateTime.ofEpochSecond(second, 0, ZoneOffset.UTC));
+            JsonDataHandler.nextRecord(out, i == 0).sale(s);
+        }
+        JsonDataHandler.endSection(out);
+    }
+
+    private void writeCarts(JsonRecordWriter out, Random random) throws IOException {
+        JsonDataHandler.beginSection(out, "carts");
+        ZipfSampler popularity = new ZipfSampler(products, zipf, random);
+        for (int i = 0; i < customers; i++) {
+            Customer c = customer(i, BigDecimal.ZERO);
+            if (random.nextDouble() < carts) {
+                int count = Math.max(1, around(random, cartItems));
+                for (int k = 0; k < count; k++) {
+                    // Stub product: only its id is written; its stock is the generated one, so the
+                    // cart loads against the real catalog
+                    int product = popularity.next();
+                    int qty = Math.min(1 + random.nextInt(3), stock[product] - inCart(c, productId(product)));
+                    if (qty > 0)
+                        c.getCart().addProduct(new Product(productId(product), null, null, null, stock[product],
+                                null, null), qty);
+                }
+            }
+            JsonDataHandler.nextRecord(out, i == 0).cart(c);
+        }
+        JsonDataHandler.endSection(out);
+    }
+
+    private static int inCart(Customer c, String productId) {
+        for (CartItem item : c.getCart().getItems()) {
+            if (item.getProduct().getId().equals(productId))
+                return item.getQuantity();
+        }
+        return 0;
+    }
+
+    // Uniform in [0, 2 * average], so the mean is the requested average
+    private static int around(Random random, double average) {
+        return average <= 0 ? 0 : (int) Math.round(random.nextDouble() * 2 * average);
+    }
+
+    private static Customer customer(int i, BigDecimal balance) {
+        return new Customer("cust-" + i, username(i), "pass" + i, balance);
+    }
+
+    private static String username(int i) {
+        return "user" + i;
+    }
+
+    private static String productId(int i) {
+        return "prod-" + i;
+    }
+
+    private static String productName(int i) {
+        return "Product " + i;
+    }
+
+    /**
+     * Draws product indexes with Zipfian popularity in O(1) memory (rejection-inversion
+     * sampling, Hörmann and Derflinger). Ranks are scattered over the catalog by a fixed
+     * permutation so the best sellers are not simply the first products.
+     */
+    static final class ZipfSampler {
+        private final int n;
+        private final double exponent;
+        private final Random random;
+        private final long stride;
+        private final double hIntegralX1;
+        private final double hIntegralN;
+        private final double s;
+
+        ZipfSampler(int n, double exponent, Random random) {
+            this.n = n;
+            this.exponent = exponent;
+            this.random = random;
+            this.stride = coprimeStride(n);
+            this.hIntegralX1 = hIntegral(1.5) - 1.0;
+            this.hIntegralN = hIntegral(n + 0.5);
+            this.s = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        // Index in [0, n)
+        int next() {
+            if (exponent <= 0)
+                return random.nextInt(n);
+            return (int) (((rank() - 1) * stride) % n);
+        }
+
+        // Rank in [1, n], rank k drawn with probability proportional to k^-exponent
+        private long rank() {
+            while (true) {
+                double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+                double x = hIntegralInverse(u);
+                long k = (long) (x + 0.5);
+                if (k < 1)
+                    k = 1;
+                else if (k > n)
+                    k = n;
+                if (k - x <= s || u >= hIntegral(k + 0.5) - h(k))
+                    return k;
+            }
+        }
+
+        private static long coprimeStride(int n) {
+            long stride = Math.max(1, (long) (n * 0.618));
+            while (gcd(stride, n) != 1)
+                stride++;
+            return stride;
+        }
+
+        private static long gcd(long a, long b) {
+            return b == 0 ? a : gcd(b, a % b);
+        }
+
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return helper2((1.0 - exponent) * logX) * logX;
+        }
+
+        private double h(double x) {
+            return Math.exp(-exponent * Math.log(x));
+        }
+
+        private double hIntegralInverse(double x) {
+            double t = x * (1.0 - exponent);
+            if (t < -1.0)
+                t = -1.0;
+            return Math.exp(helper1(t) * x);
+        }
+
+        // log(1 + x) / x, accurate near 0
+        private static double helper1(double x) {
+            if (Math.abs(x) > 1e-8)
+                return Math.log1p(x) / x;
+            return 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+        }
+
+        // (exp(x) - 1) / x, accurate near 0
+        private static double helper2(double x) {
+            if (Math.abs(x) > 1e-8)
+                return Math.expm1(x) / x;
+            return 1.0 + x * 0.5 * (1.0 + x * 1.0 / 3.0 * (1.0 + 0.25 * x));
+        }
+    }
+}
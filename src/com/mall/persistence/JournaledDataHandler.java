@@ -0,0 +1,534 @@
+package com.mall.persistence;
+
+import com.mall.model.*;
+import com.mall.service.ShoppingCart;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Journaled storage mode for the Shopping Mall system.
+ *
+ * A full snapshot is kept at the configured path (written by a delegate handler) and every
+ * save in between only appends the entities that changed to "<path>.journal". Which ones
+ * changed comes from the ids in the state's StateChanges, recorded by the services as they
+ * made the changes; a dirty section without ids is written as a new snapshot instead.
+ * On load the snapshot is read and the journal tail is replayed on top of it, so a single
+ * cart click or deposit costs one short record instead of a rewrite of the whole file.
+ *
+ * A checkpointer keeps replay short: once the journal holds checkpointRecords records, or
+ * the snapshot is older than the checkpoint interval, a new snapshot is written on a
+ * background thread while saves keep appending. The snapshot is written from the state of the
+ * save that started it, which holds frozen copies, so it is consistent no matter how the live
+ * objects change in the meantime. It is then swapped in and the journal is cut down to the
+ * records appended since.
+ *
+ * Journal layout (one record per line):
+ * H <snapshot length> <snapshot lastModified> - header binding the journal to its snapshot
+ * U {user} | P {product} | D "productId" | S {sale} | C {cart}
+ * K <snapshot length> <snapshot lastModified> <records> - written just before a checkpoint
+ * snapshot is swapped in; if the journal could not be cut down afterwards, load() skips
+ * the first <records> records covered by that snapshot
+ *
+ * The state of a save may be read by the checkpointer after save() returns, so neither its
+ * lists nor their entities may change afterwards (MallManager hands out frozen copies).
+ */
+public class JournaledDataHandler implements DataStorageInterface {
+    static final String JOURNAL_SUFFIX = ".journal";
+
+    static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+    // Number of journal records after which the next save starts a checkpoint
+    static final int DEFAULT_CHECKPOINT_RECORDS = 5000;
+    // Age of the journal after which the next save starts a checkpoint
+    static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 60_000;
+
+    private final DataStorageInterface snapshotHandler;
+    private final JsonDataHandler codec = new JsonDataHandler();
+    private final int checkpointRecords;
+    private final long checkpointIntervalMillis;
+    private ExecutorService checkpointer;
+
+    // Sales covered by the snapshot and journal, and the text of the last one; sales lists may
+    // hand out a new record object on every read
+    private int savedSales;
+    private String lastSale;
+
+    // Path the journal describes; null until a load or snapshot established a baseline
+    private String baselinePath;
+    private int journalRecords;
+    private boolean replayDamaged;
+    private LoadStats lastLoadStats;
+
+    // Bumped whenever the snapshot or journal is replaced; a checkpoint begun before is dropped
+    private int generation;
+    private boolean checkpointRunning;
+    // When the current snapshot was written
+    private long snapshotMillis = System.currentTimeMillis();
+    private int checkpoints;
+    private volatile CheckpointStats lastCheckpoint;
+
+    public JournaledDataHandler(DataStorageInterface snapshotHandler) {
+        this(snapshotHandler, DEFAULT_CHECKPOINT_RECORDS);
+    }
+
+    public JournaledDataHandler(DataStorageInterface snapshotHandler, int checkpointRecords) {
+        this(snapshotHandler, checkpointRecords, DEFAULT_CHECKPOINT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param checkpointRecords        Journal records that trigger a checkpoint.
+     * @param checkpointIntervalMillis Journal age that triggers a checkpoint; 0 disables the
+     *                                 time trigger.
+     */
+    public JournaledDataHandler(DataStorageInterface snapshotHandler, int checkpointRecords,
+            long checkpointIntervalMillis) {
+        this.snapshotHandler = snapshotHandler;
+        this.checkpointRecords = Math.max(1, checkpointRecords);
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+    }
+
+    // --- Save: append changed entities, or write a fresh snapshot when required ---
+
+    @Override
+    public synchronized void save(String filePath, SystemStateDto state) throws IOException {
+        if (!filePath.equals(baselinePath)) {
+            writeSnapshot(filePath, state);
+            return;
+        }
+
+        List<String> records = collectChanges(state);
+        if (records == null) {
+            // Change cannot be expressed as journal records (e.g. deleted sales)
+            writeSnapshot(filePath, state);
+            return;
+        }
+        if (!records.isEmpty()) {
+            appendToJournal(filePath, records);
+            journalRecords += records.size();
+        }
+        rememberSales(state.getSales());
+        startCheckpointIfDue(filePath, state);
+    }
+
+    // Records for the entities the state reports as changed, or null if a snapshot is needed
+    private List<String> collectChanges(SystemStateDto state) {
+        StateChanges changes = state.getChanges();
+        Set<String> users = changes.getIds(StateSection.USERS);
+        Set<String> products = changes.getIds(StateSection.PRODUCTS);
+        Set<String> carts = changes.getIds(StateSection.CARTS);
+        if (users == null || products == null || carts == null)
+            return null;
+
+        List<String> out = new ArrayList<>();
+        if (!users.isEmpty() || !carts.isEmpty()) {
+            int found = 0;
+            List<String> cartRecords = new ArrayList<>();
+            for (User u : state.getUsers()) {
+                if (users.contains(u.getId())) {
+                    out.add("U " + codec.formatUser(u));
+                    found++;
+                }
+                if (u instanceof Customer && carts.contains(u.getId()))
+                    cartRecords.add("C " + codec.formatCart((Customer) u));
+            }
+            // Users are never deleted by the application; fall back to a snapshot if it happens
+            if (found < users.size())
+                return null;
+            out.addAll(cartRecords);
+        }
+
+        if (!products.isEmpty()) {
+            Set<String> removed = new HashSet<>(products);
+            for (Product p : state.getProducts()) {
+                if (removed.remove(p.getId()))
+                    out.add("P " + codec.formatProduct(p));
+            }
+            for (String id : removed)
+                out.add("D \"" + JsonDataHandler.escape(id) + "\"");
+        }
+
+        // Sales are append-only in practice: journal the tail if the known prefix is untouched
+        List<SaleRecord> sales = state.getSales();
+        if (sales.size() < savedSales
+                || (savedSales > 0 && !codec.formatSale(sales.get(savedSales - 1)).equals(lastSale)))
+            return null;
+        for (int i = savedSales; i < sales.size(); i++)
+            out.add("S " + codec.formatSale(sales.get(i)));
+        return out;
+    }
+
+    private void rememberSales(List<SaleRecord> sales) {
+        savedSales = sales.size();
+        lastSale = sales.isEmpty() ? null : codec.formatSale(sales.get(sales.size() - 1));
+    }
+
+    private void appendToJournal(String filePath, List<String> records) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(filePath + JOURNAL_SUFFIX, true);
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            for (String record : records) {
+                writer.write(record);
+                writer.write("\n");
+            }
+            writer.flush();
+            // Make the appended records durable before reporting the save as done
+            out.getChannel().force(false);
+        }
+    }
+
+    // Write a full snapshot next to the target, swap it in and start an empty journal for it
+    private void writeSnapshot(String filePath, SystemStateDto state) throws IOException {
+        long started = System.nanoTime();
+        int folded = journalRecords;
+        Path target = Paths.get(filePath);
+        Path tmp = Paths.get(filePath + ".tmp");
+        generation++;
+        snapshotHandler.save(tmp.toString(), state);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        startJournal(filePath);
+
+        rememberSales(state.getSales());
+        baselinePath = filePath;
+        journalRecords = 0;
+        snapshotMillis = System.currentTimeMillis();
+        lastCheckpoint = new CheckpointStats(++checkpoints, false, snapshotMillis, System.nanoTime() - started,
+                folded, 0, Files.size(target));
+    }
+
+    // --- Checkpoints: background snapshots that replace the journal prefix they cover ---
+
+    // What a checkpoint captured when it began, under the handler's lock
+    private static final class Checkpoint {
+        final String filePath;
+        final int generation;
+        final SystemStateDto state;
+        // Journal records and bytes the snapshot will cover
+        final int records;
+        final long journalBytes;
+
+        Checkpoint(String filePath, int generation, SystemStateDto state, int records, long journalBytes) {
+            this.filePath = filePath;
+            this.generation = generation;
+            this.state = state;
+            this.records = records;
+            this.journalBytes = journalBytes;
+        }
+    }
+
+    private void startCheckpointIfDue(String filePath, SystemStateDto state) throws IOException {
+        if (checkpointRunning || journalRecords == 0)
+            return;
+        boolean due = journalRecords >= checkpointRecords || (checkpointIntervalMillis > 0
+                && System.currentTimeMillis() - snapshotMillis >= checkpointIntervalMillis);
+        if (!due)
+            return;
+        Checkpoint checkpoint = new Checkpoint(filePath, generation, state, journalRecords,
+                Files.size(Paths.get(filePath + JOURNAL_SUFFIX)));
+        if (checkpointer == null) {
+            checkpointer = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "mall-checkpoint");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        checkpointRunning = true;
+        checkpointer.execute(() -> runCheckpoint(checkpoint));
+    }
+
+    // Runs on the checkpoint thread; saves continue while the snapshot is written
+    private void runCheckpoint(Checkpoint checkpoint) {
+        long started = System.nanoTime();
+        Path tmp = Paths.get(checkpoint.filePath + CHECKPOINT_SUFFIX);
+        try {
+            snapshotHandler.save(tmp.toString(), checkpoint.state);
+            // The snapshot must be on disk before the journal prefix it replaces is dropped
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            swapInCheckpoint(checkpoint, tmp, started);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Checkpoint failed; the journal is kept: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                // Overwritten by the next checkpoint
+            }
+            synchronized (this) {
+                checkpointRunning = false;
+            }
+        }
+    }
+
+    private synchronized void swapInCheckpoint(Checkpoint checkpoint, Path tmp, long started) throws IOException {
+        // A full snapshot or a load replaced the state the checkpoint was taken from
+        if (checkpoint.generation != generation || !checkpoint.filePath.equals(baselinePath))
+            return;
+
+        Path target = Paths.get(checkpoint.filePath);
+        Path journal = Paths.get(checkpoint.filePath + JOURNAL_SUFFIX);
+        long journalEnd = Files.size(journal);
+        appendToJournal(checkpoint.filePath, List.of("K " + Files.size(tmp) + " "
+                + Files.getLastModifiedTime(tmp).toMillis() + " " + checkpoint.records));
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        generation++;
+
+        // New journal: a header for the new snapshot, then the records appended since it began
+        Path journalTmp = Paths.get(checkpoint.filePath + JOURNAL_SUFFIX + ".tmp");
+        try {
+            try (FileChannel in = FileChannel.open(journal, StandardOpenOption.READ);
+                    FileChannel out = FileChannel.open(journalTmp, StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.wrap((header(target) + "\n").getBytes(StandardCharsets.UTF_8));
+                while (header.hasRemaining())
+                    out.write(header);
+                for (long pos = checkpoint.journalBytes; pos < journalEnd;)
+                    pos += in.transferTo(pos, journalEnd - pos, out);
+                out.force(false);
+            }
+            Files.move(journalTmp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The old journal still replays correctly through its K record; start over cleanly
+            baselinePath = null;
+            throw e;
+        }
+
+        journalRecords -= checkpoint.records;
+        snapshotMillis = System.currentTimeMillis();
+        lastCheckpoint = new CheckpointStats(++checkpoints, true, snapshotMillis, System.nanoTime() - started,
+                checkpoint.records, journalRecords, Files.size(target));
+    }
+
+    @Override
+    public CheckpointStats getLastCheckpoint() {
+        return lastCheckpoint;
+    }
+
+    // Replace the journal with an empty one bound to the snapshot currently at filePath
+    private void startJournal(String filePath) throws IOException {
+        Path journal = Paths.get(filePath + JOURNAL_SUFFIX);
+        Path journalTmp = Paths.get(filePath + JOURNAL_SUFFIX + ".tmp");
+        Files.write(journalTmp, List.of(header(Paths.get(filePath))), StandardCharsets.UTF_8);
+        Files.move(journalTmp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private String header(Path snapshot) throws IOException {
+        return "H " + Files.size(snapshot) + " " + Files.getLastModifiedTime(snapshot).toMillis();
+    }
+
+    // --- Load: snapshot plus journal replay ---
+
+    @Override
+    public synchronized SystemStateDto load(String filePath) throws IOException {
+        long started = System.nanoTime();
+        SystemStateDto snapshot = snapshotHandler.load(filePath);
+
+        // Index the snapshot once; replayed records resolve users and products through it
+        JsonDataHandler.LoadContext ctx = new JsonDataHandler.LoadContext();
+        List<User> users = new ArrayList<>(snapshot.getUsers());
+        for (User u : users)
+            ctx.index(u);
+        for (Product p : snapshot.getProducts())
+            ctx.index(p);
+        List<SaleRecord> sales = new ArrayList<>(snapshot.getSales());
+
+        long replayStart = System.nanoTime();
+        int replayed = replayJournal(filePath, ctx, users, sales);
+        ctx.stats.addRecords("journal", Math.max(replayed, 0));
+        ctx.stats.addSectionTime("journal", System.nanoTime() - replayStart);
+        lastLoadStats = mergeStats(snapshotHandler.getLastLoadStats(), ctx.stats, System.nanoTime() - started);
+
+        Map<String, Product> products = ctx.productsById;
+        SystemStateDto state = new SystemStateDto(new ArrayList<>(products.values()), users, sales);
+        rememberSales(sales);
+        baselinePath = null;
+        generation++;
+        File snapshotFile = new File(filePath);
+        snapshotMillis = snapshotFile.exists() ? snapshotFile.lastModified() : System.currentTimeMillis();
+        if (new File(filePath).exists() && !replayDamaged) {
+            // A missing or stale journal is replaced so that new records are bound to this snapshot
+            if (replayed < 0)
+                startJournal(filePath);
+            baselinePath = filePath;
+        }
+        // With no baseline (or a damaged journal tail) the next save writes a full snapshot
+        journalRecords = Math.max(replayed, 0);
+        return state;
+    }
+
+    // Apply journal records in order and return how many were applied, or -1 if there is no
+    // journal for the current snapshot. Stops at the first torn or unreadable record.
+    private int replayJournal(String filePath, JsonDataHandler.LoadContext ctx, List<User> users,
+            List<SaleRecord> sales) throws IOException {
+        File journal = new File(filePath + JOURNAL_SUFFIX);
+        File snapshot = new File(filePath);
+        replayDamaged = false;
+        if (!journal.exists() || !snapshot.exists())
+            return -1;
+
+        int covered = 0;
+        try (JsonTokenizer in = openJournal(journal)) {
+            if (!matchesSnapshot(in, snapshot.toPath())) {
+                // The snapshot may be a checkpoint swapped in just before the journal was cut down
+                covered = coveredByCheckpoint(journal, snapshot.toPath());
+                // Otherwise the journal belongs to an older snapshot whose contents are already folded in
+                if (covered < 0)
+                    return -1;
+            }
+        }
+
+        int applied = 0;
+        try (JsonTokenizer in = openJournal(journal)) {
+            skipHeader(in);
+            try {
+                for (int skipped = 0; skipped < covered;) {
+                    if (!in.nextLiteral().equals("K")) {
+                        in.skipValue();
+                        skipped++;
+                    } else {
+                        skipCheckpointMarker(in);
+                    }
+                }
+                while (in.peek() != JsonTokenizer.Token.END_DOCUMENT) {
+                    if (applyRecord(in, ctx, users, sales))
+                        applied++;
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Journal replay stopped at a damaged record: " + e.getMessage());
+                replayDamaged = true;
+            }
+        }
+        return applied;
+    }
+
+    private static JsonTokenizer openJournal(File journal) throws IOException {
+        return new JsonTokenizer(new InputStreamReader(new FileInputStream(journal), StandardCharsets.UTF_8));
+    }
+
+    private static void skipHeader(JsonTokenizer in) throws IOException {
+        in.nextLiteral();
+        in.nextLong();
+        in.nextLong();
+    }
+
+    private static void skipCheckpointMarker(JsonTokenizer in) throws IOException {
+        in.nextLong();
+        in.nextLong();
+        in.nextLong();
+    }
+
+    // Records covered by the last checkpoint marker naming this snapshot, or -1 if there is none
+    private static int coveredByCheckpoint(File journal, Path snapshot) throws IOException {
+        long size = Files.size(snapshot);
+        long modified = Files.getLastModifiedTime(snapshot).toMillis();
+        int covered = -1;
+        try (JsonTokenizer in = openJournal(journal)) {
+            skipHeader(in);
+            while (in.peek() != JsonTokenizer.Token.END_DOCUMENT) {
+                if (!in.nextLiteral().equals("K")) {
+                    in.skipValue();
+                } else {
+                    long markedSize = in.nextLong();
+                    long markedModified = in.nextLong();
+                    long records = in.nextLong();
+                    if (markedSize == size && markedModified == modified)
+                        covered = (int) records;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // A torn tail cannot hold a complete marker
+        }
+        return covered;
+    }
+
+    private boolean matchesSnapshot(JsonTokenizer in, Path snapshot) throws IOException {
+        try {
+            return in.nextLiteral().equals("H")
+                    && in.nextLong() == Files.size(snapshot)
+                    && in.nextLong() == Files.getLastModifiedTime(snapshot).toMillis();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Returns false for checkpoint markers, which change nothing
+    private boolean applyRecord(JsonTokenizer in, JsonDataHandler.LoadContext ctx, List<User> users,
+            List<SaleRecord> sales) throws IOException {
+        String op = in.nextLiteral();
+        switch (op) {
+            case "K":
+                skipCheckpointMarker(in);
+                return false;
+            case "U":
+                upsertUser(codec.readUser(in, ctx), ctx, users);
+                break;
+            case "P":
+                upsertProduct(codec.readProduct(in, ctx), ctx);
+                break;
+            case "D":
+                ctx.productsById.remove(in.nextString());
+                break;
+            case "S":
+                sales.add(codec.readSale(in, ctx));
+                break;
+            case "C":
+                JsonDataHandler.CartEntry entry = codec.readCart(in);
+                Customer owner = ctx.customer(entry.userId);
+                if (owner != null) {
+                    ShoppingCart cart = owner.getCart();
+                    for (CartItem item : cart.getItems())
+                        cart.remove(item);
+                }
+                ctx.applyCart(entry);
+                break;
+            default:
+                throw new IOException("unknown journal record '" + op + "'");
+        }
+        return true;
+    }
+
+    // Existing objects are updated in place so carts and ratings keep pointing at them
+    private void upsertUser(User parsed, JsonDataHandler.LoadContext ctx, List<User> users) {
+        User existing = ctx.usersById.get(parsed.getId());
+        if (existing == null) {
+            users.add(ctx.index(parsed));
+            return;
+        }
+        if (existing instanceof Customer && parsed instanceof Customer)
+            ((Customer) existing).setBalance(((Customer) parsed).getBalance());
+    }
+
+    private void upsertProduct(Product parsed, JsonDataHandler.LoadContext ctx) {
+        Product existing = ctx.productsById.get(parsed.getId());
+        if (existing == null) {
+            ctx.index(parsed);
+            return;
+        }
+        existing.setName(parsed.getName());
+        existing.setCategory(parsed.getCategory());
+        existing.setPrice(parsed.getPrice());
+        existing.setStockQty(parsed.getStockQty());
+        existing.setDescription(parsed.getDescription());
+        existing.setRatings(parsed.getRatings());
+    }
+
+    // Snapshot statistics followed by the journal replay
+    private static LoadStats mergeStats(LoadStats snapshot, LoadStats journal, long totalNanos) {
+        LoadStats merged = (snapshot != null) ? snapshot : new LoadStats();
+        merged.addAll(journal);
+        merged.setTotalNanos(totalNanos);
+        return merged;
+    }
+
+    @Override
+    public LoadStats getLastLoadStats() {
+        return lastLoadStats;
+    }
+}
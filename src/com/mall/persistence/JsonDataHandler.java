@@ -3,9 +3,13 @@ package com.mall.persistence;
 import com.mall.model.*;
 import java.io.*;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 
 /**
  * Handles JSON-like persistence for the Shopping Mall system.
@@ -13,287 +17,571 @@ import java.util.stream.Collectors;
  */
 public class JsonDataHandler implements DataStorageInterface {
 
+    // Files carrying this marker escape strings properly; older files wrote backslashes raw
+    static final int FORMAT_VERSION = 2;
+
+    // Documents larger than this are parsed sequentially; the parallel loader holds them in a char[]
+    private static final long MAX_PARALLEL_DOCUMENT = Integer.MAX_VALUE - 8;
+
+    private final StorageOptions options;
+
+    public JsonDataHandler() {
+        this(StorageOptions.DEFAULTS);
+    }
+
+    /**
+     * @param options Read mode (streamed or memory-mapped) and load parallelism.
+     */
+    public JsonDataHandler(StorageOptions options) {
+        this.options = options;
+    }
+
     // --- Save with Helper Methods for Serialization ---
     @Override
     public void save(String filePath, SystemStateDto state) throws IOException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath))) {
-            writer.write("{\n");
+        writeDocument(filePath, state, EnumSet.allOf(StateSection.class));
+    }
+
+    // Write a document containing only the given sections (used for per-section files too)
+    void writeDocument(String filePath, SystemStateDto state, Set<StateSection> sections) throws IOException {
+        try (JsonRecordWriter out = new JsonRecordWriter(Paths.get(filePath), options.getCompression())) {
+            out.write("{\n");
+            out.write("  \"format\": " + FORMAT_VERSION);
 
             // 1. Users
-            writer.write("  \"users\": [\n");
-            List<User> users = state.getUsers();
-            for (int i = 0; i < users.size(); i++) {
-                User u = users.get(i);
-                // If the user is a Customer, include their balance; admins get balance 0
-                String balance = (u instanceof Customer) ? ((Customer) u).getBalance().toString() : "0";
-                writer.write(String.format(
-                        "    {\"role\":\"%s\", \"id\":\"%s\", \"user\":\"%s\", \"pass\":\"%s\", \"bal\":\"%s\"}",
-                        u.getRole(), u.getId(), u.getUsername(), u.getPassword(), balance));
-                if (i < users.size() - 1)
-                    writer.write(",");
-                writer.write("\n");
+            if (sections.contains(StateSection.USERS)) {
+                beginSection(out, "users");
+                boolean first = true;
+                for (User u : state.getUsers()) {
+                    nextRecord(out, first).user(u);
+                    first = false;
+                }
+                endSection(out);
             }
-            writer.write("  ],\n");
 
             // 2. Products
-            writer.write("  \"products\": [\n");
-            List<Product> products = state.getProducts();
-            for (int i = 0; i < products.size(); i++) {
-                Product p = products.get(i);
-                // Serialize each product including ratings by calling serializeRatings
-                writer.write(String.format(
-                        "    {\"id\":\"%s\", \"name\":\"%s\", \"cat\":\"%s\", \"price\":\"%s\", \"stock\":%d, \"desc\":\"%s\", \"img\":\"%s\", \"ratings\":%s}",
-                        p.getId(), p.getName(), p.getCategory(), p.getPrice(), p.getStockQty(),
-                        p.getDescription(), p.getImagePath(), serializeRatings(p.getRatings())));
-                if (i < products.size() - 1)
-                    writer.write(",");
-                writer.write("\n");
+            if (sections.contains(StateSection.PRODUCTS)) {
+                beginSection(out, "products");
+                boolean first = true;
+                for (Product p : state.getProducts()) {
+                    nextRecord(out, first).product(p);
+                    first = false;
+                }
+                endSection(out);
             }
-            writer.write("  ],\n");
+
             // 3. Sales
-            writer.write("  \"sales\": [\n");
-            List<SaleRecord> sales = state.getSales();
-            for (int i = 0; i < sales.size(); i++) {
-                SaleRecord s = sales.get(i);
-                // Each sale record is written with transaction id, user, product, quantity, amount and date
-                writer.write(String.format(
-                        "    {\"tid\":\"%s\", \"user\":\"%s\", \"prod\":\"%s\", \"qty\":%d, \"amt\":\"%s\", \"date\":\"%s\"}",
-                        s.getTransactionId(), s.getCustomerUsername(), s.getProductName(),
-                        s.getQuantity(), s.getAmountPaid(), s.getDate()));
-                if (i < sales.size() - 1)
-                    writer.write(",");
-                writer.write("\n");
+            if (sections.contains(StateSection.SALES)) {
+                beginSection(out, "sales");
+                boolean first = true;
+                for (SaleRecord s : state.getSales()) {
+                    nextRecord(out, first).sale(s);
+                    first = false;
+                }
+                endSection(out);
             }
-            writer.write("  ],\n");
-
-            // 4. Carts
-            writer.write("  \"carts\": [\n");
-            // Collect only customers (admins don't have carts)
-            List<Customer> customers = users.stream()
-                    .filter(u -> u instanceof Customer)
-                    .map(u -> (Customer) u)
-                    .toList();
-
-            for (int i = 0; i < customers.size(); i++) {
-                Customer c = customers.get(i);
-                // Serialize cart items for each customer using serializeCart
-                writer.write(String.format("    {\"userId\":\"%s\", \"items\":%s}",
-                        c.getId(), serializeCart(c)));
-                if (i < customers.size() - 1)
-                    writer.write(",");
-                writer.write("\n");
+
+            // 4. Carts: only customers have one (admins don't have carts)
+            if (sections.contains(StateSection.CARTS)) {
+                beginSection(out, "carts");
+                boolean first = true;
+                for (User u : state.getUsers()) {
+                    if (u instanceof Customer) {
+                        nextRecord(out, first).cart((Customer) u);
+                        first = false;
+                    }
+                }
+                endSection(out);
             }
-            writer.write("  ]\n}");
+            out.write("\n}");
         }
     }
 
-    // Convert ratings map (Customer -> Integer) into a JSON-like object where keys are customer IDs
-    private String serializeRatings(Map<Customer, Integer> ratings) {
-        if (ratings == null || ratings.isEmpty())
-            return "{}";
-        return "{" + ratings.entrySet().stream()
-                .map(e -> "\"" + e.getKey().getId() + "\":" + e.getValue())
-                .collect(Collectors.joining(",")) + "}";
+    // Each section is a named array with a record per line
+    static void beginSection(JsonRecordWriter out, String name) throws IOException {
+        out.write(",\n  \"").write(name).write("\": [");
+    }
+
+    static JsonRecordWriter nextRecord(JsonRecordWriter out, boolean first) throws IOException {
+        return out.write(first ? "\n    " : ",\n    ");
+    }
+
+    static void endSection(JsonRecordWriter out) throws IOException {
+        out.write("\n  ]");
+    }
+
+    // --- Single-record serialization (shared with the journaled storage mode) ---
+
+    // Serialize one user; customers include their balance, admins get balance 0
+    String formatUser(User u) {
+        StringBuilder sb = new StringBuilder(128);
+        JsonRecordWriter.appendUser(sb, u);
+        return sb.toString();
+    }
+
+    // Serialize one product including its ratings
+    String formatProduct(Product p) {
+        StringBuilder sb = new StringBuilder(256);
+        JsonRecordWriter.appendProduct(sb, p);
+        return sb.toString();
     }
 
-    // Convert a customer's cart into a JSON-like array of {pid, qty} objects
-    private String serializeCart(Customer customer) {
-        List<CartItem> items = customer.getCart().getItems();
-        StringBuilder sb = new StringBuilder("[");
-        for (int i = 0; i < items.size(); i++) {
-            CartItem item = items.get(i);
-            sb.append(String.format("{\"pid\":\"%s\", \"qty\":%d}",
-                    item.getProduct().getId(), item.getQuantity()));
-            if (i < items.size() - 1)
-                sb.append(",");
+    // Serialize one sale with transaction id, user, product, quantity, amount and date
+    String formatSale(SaleRecord s) {
+        StringBuilder sb = new StringBuilder(128);
+        JsonRecordWriter.appendSale(sb, s);
+        return sb.toString();
+    }
+
+    // Serialize one customer's cart as {userId, items}
+    String formatCart(Customer c) {
+        StringBuilder sb = new StringBuilder(64);
+        JsonRecordWriter.appendCart(sb, c);
+        return sb.toString();
+    }
+
+    // Escape quotes, backslashes and control characters for use inside a JSON string
+    static String escape(String s) {
+        if (s == null)
+            return "";
+        int i = 0;
+        while (i < s.length() && !needsEscape(s.charAt(i)))
+            i++;
+        if (i == s.length())
+            return s;
+        StringBuilder sb = new StringBuilder(s.length() + 16).append(s, 0, i);
+        for (; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+            }
         }
-        return sb.append("]").toString();
+        return sb.toString();
+    }
+
+    private static boolean needsEscape(char c) {
+        return c == '"' || c == '\\' || c < 0x20;
     }
 
     // --- Loading with Parsing Logic ---
 
+    private LoadStats lastLoadStats;
+
     @Override
     public SystemStateDto load(String filePath) throws IOException {
-        List<Product> products = new ArrayList<>();
-        List<User> users = new ArrayList<>();
-        List<SaleRecord> sales = new ArrayList<>();
-        List<String> cartLines = new ArrayList<>();
+        long started = System.nanoTime();
+        LoadContext ctx = new LoadContext();
+        lastLoadStats = ctx.stats;
 
         File file = new File(filePath);
-        if (!file.exists())
-            // If file doesn't exist, return empty state placeholders
-            return new SystemStateDto(products, users, sales);
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            String section = "";
-            while ((line = reader.readLine()) != null) {
-                // Detect which top-level section we are in by matching section names
-                if (line.contains("\"users\"")) {
-                    section = "U";
-                    continue;
-                }
-                if (line.contains("\"products\"")) {
-                    section = "P";
-                    continue;
-                }
-                if (line.contains("\"sales\"")) {
-                    section = "S";
-                    continue;
-                }
-                if (line.contains("\"carts\"")) {
-                    section = "C";
-                    continue;
-                }
+        // If file doesn't exist, return empty state placeholders
+        if (file.exists())
+            readDocument(file, ctx);
 
-                // Each object line starts with '{' according to the save format
-                if (line.trim().startsWith("{")) {
-                    if (section.equals("U"))
-                        users.add(parseUser(line));
-                    else if (section.equals("P"))
-                        products.add(parseProduct(line, users));
-                    else if (section.equals("S"))
-                        sales.add(parseSale(line));
-                    else if (section.equals("C"))
-                        // Save cart lines to process after users/products are available
-                        cartLines.add(line);
+        // Rebuild carts after all users and products are loaded
+        return ctx.finish(started);
+    }
+
+    @Override
+    public LoadStats getLastLoadStats() {
+        return lastLoadStats;
+    }
+
+    StreamCodec getCompression() {
+        return options.getCompression();
+    }
+
+    // UTF-8 reader over a data file, mapped or streamed depending on the configured read mode.
+    // Compressed files are always streamed through their codec.
+    Reader openReader(File file) throws IOException {
+        if (options.isMappedReads() && !isCompressed(file))
+            return new MappedFileReader(file.toPath());
+        return new InputStreamReader(StreamCodecs.openInput(file, options.getCompression()), StandardCharsets.UTF_8);
+    }
+
+    private boolean isCompressed(File file) throws IOException {
+        return StreamCodecs.detect(file, options.getCompression()) != StreamCodecs.NONE;
+    }
+
+    // Read every section of a document into the load context
+    void readDocument(File file, LoadContext ctx) throws IOException {
+        // The parallel loader sizes its buffer from the file length, which a compressed file does not give
+        if (options.getLoadParallelism() > 1 && file.length() <= MAX_PARALLEL_DOCUMENT && !isCompressed(file)) {
+            readDocumentParallel(file, ctx);
+            return;
+        }
+        try (JsonTokenizer in = new JsonTokenizer(openReader(file))) {
+            // Until the format marker says otherwise, treat backslashes as plain characters
+            in.setLegacyBackslashes(true);
+            in.beginObject();
+            while (in.hasNext()) {
+                // Each top-level name opens one section; records are parsed straight into objects
+                String section = in.nextName();
+                long sectionStart = System.nanoTime();
+                int count = 0;
+                switch (section) {
+                    case "format":
+                        in.setLegacyBackslashes(in.nextInt() < FORMAT_VERSION);
+                        continue;
+                    case "users":
+                        in.beginArray();
+                        for (; in.hasNext(); count++)
+                            ctx.addUser(readUser(in, ctx));
+                        in.endArray();
+                        break;
+                    case "products":
+                        in.beginArray();
+                        for (; in.hasNext(); count++)
+                            ctx.addProduct(readProduct(in, ctx));
+                        in.endArray();
+                        break;
+                    case "sales":
+                        in.beginArray();
+                        for (; in.hasNext(); count++)
+                            ctx.sales.add(readSale(in, ctx));
+                        in.endArray();
+                        break;
+                    case "carts":
+                        // Kept aside and resolved after users/products are available
+                        in.beginArray();
+                        for (; in.hasNext(); count++)
+                            ctx.pendingCarts.add(readCart(in));
+                        in.endArray();
+                        break;
+                    default:
+                        in.skipValue();
                 }
+                ctx.stats.addRecords(section, count);
+                ctx.stats.addSectionTime(section, System.nanoTime() - sectionStart);
             }
+            in.endObject();
         }
+    }
 
-        // Rebuild carts after all users and products are loaded
-        for (String cLine : cartLines) {
-            String uId = extract(cLine, "userId");
-            users.stream()
-                    .filter(u -> u.getId().equals(uId) && u instanceof Customer)
-                    .map(u -> (Customer) u)
-                    .findFirst()
-                    .ifPresent(customer -> rebuildCartFromLine(customer, cLine, products));
+    // Read the whole document into memory and parse its sections on a fork-join pool
+    private void readDocumentParallel(File file, LoadContext ctx) throws IOException {
+        long readStart = System.nanoTime();
+        // UTF-8 never decodes to more chars than bytes
+        char[] doc = new char[(int) file.length()];
+        int length = 0;
+        try (Reader reader = openReader(file)) {
+            int n;
+            while (length < doc.length && (n = reader.read(doc, length, doc.length - length)) > 0)
+                length += n;
         }
+        ctx.stats.addSectionTime("read", System.nanoTime() - readStart);
 
-        return new SystemStateDto(products, users, sales);
+        ForkJoinPool pool = new ForkJoinPool(options.getLoadParallelism());
+        try {
+            new ParallelJsonLoader(this, pool).read(doc, length, ctx);
+        } finally {
+            pool.shutdown();
+        }
     }
 
-    // Parse a single user line into either Administrator or Customer based on role
-    private User parseUser(String l) {
-        if (extract(l, "role").equals("ADMIN"))
-            return new Administrator(
-                    extract(l, "id"),
-                    extract(l, "user"),
-                    extract(l, "pass"));
-        return new Customer(
-                extract(l, "id"),
-                extract(l, "user"),
-                extract(l, "pass"),
-                new BigDecimal(extract(l, "bal")));
+    // Parse a single user object into either Administrator or Customer based on role
+    User readUser(JsonTokenizer in) throws IOException {
+        return readUser(in, null);
     }
 
-    // Rebuild customer's cart from serialized items using product catalog to find product objects
-    private void rebuildCartFromLine(Customer c, String line, List<Product> catalog) {
-        int start = line.indexOf("[") + 1;
-        int end = line.lastIndexOf("]");
-        if (start >= end)
-            return;
+    // Usernames repeat in every sale of the customer; with a context they share one instance
+    User readUser(JsonTokenizer in, LoadContext ctx) throws IOException {
+        String role = null, id = null, username = null, password = null;
+        BigDecimal balance = BigDecimal.ZERO;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "role":
+                    role = in.nextString();
+                    break;
+                case "id":
+                    id = in.nextString();
+                    break;
+                case "user":
+                    username = in.nextString();
+                    break;
+                case "pass":
+                    password = in.nextString();
+                    break;
+                case "bal":
+                    balance = in.nextDecimal();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
 
-        String itemsPart = line.substring(start, end).trim();
-        if (itemsPart.isEmpty())
-            return;
+        if (ctx != null)
+            username = ctx.name(username);
+        if ("ADMIN".equals(role))
+            return new Administrator(id, username, password);
+        return new Customer(id, username, password, balance);
+    }
+
+    // Parse a product object and attach its ratings using the customer index
+    Product readProduct(JsonTokenizer in, LoadContext ctx) throws IOException {
+        String id = null, name = null, category = null, description = null, image = null;
+        BigDecimal price = BigDecimal.ZERO;
+        int stock = 0;
+        List<String> raters = null;
+        List<Integer> scores = null;
 
-        // Split entries on '},{' with optional whitespace — this produces each item JSON-ish chunk
-        String[] entries = itemsPart.split("\\},\\s*\\{");
-        for (String entry : entries) {
-            // Ensure each entry is a well-formed brace-enclosed object
-            if (!entry.startsWith("{"))
-                entry = "{" + entry;
-            if (!entry.endsWith("}"))
-                entry = entry + "}";
-
-            String pid = extract(entry, "pid");
-            int qty = Integer.parseInt(extract(entry, "qty"));
-
-            // Find the matching product in the loaded catalog and add to the customer's cart
-            catalog.stream()
-                    .filter(p -> p.getId().equals(pid))
-                    .findFirst()
-                    .ifPresent(p -> c.getCart().addProduct(p, qty));
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":
+                    id = in.nextString();
+                    break;
+                case "name":
+                    name = in.nextString();
+                    break;
+                case "cat":
+                    category = in.nextString();
+                    break;
+                case "price":
+                    price = in.nextDecimal();
+                    break;
+                case "stock":
+                    stock = in.nextInt();
+                    break;
+                case "desc":
+                    description = in.nextString();
+                    break;
+                case "img":
+                    image = in.nextString();
+                    break;
+                case "ratings":
+                    // Each pair looks like "userId":value
+                    raters = new ArrayList<>();
+                    scores = new ArrayList<>();
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        raters.add(in.nextKey());
+                        scores.add(in.nextInt());
+                    }
+                    in.endObject();
+                    break;
+                default:
+                    in.skipValue();
+            }
         }
-    }
+        in.endObject();
 
-    // Extract a value for a given key from a JSON-like line. Handles both quoted and unquoted numeric values.
-    private String extract(String line, String key) {
-        String pattern = "\"" + key + "\":\"";
-        int start = line.indexOf(pattern) + pattern.length();
-        int end = line.indexOf("\"", start);
-        if (line.indexOf(pattern) == -1) {
-            // If not found as a quoted string value, try unquoted value (e.g., numbers) with ':' delimiter
-            pattern = "\"" + key + "\":";
-            start = line.indexOf(pattern) + pattern.length();
-            end = line.indexOf(",", start);
-            if (end == -1)
-                end = line.indexOf("}", start);
+        Product p = new Product(id, ctx.name(name), category, price, stock, description, image);
+        if (raters == null)
+            return p;
+        for (int i = 0; i < raters.size(); i++) {
+            Customer customer = ctx.customer(raters.get(i));
+            if (customer == null) {
+                // Ratings by unknown customers are dropped and reported in the load stats
+                ctx.stats.unresolvedRating();
+                continue;
+            }
+            p.addOrUpdateRating(customer, scores.get(i));
         }
-        return line.substring(start, end).trim();
+        return p;
     }
 
-    // Parse a product line into a Product object and attempt to attach ratings
-    private Product parseProduct(String l, List<User> users) {
-        Product p = new Product(
-                extract(l, "id"),
-                extract(l, "name"),
-                extract(l, "cat"),
-                new BigDecimal(extract(l, "price")),
-                Integer.parseInt(extract(l, "stock")),
-                extract(l, "desc"),
-                extract(l, "img"));
-        // Load ratings if present
-        parseRatingsInto(p, l, users);
-        return p;
+    // Parse a sale record object into a SaleRecord
+    SaleRecord readSale(JsonTokenizer in) throws IOException {
+        return readSale(in, null);
     }
 
-    // Parse the ratings object within a product line and attach ratings using customer references
-    private void parseRatingsInto(Product p, String line, List<User> users) {
-        if (line.contains("\"ratings\":{")) {
-            int start = line.indexOf("\"ratings\":{") + 10;
-            int end = line.indexOf("}", start);
-            String content = line.substring(start + 1, end).trim();
-            if (content.isEmpty())
-                return;
-
-            // Each pair looks like "userId":value
-            String[] pairs = content.split(",");
-            for (String pair : pairs) {
-                String[] kv = pair.split(":");
-                String userId = kv[0].replace("\"", "").trim();
-                int val = Integer.parseInt(kv[1].trim());
-                Customer customer = null;
-                // Find the Customer object by ID from the already parsed users list
-                for (User u : users) {
-                    if (userId.equals(u.getId())) {
-                        customer = (Customer) u;
-                        break;
+    // With a context, the names share the instances of the loaded users and products
+    SaleRecord readSale(JsonTokenizer in, LoadContext ctx) throws IOException {
+        String tid = null, user = null, product = null;
+        int qty = 0;
+        BigDecimal amount = BigDecimal.ZERO;
+        LocalDateTime date = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "tid":
+                    tid = in.nextString();
+                    break;
+                case "user":
+                    user = in.nextString();
+                    break;
+                case "prod":
+                    product = in.nextString();
+                    break;
+                case "qty":
+                    qty = in.nextInt();
+                    break;
+                case "amt":
+                    amount = in.nextDecimal();
+                    break;
+                case "date":
+                    date = in.nextDateTime();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        if (ctx != null) {
+            user = ctx.name(user);
+            product = ctx.name(product);
+        }
+        return new SaleRecord(tid, user, product, qty, amount, date);
+    }
+
+    // Parse a {userId, items:[{pid, qty}]} cart object; references are resolved later
+    CartEntry readCart(JsonTokenizer in) throws IOException {
+        CartEntry cart = new CartEntry();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "userId":
+                    cart.userId = in.nextString();
+                    break;
+                case "items":
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        String pid = null;
+                        int qty = 0;
+                        in.beginObject();
+                        while (in.hasNext()) {
+                            switch (in.nextName()) {
+                                case "pid":
+                                    pid = in.nextString();
+                                    break;
+                                case "qty":
+                                    qty = in.nextInt();
+                                    break;
+                                default:
+                                    in.skipValue();
+                            }
+                        }
+                        in.endObject();
+                        cart.productIds.add(pid);
+                        cart.quantities.add(qty);
                     }
-                }
-                if (customer == null) {
-                    // If a referenced customer is missing, log a warning to stderr
-                    System.err.println("customer with " + userId + " ID not found in the system!");
-                }
-                // Even if customer is null, the method call tries to add/update rating with possibly null customer
-                p.addOrUpdateRating(customer, val);
+                    in.endArray();
+                    break;
+                default:
+                    in.skipValue();
             }
-        } else {
-            // If ratings key is missing, log a note (could be normal for unrated items)
-            System.err.println("Rating for product " + p.getId() + "does not exist!");
         }
+        in.endObject();
+        return cart;
     }
 
-    // Parse a sale record line into a SaleRecord object
-    private SaleRecord parseSale(String l) {
-        return new SaleRecord(
-                extract(l, "tid"),
-                extract(l, "user"),
-                extract(l, "prod"),
-                Integer.parseInt(extract(l, "qty")),
-                new BigDecimal(extract(l, "amt")),
-                LocalDateTime.parse(extract(l, "date")));
+    // Serialized cart awaiting reference resolution
+    static final class CartEntry {
+        String userId;
+        final List<String> productIds = new ArrayList<>();
+        final List<Integer> quantities = new ArrayList<>();
+    }
+
+    /**
+     * Accumulates a state being loaded, possibly from several files, together with the
+     * id -> entity indexes used to resolve ratings and cart lines in O(1).
+     */
+    static final class LoadContext {
+        final List<User> users = new ArrayList<>();
+        final List<SaleRecord> sales = new ArrayList<>();
+        final List<CartEntry> pendingCarts = new ArrayList<>();
+        final Map<String, User> usersById;
+        // One instance of every user and product name of this load; dropped with the context
+        final Map<String, String> names;
+        // Insertion-ordered: its values are the loaded product list
+        final Map<String, Product> productsById = new LinkedHashMap<>();
+        final LoadStats stats = new LoadStats();
+        // Consulted for raters and cart owners that are not in usersById, or null
+        Function<String, Customer> customerLookup;
+
+        LoadContext() {
+            this(new HashMap<>(), new ConcurrentHashMap<>());
+        }
+
+        private LoadContext(Map<String, User> usersById, Map<String, String> names) {
+            this.usersById = usersById;
+            this.names = names;
+        }
+
+        // Context for parsing records on another thread: reads the shared user index, shares
+        // the names and keeps its own statistics
+        LoadContext forChunk() {
+            return new LoadContext(usersById, names);
+        }
+
+        // The instance of the name already used by this load
+        String name(String value) {
+            if (value == null)
+                return null;
+            String known = names.putIfAbsent(value, value);
+            return known != null ? known : value;
+        }
+
+        void addUser(User u) {
+            users.add(index(u));
+        }
+
+        void addProduct(Product p) {
+            index(p);
+        }
+
+        // Index an entity without adding it to the loaded lists (e.g. objects loaded elsewhere)
+        User index(User u) {
+            usersById.put(u.getId(), u);
+            return u;
+        }
+
+        Product index(Product p) {
+            productsById.put(p.getId(), p);
+            return p;
+        }
+
+        Customer customer(String id) {
+            User u = usersById.get(id);
+            if (u == null && customerLookup != null)
+                return customerLookup.apply(id);
+            return (u instanceof Customer) ? (Customer) u : null;
+        }
+
+        // Rebuild a customer's cart using the product index to find product objects
+        void applyCart(CartEntry cart) {
+            Customer customer = customer(cart.userId);
+            for (int i = 0; i < cart.productIds.size(); i++) {
+                Product p = productsById.get(cart.productIds.get(i));
+                if (customer == null || p == null) {
+                    stats.unresolvedCartItem();
+                    continue;
+                }
+                customer.getCart().addProduct(p, cart.quantities.get(i));
+            }
+        }
+
+        // Resolve pending carts and produce the loaded state
+        SystemStateDto finish(long startedNanos) {
+            long linkStart = System.nanoTime();
+            for (CartEntry cart : pendingCarts)
+                applyCart(cart);
+            pendingCarts.clear();
+            stats.addSectionTime("cart links", System.nanoTime() - linkStart);
+            stats.setTotalNanos(System.nanoTime() - startedNanos);
+            return new SystemStateDto(new ArrayList<>(productsById.values()), users, sales);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,318 @@
+package com.mall.persistence;
+
+import com.mall.model.*;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializer for the JSON data files.
+ *
+ * Records are appended field by field to one reused StringBuilder, without format strings or
+ * per-record temporary Strings, and the builder is encoded in large blocks into a reused
+ * direct buffer that is written to a FileChannel, or handed to a PipelinedCompressor when the
+ * file is compressed. The static append methods produce the exact
+ * text of a record and are also used where a single record is needed as a String (journal,
+ * sales segments).
+ */
+final class JsonRecordWriter implements Closeable {
+    // Encode once this many chars are buffered
+    private static final int FLUSH_THRESHOLD = 1 << 15;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final WritableByteChannel channel;
+    private final StringBuilder text = new StringBuilder(FLUSH_THRESHOLD + 1024);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(1 << 16);
+
+    JsonRecordWriter(Path file) throws IOException {
+        this(file, StreamCodecs.NONE);
+    }
+
+    JsonRecordWriter(Path file, StreamCodec compression) throws IOException {
+        this.channel = StreamCodecs.openChannel(file, compression);
+    }
+
+    JsonRecordWriter write(String s) throws IOException {
+        text.append(s);
+        return flushIfFull();
+    }
+
+    JsonRecordWriter write(char c) throws IOException {
+        text.append(c);
+        return flushIfFull();
+    }
+
+    JsonRecordWriter user(User u) throws IOException {
+        appendUser(text, u);
+        return flushIfFull();
+    }
+
+    JsonRecordWriter product(Product p) throws IOException {
+        appendProduct(text, p);
+        return flushIfFull();
+    }
+
+    JsonRecordWriter sale(SaleRecord s) throws IOException {
+        appendSale(text, s);
+        return flushIfFull();
+    }
+
+    JsonRecordWriter cart(Customer c) throws IOException {
+        appendCart(text, c);
+        return flushIfFull();
+    }
+
+    private JsonRecordWriter flushIfFull() throws IOException {
+        if (text.length() >= FLUSH_THRESHOLD)
+            flush(false);
+        return this;
+    }
+
+    // Encode the buffered text into the byte buffer, writing it out whenever it fills up
+    private void flush(boolean endOfInput) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(text);
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isError())
+                result.throwException();
+            if (result.isUnderflow())
+                break;
+            drain();
+        }
+        // A lone high surrogate at the end stays buffered until its pair arrives
+        text.delete(0, chars.position());
+        if (endOfInput) {
+            encoder.flush(bytes);
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining())
+            channel.write(bytes);
+        bytes.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    // --- Record text ---
+
+    // Customers include their balance, admins get balance 0
+    static void appendUser(StringBuilder sb, User u) {
+        sb.append("{\"role\":\"").append(u.getRole());
+        sb.append("\", \"id\":");
+        appendString(sb, u.getId());
+        sb.append(", \"user\":");
+        appendString(sb, u.getUsername());
+        sb.append(", \"pass\":");
+        appendString(sb, u.getPassword());
+        sb.append(", \"bal\":\"");
+        if (u instanceof Customer)
+            appendDecimal(sb, ((Customer) u).getBalance());
+        else
+            sb.append('0');
+        sb.append("\"}");
+    }
+
+    static void appendProduct(StringBuilder sb, Product p) {
+        sb.append("{\"id\":");
+        appendString(sb, p.getId());
+        sb.append(", \"name\":");
+        appendString(sb, p.getName());
+        sb.append(", \"cat\":");
+        appendString(sb, p.getCategory());
+        sb.append(", \"price\":\"");
+        appendDecimal(sb, p.getPrice());
+        sb.append("\", \"stock\":").append(p.getStockQty());
+        sb.append(", \"desc\":");
+        appendString(sb, p.getDescription());
+        sb.append(", \"img\":");
+        appendString(sb, p.getImagePath());
+        sb.append(", \"ratings\":{");
+        // Keys are customer ids
+        Map<Customer, Integer> ratings = p.getRatings();
+        if (ratings != null) {
+            boolean first = true;
+            for (Map.Entry<Customer, Integer> e : ratings.entrySet()) {
+                if (!first)
+                    sb.append(',');
+                first = false;
+                appendString(sb, e.getKey().getId());
+                sb.append(':').append(e.getValue());
+            }
+        }
+        sb.append("}}");
+    }
+
+    static void appendSale(StringBuilder sb, SaleRecord s) {
+        sb.append("{\"tid\":");
+        appendString(sb, s.getTransactionId());
+        sb.append(", \"user\":");
+        appendString(sb, s.getCustomerUsername());
+        sb.append(", \"prod\":");
+        appendString(sb, s.getProductName());
+        sb.append(", \"qty\":").append(s.getQuantity());
+        sb.append(", \"amt\":\"");
+        appendDecimal(sb, s.getAmountPaid());
+        sb.append("\", \"date\":\"");
+        appendDateTime(sb, s.getDate());
+        sb.append("\"}");
+    }
+
+    // A customer's cart as {userId, items:[{pid, qty}]}
+    static void appendCart(StringBuilder sb, Customer c) {
+        sb.append("{\"userId\":");
+        appendString(sb, c.getId());
+        sb.append(", \"items\":[");
+        List<CartItem> items = c.getCart().getItems();
+        for (int i = 0; i < items.size(); i++) {
+            CartItem item = items.get(i);
+            if (i > 0)
+                sb.append(',');
+            sb.append("{\"pid\":");
+            appendString(sb, item.getProduct().getId());
+            sb.append(", \"qty\":").append(item.getQuantity()).append('}');
+        }
+        sb.append("]}");
+    }
+
+    // Quoted JSON string; quotes, backslashes and control characters are escaped, null is ""
+    static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        if (s != null) {
+            int start = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c != '"' && c != '\\' && c >= 0x20)
+                    continue;
+                sb.append(s, start, i);
+                start = i + 1;
+                switch (c) {
+                    case '"':
+                        sb.append("\\\"");
+                        break;
+                    case '\\':
+                        sb.append("\\\\");
+                        break;
+                    case '\n':
+                        sb.append("\\n");
+                        break;
+                    case '\r':
+                        sb.append("\\r");
+                        break;
+                    case '\t':
+                        sb.append("\\t");
+                        break;
+                    default:
+                        sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                }
+            }
+            sb.append(s, start, s.length());
+        }
+        sb.append('"');
+    }
+
+    // Same text as BigDecimal.toString(), without the intermediate String for common values
+    static void appendDecimal(StringBuilder sb, BigDecimal d) {
+        if (d == null) {
+            sb.append("null");
+            return;
+        }
+        int scale = d.scale();
+        // Large values and ones BigDecimal prints in scientific notation take the slow path
+        if (scale < 0 || scale > 18 || d.precision() > 18 || d.precision() - 1 - scale < -6) {
+            sb.append(d);
+            return;
+        }
+        long unscaled = d.unscaledValue().longValue();
+        if (unscaled < 0) {
+            sb.append('-');
+            unscaled = -unscaled;
+        }
+        long pow = 1;
+        for (int i = 0; i < scale; i++)
+            pow *= 10;
+        sb.append(unscaled / pow);
+        if (scale > 0) {
+            sb.append('.');
+            long fraction = unscaled % pow;
+            for (long p = pow / 10; p > fraction && p > 1; p /= 10)
+                sb.append('0');
+            sb.append(fraction);
+        }
+    }
+
+    // Same text as LocalDateTime.toString() for four-digit years
+    static void appendDateTime(StringBuilder sb, LocalDateTime dt) {
+        if (dt == null) {
+            sb.append("null");
+            return;
+        }
+        LocalDate date = dt.toLocalDate();
+        if (date.getYear() < 1000 || date.getYear() > 9999) {
+            sb.append(dt);
+            return;
+        }
+        sb.append(date.getYear()).append('-');
+        twoDigits(sb, date.getMonthValue()).append('-');
+        twoDigits(sb, date.getDayOfMonth()).append('T');
+
+        LocalTime time = dt.toLocalTime();
+        twoDigits(sb, time.getHour()).append(':');
+        twoDigits(sb, time.getMinute());
+        int seconds = time.getSecond();
+        int nanos = time.getNano();
+        if (seconds > 0 || nanos > 0) {
+            sb.append(':');
+            twoDigits(sb, seconds);
+            if (nanos > 0) {
+                sb.append('.');
+                // Millisecond, microsecond or nanosecond precision, like LocalTime.toString()
+                if (nanos % 1_000_000 == 0)
+                    padded(sb, nanos / 1_000_000, 3);
+                else if (nanos % 1000 == 0)
+                    padded(sb, nanos / 1000, 6);
+                else
+                    padded(sb, nanos, 9);
+            }
+        }
+    }
+
+    private static StringBuilder twoDigits(StringBuilder sb, int v) {
+        if (v < 10)
+            sb.append('0');
+        return sb.append(v);
+    }
+
+    private static void padded(StringBuilder sb, int v, int digits) {
+        for (int limit = 10, i = 1; i < digits; i++, limit *= 10) {
+            if (v < limit)
+                sb.append('0');
+        }
+        sb.append(v);
+    }
+}
@@ -0,0 +1,424 @@
+package com.mall.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Streaming pull tokenizer for the JSON files written by the persistence layer.
+ * The input is read once through a reused char buffer; string and number values are
+ * collected in a reused builder and only turned into objects when the caller asks for them.
+ * Whitespace and newlines between tokens are insignificant and commas are separators,
+ * so records may span lines or share one.
+ */
+public class JsonTokenizer implements Closeable {
+
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, LITERAL, END_DOCUMENT
+    }
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    private static final int MAX_CACHED_NAMES = 64;
+
+    private final Reader in;
+    private final char[] buf;
+    private int pos;
+    private int limit;
+    // Characters consumed before buf[0]; used for error offsets
+    private long consumed;
+
+    // Text of the current NAME/STRING/NUMBER/LITERAL token
+    private final StringBuilder text = new StringBuilder(64);
+    private char[] scratch = new char[32];
+    private Token peeked;
+
+    // Field names repeat on every record, so each distinct name is only allocated once
+    private final String[] names = new String[MAX_CACHED_NAMES];
+    private int nameCount;
+
+    // Legacy files stored backslashes (e.g. in image paths) without escaping them
+    private boolean legacyBackslashes;
+
+    public JsonTokenizer(Reader in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    public JsonTokenizer(Reader in, int bufferSize) {
+        this.in = in;
+        this.buf = new char[bufferSize];
+    }
+
+    /**
+     * Tokenizes a range of a document already held in memory, without copying it.
+     * Error offsets are relative to the start of the array.
+     */
+    public JsonTokenizer(char[] data, int offset, int length) {
+        this.in = null;
+        this.buf = data;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    /**
+     * When enabled, a backslash inside a string is kept as a literal character instead of
+     * starting an escape sequence.
+     */
+    public void setLegacyBackslashes(boolean legacy) {
+        this.legacyBackslashes = legacy;
+    }
+
+    // --- Token stream ---
+
+    public Token peek() throws IOException {
+        if (peeked == null)
+            peeked = read();
+        return peeked;
+    }
+
+    public Token next() throws IOException {
+        Token t = peek();
+        peeked = null;
+        return t;
+    }
+
+    /**
+     * @return true if the current object or array has another member.
+     */
+    public boolean hasNext() throws IOException {
+        Token t = peek();
+        return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+    }
+
+    /**
+     * Reads a field name. Returns a shared instance for names seen before, so callers can
+     * switch on it without allocating per record.
+     */
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        for (int i = 0; i < nameCount; i++) {
+            String n = names[i];
+            if (n.length() == text.length() && n.contentEquals(text))
+                return n;
+        }
+        String n = text.toString();
+        if (nameCount < names.length)
+            names[nameCount++] = n;
+        return n;
+    }
+
+    /**
+     * Reads a name used as a map key (e.g. a customer id), without caching it.
+     */
+    public String nextKey() throws IOException {
+        expect(Token.NAME);
+        return text.toString();
+    }
+
+    /**
+     * Reads a string value; numbers are returned as their text and null as null.
+     */
+    public String nextString() throws IOException {
+        Token t = next();
+        if (t == Token.LITERAL && isNullLiteral())
+            return null;
+        if (t != Token.STRING && t != Token.NUMBER)
+            throw syntaxError("expected a string but found " + t);
+        return text.toString();
+    }
+
+    public String nextLiteral() throws IOException {
+        expect(Token.LITERAL);
+        return text.toString();
+    }
+
+    /**
+     * Reads a quoted or unquoted integer without creating an intermediate String.
+     */
+    public int nextInt() throws IOException {
+        long v = nextLong();
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE)
+            throw syntaxError("integer out of range: " + v);
+        return (int) v;
+    }
+
+    public long nextLong() throws IOException {
+        nextNumberText();
+        int len = text.length();
+        int i = 0;
+        boolean negative = false;
+        if (len > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+')) {
+            negative = text.charAt(0) == '-';
+            i = 1;
+        }
+        if (i == len || len - i > 18)
+            throw syntaxError("invalid integer '" + text + "'");
+        long v = 0;
+        for (; i < len; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9')
+                throw syntaxError("invalid integer '" + text + "'");
+            v = v * 10 + (c - '0');
+        }
+        return negative ? -v : v;
+    }
+
+    /**
+     * Reads a quoted or unquoted decimal (prices, balances, amounts).
+     */
+    public BigDecimal nextDecimal() throws IOException {
+        nextNumberText();
+        int len = text.length();
+        if (scratch.length < len)
+            scratch = new char[Math.max(len, scratch.length * 2)];
+        text.getChars(0, len, scratch, 0);
+        try {
+            return new BigDecimal(scratch, 0, len);
+        } catch (NumberFormatException e) {
+            throw syntaxError("invalid decimal '" + text + "'");
+        }
+    }
+
+    public LocalDateTime nextDateTime() throws IOException {
+        expect(Token.STRING);
+        try {
+            return LocalDateTime.parse(text);
+        } catch (DateTimeParseException e) {
+            throw syntaxError("invalid date '" + text + "'");
+        }
+    }
+
+    /**
+     * Skips the next value, including nested objects and arrays.
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token t = next();
+            switch (t) {
+                case BEGIN_OBJECT:
+                case BEGIN_ARRAY:
+                    depth++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    break;
+                case NAME:
+                    // A name only occurs inside an object and is followed by its value
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("unexpected end of input");
+                default:
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null)
+            in.close();
+    }
+
+    // --- Scanning ---
+
+    private void expect(Token expected) throws IOException {
+        Token t = next();
+        if (t != expected)
+            throw syntaxError("expected " + expected + " but found " + t);
+    }
+
+    private void nextNumberText() throws IOException {
+        Token t = next();
+        if (t != Token.NUMBER && t != Token.STRING)
+            throw syntaxError("expected a number but found " + t);
+    }
+
+    private boolean isNullLiteral() {
+        return text.length() == 4 && "null".contentEquals(text);
+    }
+
+    private Token read() throws IOException {
+        int c = nextSignificant();
+        switch (c) {
+            case -1:
+                return Token.END_DOCUMENT;
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '}':
+                return Token.END_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case ']':
+                return Token.END_ARRAY;
+            case '"':
+                readString();
+                if (peekSignificant() == ':') {
+                    pos++;
+                    return Token.NAME;
+                }
+                return Token.STRING;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    readWhile(c, true);
+                    return Token.NUMBER;
+                }
+                if (Character.isLetter(c)) {
+                    readWhile(c, false);
+                    return Token.LITERAL;
+                }
+                throw syntaxError("unexpected character '" + (char) c + "'");
+        }
+    }
+
+    // Consume whitespace and commas and return the next character (consumed), or -1 at the end
+    private int nextSignificant() throws IOException {
+        while (true) {
+            if (pos == limit && !fill())
+                return -1;
+            char c = buf[pos++];
+            if (c != ',' && !isWhitespace(c))
+                return c;
+        }
+    }
+
+    // Consume whitespace and return the next character without consuming it, or -1 at the end
+    private int peekSignificant() throws IOException {
+        while (true) {
+            if (pos == limit && !fill())
+                return -1;
+            char c = buf[pos];
+            if (!isWhitespace(c))
+                return c;
+            pos++;
+        }
+    }
+
+    private void readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buf[pos];
+                if (c == '"' || c == '\\')
+                    break;
+                pos++;
+            }
+            text.append(buf, start, pos - start);
+            if (pos == limit) {
+                if (!fill())
+                    throw syntaxError("unterminated string");
+                continue;
+            }
+            if (buf[pos++] == '"')
+                return;
+            if (legacyBackslashes)
+                text.append('\\');
+            else
+                readEscape();
+        }
+    }
+
+    private void readEscape() throws IOException {
+        char c = readChar();
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                text.append(c);
+                break;
+            case 'b':
+                text.append('\b');
+                break;
+            case 'f':
+                text.append('\f');
+                break;
+            case 'n':
+                text.append('\n');
+                break;
+            case 'r':
+                text.append('\r');
+                break;
+            case 't':
+                text.append('\t');
+                break;
+            case 'u':
+                int code = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(readChar(), 16);
+                    if (digit < 0)
+                        throw syntaxError("invalid unicode escape");
+                    code = (code << 4) | digit;
+                }
+                text.append((char) code);
+                break;
+            default:
+                throw syntaxError("invalid escape '\\" + c + "'");
+        }
+    }
+
+    // Collect a number or bare literal starting with the already consumed character 'first'
+    private void readWhile(int first, boolean number) throws IOException {
+        text.setLength(0);
+        text.append((char) first);
+        while (true) {
+            if (pos == limit && !fill())
+                return;
+            char c = buf[pos];
+            boolean part = number
+                    ? (c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-'
+                    : Character.isLetterOrDigit(c);
+            if (!part)
+                return;
+            text.append(c);
+            pos++;
+        }
+    }
+
+    private char readChar() throws IOException {
+        if (pos == limit && !fill())
+            throw syntaxError("unexpected end of input");
+        return buf[pos++];
+    }
+
+    // Refill the buffer once everything in it has been consumed
+    private boolean fill() throws IOException {
+        if (in == null)
+            return false;
+        consumed += limit;
+        pos = 0;
+        limit = 0;
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0)
+            return false;
+        limit = n;
+        return true;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed data at offset " + (consumed + pos) + ": " + message);
+    }
+}
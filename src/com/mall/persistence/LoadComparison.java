@@ -0,0 +1,60 @@
+package com.mall.persistence;
+
+import com.mall.model.*;
+
+/**
+ * Command-line comparison of the sequential and parallel JSON loaders.
+ * Loads the file with 1, 2, 4, ... threads up to the number of processors (or the given
+ * maximum), reports the best time of several runs for each and checks that every loader
+ * produced the same state.
+ *
+ * Usage: java com.mall.persistence.LoadComparison data.json [runs] [max threads]
+ */
+public class LoadComparison {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: LoadComparison <json file> [runs] [max threads]");
+            System.exit(2);
+        }
+        String file = args[0];
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int cores = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        boolean mapped = Boolean.getBoolean("mall.load.mapped");
+
+        long expected = 0;
+        double sequentialMillis = 0;
+        for (int threads = 1; threads <= cores; threads = (threads == cores) ? cores + 1 : Math.min(threads * 2, cores)) {
+            JsonDataHandler handler = new JsonDataHandler(new StorageOptions(mapped, threads));
+            double best = Double.MAX_VALUE;
+            long checksum = 0;
+            for (int i = 0; i < runs; i++) {
+                long started = System.nanoTime();
+                SystemStateDto state = handler.load(file);
+                best = Math.min(best, (System.nanoTime() - started) / 1_000_000.0);
+                checksum = checksum(handler, state);
+            }
+            if (threads == 1) {
+                expected = checksum;
+                sequentialMillis = best;
+            }
+            System.out.printf("%2d thread(s): %8.1f ms  speedup %.2fx%s%n", threads, best,
+                    sequentialMillis / best, checksum == expected ? "" : "  STATE DIFFERS");
+        }
+    }
+
+    // Hash of the serialized state, in order, so any difference between loaders shows up
+    private static long checksum(JsonDataHandler codec, SystemStateDto state) {
+        long h = 17;
+        for (User u : state.getUsers()) {
+            h = h * 31 + codec.formatUser(u).hashCode();
+            if (u instanceof Customer)
+                h = h * 31 + codec.formatCart((Customer) u).hashCode();
+        }
+        for (Product p : state.getProducts())
+            h = h * 31 + codec.formatProduct(p).hashCode();
+        for (SaleRecord s : state.getSales())
+            h = h * 31 + codec.formatSale(s).hashCode();
+        return h;
+    }
+}
@@ -0,0 +1,78 @@
+package com.mall.persistence;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counters and timings collected while loading the system state:
+ * records parsed and time spent per section, plus references that could not be resolved.
+ */
+public class LoadStats {
+    private final Map<String, Integer> records = new LinkedHashMap<>();
+    private final Map<String, Long> sectionNanos = new LinkedHashMap<>();
+    private int unresolvedRatings;
+    private int unresolvedCartItems;
+    private long totalNanos;
+
+    void addRecords(String section, int count) {
+        records.merge(section, count, Integer::sum);
+    }
+
+    void addSectionTime(String section, long nanos) {
+        sectionNanos.merge(section, nanos, Long::sum);
+    }
+
+    void unresolvedRating() {
+        unresolvedRatings++;
+    }
+
+    void unresolvedCartItem() {
+        unresolvedCartItems++;
+    }
+
+    // Fold another load phase (e.g. journal replay) into these statistics
+    void addAll(LoadStats other) {
+        other.records.forEach(this::addRecords);
+        other.sectionNanos.forEach(this::addSectionTime);
+        unresolvedRatings += other.unresolvedRatings;
+        unresolvedCartItems += other.unresolvedCartItems;
+    }
+
+    void setTotalNanos(long nanos) {
+        this.totalNanos = nanos;
+    }
+
+    public int getRecords(String section) {
+        return records.getOrDefault(section, 0);
+    }
+
+    public double getSectionMillis(String section) {
+        return sectionNanos.getOrDefault(section, 0L) / 1_000_000.0;
+    }
+
+    public int getUnresolvedRatings() {
+        return unresolvedRatings;
+    }
+
+    public int getUnresolvedCartItems() {
+        return unresolvedCartItems;
+    }
+
+    public double getTotalMillis() {
+        return totalNanos / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Load stats:");
+        for (String section : sectionNanos.keySet()) {
+            sb.append(' ').append(section);
+            if (records.containsKey(section))
+                sb.append('=').append(records.get(section));
+            sb.append(String.format(" (%.1f ms),", getSectionMillis(section)));
+        }
+        sb.append(String.format(" unresolved ratings=%d, unresolved cart items=%d, total %.1f ms",
+                unresolvedRatings, unresolvedCartItems, getTotalMillis()));
+        return sb.toString();
+    }
+}
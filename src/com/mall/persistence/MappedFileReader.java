@@ -0,0 +1,104 @@
+package com.mall.persistence;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reader that decodes a UTF-8 file straight out of memory-mapped windows of the file.
+ * Characters go from the page cache into the caller's buffer in one decoding step, without
+ * the read() copies of a FileInputStream. Files larger than one window (at most 2 GB, the
+ * limit of a single mapping) are mapped window by window; a character split across two
+ * windows is carried over by mapping the next window from the first undecoded byte.
+ *
+ * Mappings are released by the garbage collector, not by close(); on Windows a file
+ * cannot be replaced while a mapping of it is still alive.
+ */
+class MappedFileReader extends Reader {
+    // Largest window a single MappedByteBuffer can address is Integer.MAX_VALUE
+    static final long DEFAULT_WINDOW_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final long size;
+    private final long windowSize;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private ByteBuffer window;
+    private long windowStart;
+    // Second half of a surrogate pair that did not fit the caller's buffer
+    private final CharBuffer pending = CharBuffer.allocate(2);
+    private boolean flushed;
+
+    MappedFileReader(Path file) throws IOException {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    MappedFileReader(Path file, long windowSize) throws IOException {
+        if (windowSize < 4 || windowSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid window size: " + windowSize);
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.windowSize = windowSize;
+        pending.flip();
+        map(0);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (window == null)
+            throw new IOException("Stream closed");
+        if (len == 0)
+            return 0;
+
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (pending.hasRemaining() && out.hasRemaining())
+            out.put(pending.get());
+
+        while (out.position() == off) {
+            if (flushed)
+                return -1;
+            boolean lastWindow = windowStart + window.limit() == size;
+            CoderResult result = decoder.decode(window, out, lastWindow);
+            if (out.position() > off)
+                break;
+            if (result.isOverflow()) {
+                // The caller's buffer cannot hold a surrogate pair; decode it aside
+                pending.clear();
+                decoder.decode(window, pending, lastWindow);
+                pending.flip();
+                out.put(pending.get());
+            } else if (!lastWindow) {
+                // Continue from the first byte not decoded, which may be part of a character
+                map(windowStart + window.position());
+            } else {
+                decoder.flush(out);
+                flushed = true;
+            }
+        }
+        return out.position() - off;
+    }
+
+    private void map(long position) throws IOException {
+        long length = Math.min(windowSize, size - position);
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        windowStart = position;
+        window = mapped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,129 @@
+package com.mall.persistence;
+
+import com.mall.model.Customer;
+import com.mall.model.Product;
+import com.mall.model.SaleRecord;
+import com.mall.model.User;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.YearMonth;
+import java.util.List;
+
+/**
+ * Exports the complete state as newline-delimited JSON, for moving it between environments.
+ *
+ * The first line is a header {"format":2}; every other line holds one entity as
+ * {"user":{...}}, {"product":{...}}, {"sale":{...}} or {"cart":{...}}, with the record in the
+ * same form as in the JSON data file. Users come first, so ratings and carts refer back to
+ * lines already read. Records are streamed to the file as they are formatted, and archived
+ * sales months are read one at a time, so memory use does not grow with the export.
+ *
+ * Usage: java com.mall.persistence.NdjsonExport data.json export.ndjson
+ * (-Dmall.storage.compression=gzip compresses the export; see StateImporter to read it back)
+ */
+public final class NdjsonExport {
+    // Lines between progress updates
+    static final int PROGRESS_INTERVAL = 50_000;
+
+    private NdjsonExport() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: NdjsonExport <data file> <export file>");
+            System.exit(2);
+        }
+        try {
+            if (!new File(args[0]).exists())
+                throw new IOException(args[0] + " does not exist");
+            StorageOptions options = StorageOptions.fromSystemProperties();
+            DataStorageInterface reader = StorageBackends.readerFor(args[0], options);
+            SystemStateDto state = reader.load(args[0]);
+            long lines = export(state, reader.getSalesArchive(), Paths.get(args[1]), options.getCompression(),
+                    TransferProgress.CONSOLE);
+            System.out.printf("Exported %,d lines to %s%n", lines, args[1]);
+        } catch (IOException e) {
+            System.err.println("Export failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Writes the state to target, replacing it only once the export is complete.
+     *
+     * @param archive     Archived sales months to include before the resident sales, or null.
+     * @param compression Codec the export file is written with.
+     * @param progress    Told about every PROGRESS_INTERVAL lines and the end of each section.
+     * @return The number of lines written, header included.
+     */
+    public static long export(SystemStateDto state, SalesArchive archive, Path target, StreamCodec compression,
+            TransferProgress progress) throws IOException {
+        Path tmp = Paths.get(target + ".tmp");
+        long lines;
+        try (JsonRecordWriter out = new JsonRecordWriter(tmp, compression)) {
+            Counter counter = new Counter(progress);
+            out.write("{\"format\":" + JsonDataHandler.FORMAT_VERSION + "}\n");
+            counter.line(null);
+
+            for (User u : state.getUsers()) {
+                out.write("{\"user\":").user(u).write("}\n");
+                counter.line("users");
+            }
+            counter.endSection("users");
+
+            for (Product p : state.getProducts()) {
+                out.write("{\"product\":").product(p).write("}\n");
+                counter.line("products");
+            }
+            counter.endSection("products");
+
+            if (archive != null) {
+                for (YearMonth month : archive.getMonths())
+                    writeSales(out, archive.loadMonth(month), counter);
+            }
+            writeSales(out, state.getSales(), counter);
+            counter.endSection("sales");
+
+            for (User u : state.getUsers()) {
+                if (u instanceof Customer && !((Customer) u).getCart().getItems().isEmpty()) {
+                    out.write("{\"cart\":").cart((Customer) u).write("}\n");
+                    counter.line("carts");
+                }
+            }
+            counter.endSection("carts");
+            lines = counter.lines;
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return lines;
+    }
+
+    private static void writeSales(JsonRecordWriter out, List<SaleRecord> sales, Counter counter) throws IOException {
+        for (SaleRecord s : sales) {
+            out.write("{\"sale\":").sale(s).write("}\n");
+            counter.line("sales");
+        }
+    }
+
+    private static final class Counter {
+        final TransferProgress progress;
+        long lines;
+
+        Counter(TransferProgress progress) {
+            this.progress = progress;
+        }
+
+        void line(String section) {
+            if (++lines % PROGRESS_INTERVAL == 0 && progress != null)
+                progress.update(section, lines);
+        }
+
+        void endSection(String section) {
+            if (progress != null)
+                progress.update(section, lines);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.mall.persistence;
+
+import com.mall.model.Customer;
+import com.mall.model.Product;
+import com.mall.model.SaleRecord;
+import com.mall.model.User;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+/**
+ * Reads an export written by NdjsonExport one line at a time, so only the current line is
+ * held in memory. Compressed exports are recognized.
+ */
+public class NdjsonReader implements Closeable {
+
+    /**
+     * Receives the entities in file order.
+     */
+    public interface Sink {
+        void user(User u) throws IOException;
+
+        void product(Product p) throws IOException;
+
+        void sale(SaleRecord s) throws IOException;
+
+        void cartItem(String customerId, String productId, int quantity) throws IOException;
+    }
+
+    private final BufferedReader in;
+    private final JsonDataHandler codec = new JsonDataHandler();
+    private final JsonDataHandler.LoadContext ctx = new JsonDataHandler.LoadContext();
+    private boolean legacyBackslashes;
+    private long lineNumber;
+    private String section;
+
+    /**
+     * @param customers Resolves the raters of products; ratings by unknown customers are
+     *                  dropped and counted in getStats().
+     */
+    public NdjsonReader(File file, Function<String, Customer> customers) throws IOException {
+        this.in = new BufferedReader(new InputStreamReader(StreamCodecs.openInput(file, StreamCodecs.NONE),
+                StandardCharsets.UTF_8), 1 << 16);
+        ctx.customerLookup = customers;
+    }
+
+    /**
+     * Skips lines without parsing them, to resume an import where an earlier one stopped.
+     *
+     * @return The number of lines skipped; fewer than count at the end of the file.
+     */
+    public long skipLines(long count) throws IOException {
+        long skipped = 0;
+        while (skipped < count && in.readLine() != null)
+            skipped++;
+        lineNumber += skipped;
+        return skipped;
+    }
+
+    /**
+     * Reads the next line and hands its entity to the sink.
+     *
+     * @return False at the end of the file.
+     * @throws IOException naming the line if it cannot be parsed.
+     */
+    public boolean next(Sink sink) throws IOException {
+        String line;
+        do {
+            line = in.readLine();
+            if (line == null)
+                return false;
+            lineNumber++;
+        } while (line.isBlank());
+
+        try {
+            char[] chars = line.toCharArray();
+            JsonTokenizer t = new JsonTokenizer(chars, 0, chars.length);
+            t.setLegacyBackslashes(legacyBackslashes);
+            t.beginObject();
+            String kind = t.nextName();
+            switch (kind) {
+                case "format":
+                    legacyBackslashes = t.nextInt() < JsonDataHandler.FORMAT_VERSION;
+                    break;
+                case "user":
+                    section = "users";
+                    sink.user(codec.readUser(t, ctx));
+                    break;
+                case "product":
+                    section = "products";
+                    sink.product(codec.readProduct(t, ctx));
+                    break;
+                case "sale":
+                    section = "sales";
+                    sink.sale(codec.readSale(t, ctx));
+                    break;
+                case "cart":
+                    section = "carts";
+                    JsonDataHandler.CartEntry cart = codec.readCart(t);
+                    for (int i = 0; i < cart.productIds.size(); i++)
+                        sink.cartItem(cart.userId, cart.productIds.get(i), cart.quantities.get(i));
+                    break;
+                default:
+                    // Entity kind added by a newer version
+                    t.skipValue();
+            }
+            t.endObject();
+        } catch (IOException | RuntimeException e) {
+            throw new IOException("Line " + lineNumber + ": " + e.getMessage(), e);
+        }
+        return true;
+    }
+
+    /**
+     * @return Lines read or skipped so far; after a failed next() this includes the bad line.
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return Kind of the last entity read ("users", "products", "sales" or "carts"), or null.
+     */
+    public String getSection() {
+        return section;
+    }
+
+    // Counts of dropped ratings
+    public LoadStats getStats() {
+        return ctx.stats;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,367 @@
+package com.mall.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Single file of fixed-size pages with a buffer pool, a free list and a redo log.
+ *
+ * Page 0 is the header: magic, version, page size, page count, head of the free list and a
+ * few long "meta" slots where callers keep their tree roots and counters. Pages are read
+ * through an LRU buffer pool. Changes stay in the pool (or in the redo log, see below) until
+ * commit(); the data file itself is only written by the checkpoint that follows a commit.
+ *
+ * Redo log ("<file>.redo"): images of changed pages followed by a commit record. A commit
+ * appends the images, forces the log, then copies the images into the data file and
+ * truncates the log. On open, a log that ends in a commit record is replayed; anything after
+ * the last commit record is discarded. The data file therefore always holds the state of
+ * the last commit, or can be brought there from the log.
+ *
+ * Changed pages evicted from the pool before the commit are appended to the log, not to the
+ * data file, and read back from there; a transaction may be larger than the pool.
+ * Not thread-safe; callers synchronize.
+ */
+final class PageFile implements Closeable {
+    static final int PAGE_SIZE = 4096;
+    static final int META_SLOTS = 16;
+    static final String REDO_SUFFIX = ".redo";
+
+    private static final int MAGIC = 0x4D414C4C; // "MALL"
+    private static final int VERSION = 1;
+    private static final int HEADER_META_OFFSET = 32;
+
+    // Redo record: type, page id (or image count for a commit), page image for type PAGE, CRC
+    private static final byte RECORD_PAGE = 1;
+    private static final byte RECORD_COMMIT = 2;
+    private static final int RECORD_HEADER = 5;
+    private static final int PAGE_RECORD_SIZE = RECORD_HEADER + PAGE_SIZE + 4;
+    private static final int COMMIT_RECORD_SIZE = RECORD_HEADER + 4;
+
+    private final FileChannel data;
+    private final FileChannel log;
+    private final int poolPages;
+
+    // Access-ordered: the first entry is the least recently used page
+    private final LinkedHashMap<Integer, Page> pool = new LinkedHashMap<>(16, 0.75f, true);
+    // Latest redo log offset of changed pages that were evicted before the commit, by page
+    private final Map<Integer, Long> spilled = new TreeMap<>();
+    private int spilledRecords;
+
+    private int pageCount;
+    private int freeHead;
+    private final long[] meta = new long[META_SLOTS];
+
+    private static final class Page {
+        final ByteBuffer buf;
+        boolean dirty;
+
+        Page(ByteBuffer buf) {
+            this.buf = buf;
+        }
+    }
+
+    /**
+     * Opens or creates a page file, replaying a committed redo log left by a crash.
+     *
+     * @param poolPages Pages kept in memory; changed pages beyond this go to the redo log.
+     */
+    PageFile(Path file, int poolPages) throws IOException {
+        this.poolPages = Math.max(8, poolPages);
+        this.data = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            this.log = FileChannel.open(Paths.get(file + REDO_SUFFIX), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            data.close();
+            throw e;
+        }
+        try {
+            recover();
+            if (data.size() == 0) {
+                pageCount = 1;
+                commit();
+            } else {
+                readHeader();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // --- Pages ---
+
+    /**
+     * Current content of a page. The buffer must not be modified; use write().
+     */
+    ByteBuffer read(int pageId) throws IOException {
+        if (pageId <= 0 || pageId >= pageCount)
+            throw new IOException("Page " + pageId + " out of range (" + pageCount + " pages)");
+        Page page = pool.get(pageId);
+        if (page == null) {
+            ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
+            Long offset = spilled.get(pageId);
+            if (offset != null)
+                readFully(log, buf, offset + RECORD_HEADER);
+            else
+                readFully(data, buf, (long) pageId * PAGE_SIZE);
+            page = new Page(buf);
+            pool.put(pageId, page);
+            evict();
+        }
+        return page.buf.duplicate().clear();
+    }
+
+    /**
+     * Replaces the content of a page; the change is part of the next commit.
+     */
+    void write(int pageId, ByteBuffer content) throws IOException {
+        if (pageId <= 0 || pageId >= pageCount)
+            throw new IOException("Page " + pageId + " out of range (" + pageCount + " pages)");
+        if (content.remaining() > PAGE_SIZE)
+            throw new IOException("Page content of " + content.remaining() + " bytes exceeds the page size");
+        Page page = pool.get(pageId);
+        if (page == null) {
+            page = new Page(ByteBuffer.allocate(PAGE_SIZE));
+            pool.put(pageId, page);
+        }
+        ByteBuffer buf = page.buf;
+        buf.clear();
+        buf.put(content.duplicate());
+        while (buf.hasRemaining())
+            buf.put((byte) 0);
+        page.dirty = true;
+        evict();
+    }
+
+    /**
+     * @return A page for new content, taken from the free list if possible.
+     */
+    int allocate() throws IOException {
+        if (freeHead == 0)
+            return pageCount++;
+        int pageId = freeHead;
+        freeHead = read(pageId).getInt(1);
+        return pageId;
+    }
+
+    /**
+     * Returns a page to the free list. Free pages are marked with type 0.
+     */
+    void free(int pageId) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(5);
+        buf.put((byte) 0).putInt(freeHead).flip();
+        write(pageId, buf);
+        freeHead = pageId;
+    }
+
+    long getMeta(int slot) {
+        return meta[slot];
+    }
+
+    void setMeta(int slot, long value) {
+        meta[slot] = value;
+    }
+
+    int getPageCount() {
+        return pageCount;
+    }
+
+    // Keep the pool at its size; changed pages leave through the redo log
+    private void evict() throws IOException {
+        Iterator<Map.Entry<Integer, Page>> it = pool.entrySet().iterator();
+        while (pool.size() > poolPages && it.hasNext()) {
+            Map.Entry<Integer, Page> e = it.next();
+            if (e.getValue().dirty) {
+                spilled.put(e.getKey(), log.size());
+                appendPageRecord(e.getKey(), e.getValue().buf);
+                spilledRecords++;
+            }
+            it.remove();
+        }
+    }
+
+    // --- Transactions ---
+
+    /**
+     * Makes all changes since the last commit durable and writes them into the data file.
+     */
+    void commit() throws IOException {
+        List<Integer> dirty = new ArrayList<>();
+        for (Map.Entry<Integer, Page> e : pool.entrySet()) {
+            if (e.getValue().dirty)
+                dirty.add(e.getKey());
+        }
+        // 1. Redo log: remaining changed pages, the header and a commit record
+        for (int pageId : dirty)
+            appendPageRecord(pageId, pool.get(pageId).buf);
+        ByteBuffer header = header();
+        appendPageRecord(0, header);
+        int images = spilledRecords + dirty.size() + 1;
+        ByteBuffer commit = ByteBuffer.allocate(COMMIT_RECORD_SIZE);
+        commit.put(RECORD_COMMIT).putInt(images);
+        commit.putInt(crc(commit.array(), 0, RECORD_HEADER)).flip();
+        writeFully(log, commit, log.size());
+        log.force(false);
+
+        // 2. Checkpoint: copy the images into the data file, then drop the log
+        for (Map.Entry<Integer, Long> e : spilled.entrySet()) {
+            if (pool.containsKey(e.getKey()) && pool.get(e.getKey()).dirty)
+                continue;
+            ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
+            readFully(log, buf, e.getValue() + RECORD_HEADER);
+            writeFully(data, buf, (long) e.getKey() * PAGE_SIZE);
+        }
+        for (int pageId : dirty) {
+            Page page = pool.get(pageId);
+            writeFully(data, page.buf.duplicate().clear(), (long) pageId * PAGE_SIZE);
+            page.dirty = false;
+        }
+        writeFully(data, header, 0);
+        data.force(true);
+        log.truncate(0);
+        spilled.clear();
+        spilledRecords = 0;
+    }
+
+    /**
+     * Discards all changes since the last commit.
+     */
+    void rollback() throws IOException {
+        pool.values().removeIf(p -> p.dirty);
+        // Pages read back from the log belong to the discarded transaction too
+        for (Integer pageId : spilled.keySet())
+            pool.remove(pageId);
+        spilled.clear();
+        spilledRecords = 0;
+        log.truncate(0);
+        readHeader();
+    }
+
+    // Replays a committed log into the data file, or drops an uncommitted one
+    private void recover() throws IOException {
+        long size = log.size();
+        if (size == 0)
+            return;
+        Map<Integer, Long> images = new LinkedHashMap<>();
+        Map<Integer, Long> committed = null;
+        ByteBuffer head = ByteBuffer.allocate(RECORD_HEADER);
+        long pos = 0;
+        while (pos + RECORD_HEADER <= size) {
+            head.clear();
+            readFully(log, head, pos);
+            byte type = head.get(0);
+            int id = head.getInt(1);
+            if (type == RECORD_PAGE && pos + PAGE_RECORD_SIZE <= size) {
+                ByteBuffer record = ByteBuffer.allocate(PAGE_RECORD_SIZE);
+                readFully(log, record, pos);
+                if (record.getInt(RECORD_HEADER + PAGE_SIZE) != crc(record.array(), 0, RECORD_HEADER + PAGE_SIZE))
+                    break;
+                images.put(id, pos);
+                pos += PAGE_RECORD_SIZE;
+            } else if (type == RECORD_COMMIT && pos + COMMIT_RECORD_SIZE <= size) {
+                ByteBuffer record = ByteBuffer.allocate(COMMIT_RECORD_SIZE);
+                readFully(log, record, pos);
+                if (record.getInt(RECORD_HEADER) != crc(record.array(), 0, RECORD_HEADER))
+                    break;
+                committed = new LinkedHashMap<>(images);
+                pos += COMMIT_RECORD_SIZE;
+            } else {
+                // Torn record at the end of an interrupted write
+                break;
+            }
+        }
+        if (committed != null) {
+            for (Map.Entry<Integer, Long> e : committed.entrySet()) {
+                ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
+                readFully(log, buf, e.getValue() + RECORD_HEADER);
+                writeFully(data, buf, (long) e.getKey() * PAGE_SIZE);
+            }
+            data.force(true);
+        }
+        log.truncate(0);
+        log.force(false);
+    }
+
+    private void appendPageRecord(int pageId, ByteBuffer content) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(PAGE_RECORD_SIZE);
+        record.put(RECORD_PAGE).putInt(pageId);
+        record.put(content.duplicate().clear());
+        record.putInt(crc(record.array(), 0, RECORD_HEADER + PAGE_SIZE)).flip();
+        writeFully(log, record, log.size());
+    }
+
+    // --- Header ---
+
+    private ByteBuffer header() {
+        ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(PAGE_SIZE).putInt(pageCount).putInt(freeHead);
+        buf.position(HEADER_META_OFFSET);
+        for (long value : meta)
+            buf.putLong(value);
+        return buf.clear();
+    }
+
+    private void readHeader() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
+        readFully(data, buf, 0);
+        if (buf.getInt(0) != MAGIC)
+            throw new IOException("Not a page file");
+        if (buf.getInt(4) != VERSION || buf.getInt(8) != PAGE_SIZE)
+            throw new IOException("Unsupported page file version " + buf.getInt(4) + " or page size " + buf.getInt(8));
+        pageCount = buf.getInt(12);
+        freeHead = buf.getInt(16);
+        buf.position(HEADER_META_OFFSET);
+        for (int i = 0; i < META_SLOTS; i++)
+            meta[i] = buf.getLong();
+    }
+
+    // --- I/O helpers ---
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position);
+            if (n < 0) {
+                // Pages past the end of the file have never been written
+                while (buf.hasRemaining())
+                    buf.put((byte) 0);
+                break;
+            }
+            position += n;
+        }
+        buf.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining())
+            position += channel.write(buf, position);
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            data.close();
+        } finally {
+            log.close();
+        }
+    }
+}
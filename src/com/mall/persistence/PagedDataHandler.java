@@ -0,0 +1,580 @@
+package com.mall.persistence;
+
+import com.mall.model.*;
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Paged storage mode for the Shopping Mall system: one file of fixed-size pages (see
+ * PageFile) holding a B+tree per section, so a save only touches the pages of the records
+ * that changed and single products can be updated in place (see RecordStore).
+ *
+ * Users, products and carts are keyed by entity id; their values are an insertion sequence
+ * number (which keeps the load order stable) and the record's JSON text, the same text as in
+ * data.json. Sales are keyed by date and a sequence number, so a month is a key range.
+ *
+ * Like per-section storage, only sales of the current month are loaded; closed months stay
+ * in the file and are served through getSalesArchive(). Every save and point update is one
+ * transaction of the page file's redo log, so a crash leaves the state of the last commit.
+ *
+ * Users, products and carts are still all loaded: the catalog indexes of ProductService need
+ * every product, so products are not read from the file on demand.
+ */
+public class PagedDataHandler implements DataStorageInterface, RecordStore, Closeable {
+    public static final int DEFAULT_POOL_PAGES = 2048;
+
+    // Meta slots of the page file: tree roots, then the next sequence number of each tree
+    private static final int USERS = 0;
+    private static final int PRODUCTS = 1;
+    private static final int CARTS = 2;
+    private static final int SALES = 3;
+    private static final int SEQUENCE_SLOT = 4;
+
+    private final JsonDataHandler codec = new JsonDataHandler();
+    private final int poolPages;
+
+    private String openPath;
+    private PageFile file;
+    private BPlusTree[] trees;
+
+    // Path the bookkeeping below describes; null until a load or full save
+    private String baselinePath;
+    // Keys of the sales held in memory, in the order of the in-memory list, as last saved
+    private List<byte[]> residentKeys = new ArrayList<>();
+    private String lastSale;
+    // Sales keyed before the first resident month; null when everything is resident
+    private PagedArchive archive;
+    private LoadStats lastLoadStats;
+    // Set once the record store is handed out: products are then written through it, and
+    // saves only write the products whose point write or delete failed
+    private boolean productsWrittenThrough;
+    // Failed point writes by product id, with the sequence number taken when they failed;
+    // only a state captured after the failure holds the product as it should be stored
+    private final Map<String, Long> unsyncedProducts = new HashMap<>();
+
+    public PagedDataHandler() {
+        this(DEFAULT_POOL_PAGES);
+    }
+
+    /**
+     * @param poolPages Pages of the file kept in memory.
+     */
+    public PagedDataHandler(int poolPages) {
+        this.poolPages = poolPages;
+    }
+
+    // Parse one record from a tokenizer positioned at its start
+    private interface RecordParser<T> {
+        T read(JsonTokenizer in) throws IOException;
+    }
+
+    private void open(String filePath) throws IOException {
+        if (filePath.equals(openPath))
+            return;
+        close();
+        file = new PageFile(Paths.get(filePath), poolPages);
+        openPath = filePath;
+        trees = new BPlusTree[SEQUENCE_SLOT];
+        for (int i = 0; i < trees.length; i++)
+            trees[i] = new BPlusTree(file, i);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (file != null) {
+            file.close();
+            file = null;
+            openPath = null;
+            baselinePath = null;
+        }
+    }
+
+    // --- Save: write the changed records of each dirty section, append new sales ---
+
+    @Override
+    public synchronized void save(String filePath, SystemStateDto state) throws IOException {
+        open(filePath);
+        // Without a baseline the file may hold anything; it is made to match the state exactly
+        boolean full = !filePath.equals(baselinePath);
+        StateChanges changes = state.getChanges();
+        try {
+            sync(USERS, state.getUsers(), full ? null : changes.getIds(StateSection.USERS), User::getId,
+                    codec::formatUser);
+            // Written-through products only need the writes that failed before this capture
+            Map<String, Long> retried = new HashMap<>();
+            for (Map.Entry<String, Long> e : unsyncedProducts.entrySet()) {
+                if (e.getValue() < state.getSequence())
+                    retried.put(e.getKey(), e.getValue());
+            }
+            Set<String> productIds = full ? null
+                    : productsWrittenThrough ? new HashSet<>(retried.keySet()) : changes.getIds(StateSection.PRODUCTS);
+            sync(PRODUCTS, state.getProducts(), productIds, Product::getId, codec::formatProduct);
+            sync(CARTS, state.getUsers(), full ? null : changes.getIds(StateSection.CARTS), User::getId,
+                    u -> u instanceof Customer ? codec.formatCart((Customer) u) : null);
+            List<byte[]> keys = syncSales(state.getSales(), full);
+            file.commit();
+
+            // Bookkeeping only changes once the save is durable
+            residentKeys = keys;
+            // A write that failed again meanwhile keeps its newer sequence number
+            for (Map.Entry<String, Long> e : retried.entrySet())
+                unsyncedProducts.remove(e.getKey(), e.getValue());
+            List<SaleRecord> sales = state.getSales();
+            lastSale = sales.isEmpty() ? null : codec.formatSale(sales.get(sales.size() - 1));
+            // Everything in the file now came from the state
+            if (full)
+                archive = null;
+            baselinePath = filePath;
+        } catch (IOException | RuntimeException e) {
+            rollback(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Brings a section tree up to date with the entities. With ids, only those records are
+     * formatted and replaced (or deleted if no entity has the id any more); without, every
+     * entity is formatted and the tree is made to hold exactly them.
+     *
+     * @param format Record text of an entity, or null if the section holds none for it.
+     */
+    private <T> void sync(int section, List<T> entities, Set<String> ids, Function<T, String> idOf,
+            Function<T, String> format) throws IOException {
+        if (ids != null && ids.isEmpty())
+            return;
+        Map<String, String> records = new LinkedHashMap<>();
+        for (T e : entities) {
+            String id = idOf.apply(e);
+            if (ids == null || ids.contains(id)) {
+                String json = format.apply(e);
+                if (json != null)
+                    records.put(id, json);
+            }
+        }
+        if (ids == null) {
+            syncSection(section, records);
+            return;
+        }
+        for (String id : ids) {
+            String json = records.get(id);
+            if (json != null)
+                putRecord(section, id, json);
+            else
+                trees[section].delete(idKey(id));
+        }
+    }
+
+    // Make a section tree hold exactly the given records (id -> JSON), touching only changes
+    private void syncSection(int section, Map<String, String> records) throws IOException {
+        BPlusTree tree = trees[section];
+        Map<String, byte[]> pending = new LinkedHashMap<>();
+        for (Map.Entry<String, String> e : records.entrySet())
+            pending.put(e.getKey(), e.getValue().getBytes(StandardCharsets.UTF_8));
+        List<byte[]> removed = new ArrayList<>();
+        Map<String, Long> sequences = new HashMap<>();
+        tree.scan(null, null, (key, value) -> {
+            String id = new String(key, StandardCharsets.UTF_8);
+            byte[] json = pending.get(id);
+            if (json == null)
+                removed.add(key);
+            else if (Arrays.equals(value, 8, value.length, json, 0, json.length))
+                pending.remove(id);
+            else
+                sequences.put(id, ByteBuffer.wrap(value).getLong());
+            return true;
+        });
+        for (byte[] key : removed)
+            tree.delete(key);
+        for (Map.Entry<String, byte[]> e : pending.entrySet()) {
+            Long sequence = sequences.get(e.getKey());
+            tree.put(idKey(e.getKey()), entry(sequence != null ? sequence : nextSequence(section), e.getValue()));
+        }
+    }
+
+    // Insert or replace one record, keeping its place in the load order
+    private void putRecord(int section, String id, String json) throws IOException {
+        BPlusTree tree = trees[section];
+        byte[] key = idKey(id);
+        byte[] old = tree.get(key);
+        long sequence = old != null ? ByteBuffer.wrap(old).getLong() : nextSequence(section);
+        tree.put(key, entry(sequence, json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    // Store the in-memory sales and return their keys. Sales are append-only in practice:
+    // when the known prefix is unchanged only the tail is inserted.
+    private List<byte[]> syncSales(List<SaleRecord> sales, boolean full) throws IOException {
+        BPlusTree tree = trees[SALES];
+        int known = residentKeys.size();
+        boolean prefixIntact = !full && sales.size() >= known
+                && (known == 0 || codec.formatSale(sales.get(known - 1)).equals(lastSale));
+        List<byte[]> keys;
+        if (prefixIntact) {
+            keys = new ArrayList<>(residentKeys);
+        } else {
+            if (full) {
+                tree.clear();
+            } else {
+                for (byte[] key : residentKeys)
+                    tree.delete(key);
+            }
+            keys = new ArrayList<>(sales.size());
+        }
+        // Sequence numbers follow the list; inserting in key order keeps the pool from thrashing
+        int first = keys.size();
+        Integer[] order = new Integer[sales.size() - first];
+        long[] nanos = new long[order.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            nanos[i] = epochNanos(sales.get(first + i).getDate());
+            keys.add(saleKey(nanos[i], nextSequence(SALES)));
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> nanos[i]));
+        for (int i : order)
+            tree.put(keys.get(first + i), codec.formatSale(sales.get(first + i)).getBytes(StandardCharsets.UTF_8));
+        return keys;
+    }
+
+    private long nextSequence(int tree) {
+        long sequence = file.getMeta(SEQUENCE_SLOT + tree);
+        file.setMeta(SEQUENCE_SLOT + tree, sequence + 1);
+        return sequence;
+    }
+
+    // --- Load: scan each tree into one context ---
+
+    @Override
+    public synchronized SystemStateDto load(String filePath) throws IOException {
+        if (!new File(filePath).exists())
+            throw new FileNotFoundException(filePath);
+        long started = System.nanoTime();
+        open(filePath);
+        JsonDataHandler.LoadContext ctx = new JsonDataHandler.LoadContext();
+        lastLoadStats = ctx.stats;
+
+        // Users first so product ratings can resolve their customers
+        long sectionStart = System.nanoTime();
+        for (User u : readSection(USERS, in -> codec.readUser(in, ctx)))
+            ctx.addUser(u);
+        sectionStart = endSection(ctx, "users", ctx.users.size(), sectionStart);
+        List<Product> products = readSection(PRODUCTS, in -> codec.readProduct(in, ctx));
+        for (Product p : products)
+            ctx.addProduct(p);
+        sectionStart = endSection(ctx, "products", products.size(), sectionStart);
+        ctx.pendingCarts.addAll(readSection(CARTS, codec::readCart));
+        sectionStart = endSection(ctx, "carts", ctx.pendingCarts.size(), sectionStart);
+
+        // Current month eagerly, closed months stay in the file
+        Long monthStart = epochNanosOrNull(YearMonth.now().atDay(1).atStartOfDay());
+        long from = monthStart != null ? monthStart : Long.MIN_VALUE;
+        List<byte[]> keys = new ArrayList<>();
+        trees[SALES].scan(saleKey(from, 0), null, (key, value) -> {
+            ctx.sales.add(parse(value, 0, in -> codec.readSale(in, ctx)));
+            keys.add(key);
+            return true;
+        });
+        endSection(ctx, "sales", ctx.sales.size(), sectionStart);
+
+        SystemStateDto state = ctx.finish(started);
+        residentKeys = keys;
+        lastSale = state.getSales().isEmpty() ? null
+                : codec.formatSale(state.getSales().get(state.getSales().size() - 1));
+        archive = new PagedArchive(from);
+        baselinePath = filePath;
+        // The loaded state is what the file holds
+        unsyncedProducts.clear();
+        return state;
+    }
+
+    private static long endSection(JsonDataHandler.LoadContext ctx, String section, int count, long start) {
+        long now = System.nanoTime();
+        ctx.stats.addRecords(section, count);
+        ctx.stats.addSectionTime(section, now - start);
+        return now;
+    }
+
+    // Records of a section tree in insertion order
+    private <T> List<T> readSection(int section, RecordParser<T> parser) throws IOException {
+        List<long[]> order = new ArrayList<>();
+        List<T> records = new ArrayList<>();
+        trees[section].scan(null, null, (key, value) -> {
+            order.add(new long[] { ByteBuffer.wrap(value).getLong(), records.size() });
+            records.add(parse(value, 8, parser));
+            return true;
+        });
+        order.sort(Comparator.comparingLong(o -> o[0]));
+        List<T> sorted = new ArrayList<>(records.size());
+        for (long[] o : order)
+            sorted.add(records.get((int) o[1]));
+        return sorted;
+    }
+
+    private static <T> T parse(byte[] value, int offset, RecordParser<T> parser) throws IOException {
+        char[] text = new String(value, offset, value.length - offset, StandardCharsets.UTF_8).toCharArray();
+        try (JsonTokenizer in = new JsonTokenizer(text, 0, text.length)) {
+            return parser.read(in);
+        }
+    }
+
+    @Override
+    public LoadStats getLastLoadStats() {
+        return lastLoadStats;
+    }
+
+    @Override
+    public synchronized SalesArchive getSalesArchive() {
+        return archive;
+    }
+
+    /**
+     * Hands out point updates of products. From then on saves leave stored products to the
+     * caller's writes, except for writes that failed, which the next save retries.
+     */
+    @Override
+    public synchronized RecordStore getRecordStore() {
+        productsWrittenThrough = true;
+        return this;
+    }
+
+    // --- Point updates ---
+
+    @Override
+    public synchronized void writeProducts(Collection<Product> products) throws IOException {
+        List<String> ids = new ArrayList<>(products.size());
+        for (Product p : products)
+            ids.add(p.getId());
+        if (file == null) {
+            unsynced(ids);
+            throw new IOException("No page file is open");
+        }
+        try {
+            for (Product p : products)
+                putRecord(PRODUCTS, p.getId(), codec.formatProduct(p));
+            file.commit();
+        } catch (IOException | RuntimeException e) {
+            rollback(e);
+            unsynced(ids);
+            throw e;
+        }
+        unsyncedProducts.keySet().removeAll(ids);
+    }
+
+    @Override
+    public synchronized boolean deleteProduct(String id) throws IOException {
+        if (id == null)
+            return false;
+        if (file == null) {
+            unsynced(Collections.singletonList(id));
+            throw new IOException("No page file is open");
+        }
+        boolean removed;
+        try {
+            removed = trees[PRODUCTS].delete(idKey(id));
+            if (removed)
+                file.commit();
+        } catch (IOException | RuntimeException e) {
+            rollback(e);
+            unsynced(Collections.singletonList(id));
+            throw e;
+        }
+        unsyncedProducts.remove(id);
+        return removed;
+    }
+
+    // Remember failed point writes; only saves of states captured from now on retry them
+    private void unsynced(Collection<String> ids) {
+        long failed = SystemStateDto.nextSequence();
+        for (String id : ids)
+            unsyncedProducts.put(id, failed);
+    }
+
+    // Discard a failed transaction; the file keeps the state of the last commit
+    private void rollback(Exception cause) {
+        try {
+            file.rollback();
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    // --- Keys and values ---
+
+    private static byte[] idKey(String id) {
+        return (id != null ? id : "").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] entry(long sequence, byte[] json) {
+        return ByteBuffer.allocate(8 + json.length).putLong(sequence).put(json).array();
+    }
+
+    // Date then sequence; the sign bit is flipped so keys sort like the signed dates
+    private static byte[] saleKey(long epochNanos, long sequence) {
+        return ByteBuffer.allocate(16).putLong(epochNanos ^ Long.MIN_VALUE).putLong(sequence).array();
+    }
+
+    private static long keyNanos(byte[] key) {
+        return ByteBuffer.wrap(key).getLong() ^ Long.MIN_VALUE;
+    }
+
+    // Dates outside what fits in a long (about 1677-2262) and null dates are clamped
+    private static long epochNanos(LocalDateTime date) {
+        if (date == null)
+            return Long.MIN_VALUE;
+        Long nanos = epochNanosOrNull(date);
+        if (nanos != null)
+            return nanos;
+        return date.getYear() < 1970 ? Long.MIN_VALUE : Long.MAX_VALUE;
+    }
+
+    private static Long epochNanosOrNull(LocalDateTime date) {
+        try {
+            return Math.addExact(Math.multiplyExact(date.toEpochSecond(ZoneOffset.UTC), 1_000_000_000L),
+                    date.getNano());
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+
+    private static YearMonth monthOf(long epochNanos) {
+        return YearMonth.from(LocalDateTime.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L),
+                (int) Math.floorMod(epochNanos, 1_000_000_000L), ZoneOffset.UTC));
+    }
+
+    private static byte[] monthKey(YearMonth month) {
+        Long nanos = epochNanosOrNull(month.atDay(1).atStartOfDay());
+        return saleKey(nanos != null ? nanos : (month.getYear() < 1970 ? Long.MIN_VALUE : Long.MAX_VALUE), 0);
+    }
+
+    // Closed months: key ranges of the sales tree below the first resident month
+    private final class PagedArchive implements SalesArchive {
+        private final long until;
+        private final TreeSet<YearMonth> months = new TreeSet<>();
+        private final Map<YearMonth, BigDecimal> revenue = new HashMap<>();
+
+        PagedArchive(long until) throws IOException {
+            this.until = until;
+            findMonths();
+        }
+
+        // Jump from month to month through the tree instead of reading every sale
+        private void findMonths() throws IOException {
+            months.clear();
+            byte[] from = null;
+            while (true) {
+                byte[] key = trees[SALES].ceilingKey(from);
+                if (key == null || keyNanos(key) >= until)
+                    return;
+                YearMonth month = monthOf(keyNanos(key));
+                months.add(month);
+                from = monthKey(month.plusMonths(1));
+                if (Arrays.compareUnsigned(from, key) <= 0)
+                    return;
+            }
+        }
+
+        // The archive only serves the file it was loaded from
+        private boolean current() {
+            return archive == this && file != null;
+        }
+
+        @Override
+        public List<YearMonth> getMonths() {
+            synchronized (PagedDataHandler.this) {
+                return current() ? new ArrayList<>(months) : new ArrayList<>();
+            }
+        }
+
+        @Override
+        public List<SaleRecord> loadMonth(YearMonth month) throws IOException {
+            synchronized (PagedDataHandler.this) {
+                List<SaleRecord> sales = new ArrayList<>();
+                if (current() && months.contains(month)) {
+                    trees[SALES].scan(monthKey(month), monthKey(month.plusMonths(1)), (key, value) -> {
+                        sales.add(parse(value, 0, codec::readSale));
+                        return true;
+                    });
+                }
+                return sales;
+            }
+        }
+
+        @Override
+        public BigDecimal getRevenue(YearMonth month) throws IOException {
+            synchronized (PagedDataHandler.this) {
+                BigDecimal total = revenue.get(month);
+                if (total == null && current() && months.contains(month)) {
+                    total = BigDecimal.ZERO;
+                    for (SaleRecord s : loadMonth(month))
+                        total = total.add(s.getAmountPaid());
+                    revenue.put(month, total);
+                }
+                return total != null ? total : BigDecimal.ZERO;
+            }
+        }
+
+        @Override
+        public boolean holds(YearMonth month) {
+            Long end = epochNanosOrNull(month.plusMonths(1).atDay(1).atStartOfDay());
+            return end != null ? end <= until : month.getYear() < 1970;
+        }
+
+        @Override
+        public void addSales(List<SaleRecord> sales) throws IOException {
+            synchronized (PagedDataHandler.this) {
+                if (!current())
+                    throw new IOException("The archive's page file is no longer open");
+                try {
+                    for (SaleRecord s : sales) {
+                        trees[SALES].put(saleKey(epochNanos(s.getDate()), nextSequence(SALES)),
+                                codec.formatSale(s).getBytes(StandardCharsets.UTF_8));
+                    }
+                    file.commit();
+                } catch (IOException | RuntimeException e) {
+                    rollback(e);
+                    throw e;
+                }
+                for (SaleRecord s : sales) {
+                    YearMonth month = YearMonth.from(s.getDate());
+                    months.add(month);
+                    revenue.remove(month);
+                }
+            }
+        }
+
+        // Closed months are immutable except for this explicit admin correction and imports
+        @Override
+        public boolean removeTransaction(String transactionId) throws IOException {
+            synchronized (PagedDataHandler.this) {
+                if (!current())
+                    return false;
+                List<byte[]> matches = new ArrayList<>();
+                trees[SALES].scan(null, saleKey(until, 0), (key, value) -> {
+                    if (transactionId.equals(parse(value, 0, codec::readSale).getTransactionId()))
+                        matches.add(key);
+                    return true;
+                });
+                if (matches.isEmpty())
+                    return false;
+                try {
+                    for (byte[] key : matches)
+                        trees[SALES].delete(key);
+                    file.commit();
+                } catch (IOException | RuntimeException e) {
+                    rollback(e);
+                    throw e;
+                }
+                for (byte[] key : matches)
+                    revenue.remove(monthOf(keyNanos(key)));
+                findMonths();
+                return true;
+            }
+        }
+    }
+}
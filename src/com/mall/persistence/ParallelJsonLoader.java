@@ -0,0 +1,247 @@
+package com.mall.persistence;
+
+import com.mall.model.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parses a JSON data document on a ForkJoinPool.
+ *
+ * The document is read into memory once and scanned for the start of every record in each
+ * section array. Each section is then parsed by splitting its records into ranges on
+ * record boundaries; ranges are parsed in parallel and joined back in file order.
+ * Sections are processed one after another (users before products, so ratings can
+ * resolve their customers) and carts are still linked at the end by LoadContext.finish().
+ *
+ * Off by default (-Dmall.load.parallelism=1). The gain over the sequential loader has only
+ * been checked on a single core, where it is nil; measure with LoadComparison on the target
+ * machine before turning it on.
+ */
+final class ParallelJsonLoader {
+    // Ranges with fewer records than this are not split further
+    private static final int MIN_RECORDS_PER_TASK = 256;
+
+    private final JsonDataHandler codec;
+    private final ForkJoinPool pool;
+
+    ParallelJsonLoader(JsonDataHandler codec, ForkJoinPool pool) {
+        this.codec = codec;
+        this.pool = pool;
+    }
+
+    // Parse one record from a tokenizer positioned at its start
+    private interface RecordParser<T> {
+        T read(JsonTokenizer in, JsonDataHandler.LoadContext ctx) throws IOException;
+    }
+
+    /**
+     * Reads all sections of the document into ctx, like JsonDataHandler.readDocument().
+     */
+    void read(char[] doc, int length, JsonDataHandler.LoadContext ctx) throws IOException {
+        long scanStart = System.nanoTime();
+        Layout layout = Layout.scan(doc, length);
+        ctx.stats.addSectionTime("scan", System.nanoTime() - scanStart);
+
+        for (Map.Entry<String, Records> e : layout.sections.entrySet()) {
+            String section = e.getKey();
+            Records records = e.getValue();
+            long sectionStart = System.nanoTime();
+            switch (section) {
+                case "users":
+                    for (User u : parse(doc, layout, records, ctx, codec::readUser))
+                        ctx.addUser(u);
+                    break;
+                case "products":
+                    for (Product p : parse(doc, layout, records, ctx, codec::readProduct))
+                        ctx.addProduct(p);
+                    break;
+                case "sales":
+                    ctx.sales.addAll(parse(doc, layout, records, ctx, codec::readSale));
+                    break;
+                case "carts":
+                    ctx.pendingCarts.addAll(parse(doc, layout, records, ctx, (in, c) -> codec.readCart(in)));
+                    break;
+                default:
+                    continue;
+            }
+            ctx.stats.addRecords(section, records.count);
+            ctx.stats.addSectionTime(section, System.nanoTime() - sectionStart);
+        }
+    }
+
+    private <T> List<T> parse(char[] doc, Layout layout, Records records, JsonDataHandler.LoadContext ctx,
+            RecordParser<T> parser) throws IOException {
+        if (records.count == 0)
+            return new ArrayList<>();
+        Queue<LoadStats> chunkStats = new ConcurrentLinkedQueue<>();
+        int grain = Math.max(MIN_RECORDS_PER_TASK, records.count / (pool.getParallelism() * 8));
+        try {
+            List<T> result = pool.invoke(new ParseTask<>(doc, layout.legacy, records, 0, records.count,
+                    grain, ctx, parser, chunkStats));
+            for (LoadStats s : chunkStats)
+                ctx.stats.addAll(s);
+            return result;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Parses records [from, to) of a section, splitting the range while it is large
+    private static final class ParseTask<T> extends RecursiveTask<List<T>> {
+        private static final long serialVersionUID = 1L;
+
+        private final char[] doc;
+        private final boolean legacy;
+        private final Records records;
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final JsonDataHandler.LoadContext ctx;
+        private final RecordParser<T> parser;
+        private final Queue<LoadStats> chunkStats;
+
+        ParseTask(char[] doc, boolean legacy, Records records, int from, int to, int grain,
+                JsonDataHandler.LoadContext ctx, RecordParser<T> parser, Queue<LoadStats> chunkStats) {
+            this.doc = doc;
+            this.legacy = legacy;
+            this.records = records;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.ctx = ctx;
+            this.parser = parser;
+            this.chunkStats = chunkStats;
+        }
+
+        @Override
+        protected List<T> compute() {
+            if (to - from <= grain)
+                return parseRange();
+            int mid = (from + to) >>> 1;
+            ParseTask<T> left = new ParseTask<>(doc, legacy, records, from, mid, grain, ctx, parser, chunkStats);
+            ParseTask<T> right = new ParseTask<>(doc, legacy, records, mid, to, grain, ctx, parser, chunkStats);
+            left.fork();
+            List<T> tail = right.compute();
+            List<T> head = left.join();
+            // Left half first keeps the records in file order
+            head.addAll(tail);
+            return head;
+        }
+
+        private List<T> parseRange() {
+            int start = records.starts[from];
+            int end = records.endOf(to);
+            List<T> out = new ArrayList<>(to - from);
+            JsonDataHandler.LoadContext chunk = ctx.forChunk();
+            try (JsonTokenizer in = new JsonTokenizer(doc, start, end - start)) {
+                in.setLegacyBackslashes(legacy);
+                for (int i = from; i < to; i++)
+                    out.add(parser.read(in, chunk));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            chunkStats.add(chunk.stats);
+            return out;
+        }
+    }
+
+    // Start offsets of the records of one section array
+    private static final class Records {
+        int[] starts = new int[16];
+        int count;
+        // Offset of the closing bracket of the array
+        int arrayEnd;
+
+        void add(int start) {
+            if (count == starts.length)
+                starts = Arrays.copyOf(starts, count * 2);
+            starts[count++] = start;
+        }
+
+        // Where the text of records before index i ends
+        int endOf(int i) {
+            return i < count ? starts[i] : arrayEnd;
+        }
+    }
+
+    /**
+     * Record boundaries of a document, found by tracking nesting and skipping string contents.
+     */
+    private static final class Layout {
+        final Map<String, Records> sections = new LinkedHashMap<>();
+        // Files without a format marker keep backslashes unescaped
+        boolean legacy = true;
+
+        static Layout scan(char[] doc, int length) throws IOException {
+            Layout layout = new Layout();
+            int depth = 0;
+            String name = null;
+            Records current = null;
+            int i = 0;
+            while (i < length) {
+                char c = doc[i];
+                switch (c) {
+                    case '"': {
+                        int end = skipString(doc, i, length, layout.legacy);
+                        if (depth == 1)
+                            name = new String(doc, i + 1, end - i - 2);
+                        i = end;
+                        continue;
+                    }
+                    case '{':
+                        if (depth == 2 && current != null)
+                            current.add(i);
+                        depth++;
+                        break;
+                    case '[':
+                        if (depth == 1 && name != null) {
+                            current = new Records();
+                            layout.sections.put(name, current);
+                        }
+                        depth++;
+                        break;
+                    case '}':
+                        depth--;
+                        break;
+                    case ']':
+                        depth--;
+                        if (depth == 1 && current != null) {
+                            current.arrayEnd = i;
+                            current = null;
+                        }
+                        break;
+                    default:
+                        // The format marker is the only scalar top-level value
+                        if (depth == 1 && "format".equals(name) && c >= '0' && c <= '9') {
+                            int version = 0;
+                            while (i < length && doc[i] >= '0' && doc[i] <= '9')
+                                version = version * 10 + (doc[i++] - '0');
+                            layout.legacy = version < JsonDataHandler.FORMAT_VERSION;
+                            name = null;
+                            continue;
+                        }
+                }
+                i++;
+            }
+            if (depth != 0 || current != null)
+                throw new IOException("Malformed data: unbalanced brackets");
+            return layout;
+        }
+
+        // Returns the offset just past the closing quote of the string starting at 'start'
+        private static int skipString(char[] doc, int start, int length, boolean legacy) throws IOException {
+            int i = start + 1;
+            while (i < length) {
+                char c = doc[i++];
+                if (c == '"')
+                    return i;
+                if (c == '\\' && !legacy)
+                    i++;
+            }
+            throw new IOException("Malformed data at offset " + start + ": unterminated string");
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.mall.persistence;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes a compressed file with the compression running on its own thread, so serializing
+ * the next records overlaps with compressing and writing the previous ones.
+ *
+ * The writing thread fills fixed-size blocks and hands them over through a small bounded
+ * queue; the compressor thread returns each block once written, so memory use stays at a few
+ * blocks and a writer that outpaces compression simply waits. A failure on the compressor
+ * thread is reported by the next write or by close().
+ */
+final class PipelinedCompressor extends OutputStream implements WritableByteChannel {
+    private static final int BLOCK_SIZE = 1 << 16;
+    // Blocks queued for compression; one more is being filled and one being compressed
+    private static final int QUEUE_DEPTH = 4;
+    private static final Block END = new Block(0);
+
+    private final BlockingQueue<Block> full = new ArrayBlockingQueue<>(QUEUE_DEPTH + 1);
+    private final BlockingQueue<Block> free = new ArrayBlockingQueue<>(QUEUE_DEPTH + 2);
+    private final Thread worker;
+    private volatile Throwable failure;
+    private Block current;
+    private boolean closed;
+
+    PipelinedCompressor(Path file, StreamCodec codec) throws IOException {
+        // Opened here so that a bad path or codec fails the save right away
+        FileOutputStream target = new FileOutputStream(file.toFile());
+        OutputStream out;
+        try {
+            out = codec.compress(target);
+        } catch (IOException | RuntimeException e) {
+            target.close();
+            throw e;
+        }
+        for (int i = 0; i < QUEUE_DEPTH + 1; i++)
+            free.add(new Block(BLOCK_SIZE));
+        current = new Block(BLOCK_SIZE);
+        worker = new Thread(() -> compress(out), "mall-compress-" + file.getFileName());
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // Compressor thread: write blocks until END, then finish the stream
+    private void compress(OutputStream out) {
+        Block block = null;
+        try (OutputStream o = out) {
+            while ((block = full.take()) != END) {
+                o.write(block.data, 0, block.length);
+                block.length = 0;
+                free.put(block);
+            }
+        } catch (Throwable e) {
+            failure = e;
+            // Keep taking blocks so the writing thread never waits on a dead pipeline
+            try {
+                while (block != END) {
+                    if (block != null) {
+                        block.length = 0;
+                        free.offer(block);
+                    }
+                    block = full.take();
+                }
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (current.length == BLOCK_SIZE)
+            handOff();
+        current.data[current.length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (current.length == BLOCK_SIZE)
+                handOff();
+            int n = Math.min(len, BLOCK_SIZE - current.length);
+            System.arraycopy(b, off, current.data, current.length, n);
+            current.length += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        int written = src.remaining();
+        while (src.hasRemaining()) {
+            if (current.length == BLOCK_SIZE)
+                handOff();
+            int n = Math.min(src.remaining(), BLOCK_SIZE - current.length);
+            src.get(current.data, current.length, n);
+            current.length += n;
+        }
+        return written;
+    }
+
+    private void handOff() throws IOException {
+        checkFailure();
+        try {
+            full.put(current);
+            current = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    // Waits until everything is compressed and written
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            if (current.length > 0)
+                full.put(current);
+            full.put(END);
+            worker.join();
+        } catch (InterruptedException e) {
+            worker.interrupt();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        }
+        checkFailure();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed)
+            throw new ClosedChannelException();
+    }
+
+    // A new exception per call: the same failure may be reported by a write and then by close()
+    private void checkFailure() throws IOException {
+        Throwable e = failure;
+        if (e != null)
+            throw new IOException("Compression failed: " + e.getMessage(), e);
+    }
+
+    private static final class Block {
+        final byte[] data;
+        int length;
+
+        Block(int size) {
+            data = new byte[size];
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.mall.persistence;
+
+import com.mall.model.Customer;
+import com.mall.model.ProductDetails;
+import com.mall.model.User;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Product details left in the details section of a binary snapshot, read back on first
+ * access through a channel kept open until the handler that loaded them loads again.
+ *
+ * Details that have been read stay in a bounded LRU cache of soft references, so popular
+ * products are decoded once while the collector can still reclaim them under memory pressure.
+ * Snapshots are replaced by renaming a new file over the old one, so the open channel keeps
+ * reading the file the products were loaded from.
+ */
+final class ProductDetailFile implements Closeable {
+    static final int DEFAULT_CACHE_SIZE = 4096;
+
+    private final FileChannel channel;
+    // Start of the details section payload in the file
+    private final long base;
+    // Loaded users by their position in the users section, the key ratings are stored by
+    private final User[] users;
+    private final Map<Ref, SoftReference<ProductDetails>> cache;
+
+    ProductDetailFile(Path file, long base, User[] users, int cacheSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.base = base;
+        this.users = users;
+        this.cache = new LinkedHashMap<Ref, SoftReference<ProductDetails>>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Ref, SoftReference<ProductDetails>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * @param offset Start of the product's record within the details section.
+     * @param length Size of the record in bytes.
+     */
+    ProductDetails.Source source(int offset, int length) {
+        return new Ref(offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private ProductDetails read(Ref ref) {
+        synchronized (cache) {
+            SoftReference<ProductDetails> cached = cache.get(ref);
+            ProductDetails details = cached == null ? null : cached.get();
+            if (details != null)
+                return details;
+        }
+        // Read outside the lock; two threads missing at once just decode the record twice
+        ProductDetails details;
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(ref.length);
+            long position = base + ref.offset;
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, position + buf.position()) < 0)
+                    throw new IOException("Product details end before their record does");
+            }
+            details = decode(new BinaryReader(buf.array(), 0, ref.length), users, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read product details", e);
+        }
+        synchronized (cache) {
+            cache.put(ref, new SoftReference<>(details));
+        }
+        return details;
+    }
+
+    /**
+     * Decodes one details record: description, image path, then the ratings as
+     * (user position + 1, score) pairs.
+     *
+     * @param stats Counts ratings by unknown users, or null to drop them silently.
+     */
+    static ProductDetails decode(BinaryReader r, User[] users, LoadStats stats) throws IOException {
+        String description = readOptionalUtf8(r);
+        String imagePath = readOptionalUtf8(r);
+        int count = r.readVarInt();
+        Map<Customer, Integer> ratings = new LinkedHashMap<>(Math.max(4, count * 2));
+        for (int i = 0; i < count; i++) {
+            int user = r.readVarInt() - 1;
+            int score = (int) r.readSignedVarLong();
+            if (user >= 0 && user < users.length && users[user] instanceof Customer)
+                ratings.put((Customer) users[user], score);
+            else if (stats != null)
+                stats.unresolvedRating();
+        }
+        return new ProductDetails(description, imagePath, ratings);
+    }
+
+    static void writeOptionalUtf8(BinaryWriter w, String s) {
+        w.writeByte(s == null ? 0 : 1);
+        if (s != null)
+            w.writeUtf8(s);
+    }
+
+    private static String readOptionalUtf8(BinaryReader r) throws IOException {
+        return r.readByte() == 0 ? null : r.readUtf8();
+    }
+
+    // Identity is the record itself, so it also serves as the cache key
+    private final class Ref implements ProductDetails.Source {
+        final int offset;
+        final int length;
+
+        Ref(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public ProductDetails read() {
+            return ProductDetailFile.this.read(this);
+        }
+    }
+}
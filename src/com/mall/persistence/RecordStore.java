@@ -0,0 +1,22 @@
+package com.mall.persistence;
+
+import com.mall.model.Product;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Point updates of single records kept by a storage backend, for services that write
+ * changes through to disk as they make them instead of waiting for the next save. Every
+ * call is committed on its own.
+ *
+ * Once a service writes products through a backend's record store, that backend's saves
+ * leave stored products alone (except for writes that failed), so a background save of an
+ * older state cannot overwrite a newer product.
+ */
+public interface RecordStore {
+    // Insert or replace the given products in one commit
+    void writeProducts(Collection<Product> products) throws IOException;
+
+    // Remove one product; returns false if it was not stored
+    boolean deleteProduct(String id) throws IOException;
+}
@@ -0,0 +1,32 @@
+package com.mall.persistence;
+
+import com.mall.model.SaleRecord;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.YearMonth;
+import java.util.List;
+
+/**
+ * Closed months of sales history that stay on disk until a query asks for them.
+ * Sales of the months loaded at startup are not part of the archive; they are in the
+ * SystemStateDto like before.
+ */
+public interface SalesArchive {
+    // Archived months in ascending order
+    List<YearMonth> getMonths();
+
+    // Read all sales of an archived month. The records are not retained by the archive.
+    List<SaleRecord> loadMonth(YearMonth month) throws IOException;
+
+    // Total amount paid in an archived month; computed once and cached, the month is immutable
+    BigDecimal getRevenue(YearMonth month) throws IOException;
+
+    // Remove every record of a transaction from all archived months; returns false if none was found
+    boolean removeTransaction(String transactionId) throws IOException;
+
+    // True if sales of this month belong in the archive rather than in memory
+    boolean holds(YearMonth month);
+
+    // Store sales of months the archive holds (e.g. imported history) straight to disk
+    void addSales(List<SaleRecord> sales) throws IOException;
+}
@@ -0,0 +1,448 @@
+package com.mall.persistence;
+
+import com.mall.model.*;
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Per-section storage mode for the Shopping Mall system.
+ *
+ * The configured path is a directory holding one file per state section:
+ * users.json, products.json and carts.json are small JSON documents that are only
+ * rewritten when their section is dirty. Sales are partitioned by month into
+ * sales/yyyy-MM.seg, append-only segments with one sale object per line, so recording a
+ * sale never rewrites the sales history.
+ *
+ * Only segments of the current month are loaded eagerly; closed months are left on disk and
+ * exposed through getSalesArchive(), so startup cost does not grow with years of history.
+ * Every file is replaced through a temporary file and an atomic move. With compression
+ * configured, new files are written through the codec (the names stay the same); existing
+ * files keep their format until they are rewritten.
+ */
+public class SectionedDataHandler implements DataStorageInterface {
+    static final String USERS_FILE = "users.json";
+    static final String PRODUCTS_FILE = "products.json";
+    static final String CARTS_FILE = "carts.json";
+    static final String SALES_DIR = "sales";
+    static final String SEGMENT_SUFFIX = ".seg";
+    // Single segment written before sales were partitioned; migrated by the next save
+    static final String LEGACY_SALES_SEGMENT = "sales.seg";
+
+    private final JsonDataHandler codec;
+
+    // Directory the bookkeeping below describes; null until a load or full save
+    private String baselinePath;
+    // Month segments backing the sales held in memory, as last written
+    private Map<YearMonth, Segment> segments = new HashMap<>();
+    private MonthArchive archive;
+    private LoadStats lastLoadStats;
+
+    public SectionedDataHandler() {
+        this(StorageOptions.DEFAULTS);
+    }
+
+    /**
+     * @param options Read mode and load parallelism used for the section files.
+     */
+    public SectionedDataHandler(StorageOptions options) {
+        this.codec = new JsonDataHandler(options);
+    }
+
+    // --- Save: rewrite dirty sections, append new sales ---
+
+    @Override
+    public synchronized void save(String filePath, SystemStateDto state) throws IOException {
+        Path dir = Paths.get(filePath);
+        Files.createDirectories(dir.resolve(SALES_DIR));
+
+        // Without a baseline for this directory nothing on disk can be trusted to be current
+        boolean full = !filePath.equals(baselinePath);
+        if (full || state.isDirty(StateSection.USERS))
+            writeSection(dir.resolve(USERS_FILE), state, StateSection.USERS);
+        if (full || state.isDirty(StateSection.PRODUCTS))
+            writeSection(dir.resolve(PRODUCTS_FILE), state, StateSection.PRODUCTS);
+        if (full || state.isDirty(StateSection.CARTS))
+            writeSection(dir.resolve(CARTS_FILE), state, StateSection.CARTS);
+
+        // Checking the sales tails is cheap, so it runs even when the section is not marked
+        Map<YearMonth, List<SaleRecord>> byMonth = groupByMonth(state.getSales());
+        Map<YearMonth, Segment> written = new HashMap<>();
+        for (Map.Entry<YearMonth, List<SaleRecord>> e : byMonth.entrySet()) {
+            YearMonth month = e.getKey();
+            // Sales of a closed month still on disk go after the archived ones, see saveArchived()
+            if (archive != null && archive.contains(month))
+                continue;
+            List<SaleRecord> sales = e.getValue();
+            Path segment = segmentPath(dir, month);
+            Segment known = full ? null : segments.get(month);
+            if (known == null || !known.isPrefixOf(sales, codec))
+                rewriteSegment(segment, sales);
+            else if (sales.size() > known.count)
+                appendSales(segment, sales.subList(known.count, sales.size()));
+            written.put(month, Segment.of(sales, codec));
+        }
+        if (archive != null)
+            archive.save(dir, byMonth);
+
+        // Months whose last in-memory sale was deleted
+        if (!full) {
+            for (YearMonth month : segments.keySet()) {
+                if (!written.containsKey(month))
+                    Files.deleteIfExists(segmentPath(dir, month));
+            }
+        }
+        Files.deleteIfExists(dir.resolve(LEGACY_SALES_SEGMENT));
+
+        segments = written;
+        baselinePath = filePath;
+    }
+
+    // Sales grouped by calendar month, keeping their order within each month
+    private static Map<YearMonth, List<SaleRecord>> groupByMonth(List<SaleRecord> sales) {
+        Map<YearMonth, List<SaleRecord>> byMonth = new TreeMap<>();
+        for (SaleRecord s : sales)
+            byMonth.computeIfAbsent(YearMonth.from(s.getDate()), m -> new ArrayList<>()).add(s);
+        return byMonth;
+    }
+
+    private static Path segmentPath(Path dir, YearMonth month) {
+        return dir.resolve(SALES_DIR).resolve(month + SEGMENT_SUFFIX);
+    }
+
+    private void writeSection(Path target, SystemStateDto state, StateSection section) throws IOException {
+        Path tmp = Paths.get(target + ".tmp");
+        codec.writeDocument(tmp.toString(), state, EnumSet.of(section));
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void rewriteSegment(Path target, List<SaleRecord> sales) throws IOException {
+        Path tmp = Paths.get(target + ".tmp");
+        try (JsonRecordWriter out = new JsonRecordWriter(tmp, codec.getCompression())) {
+            for (SaleRecord s : sales)
+                out.sale(s).write('\n');
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void appendSales(Path target, List<SaleRecord> sales) throws IOException {
+        // Appended in the segment's own format; a compressed segment gets one more member
+        StreamCodec format = StreamCodecs.detect(target.toFile(), codec.getCompression());
+        try (FileOutputStream out = new FileOutputStream(target.toFile(), true)) {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    format.compress(StreamCodecs.keepOpen(out)), StandardCharsets.UTF_8))) {
+                for (SaleRecord s : sales) {
+                    writer.write(codec.formatSale(s));
+                    writer.write("\n");
+                }
+            }
+            // Make the appended sales durable before reporting the save as done
+            out.getChannel().force(false);
+        }
+    }
+
+    // --- Load: read each section file into one context ---
+
+    @Override
+    public synchronized SystemStateDto load(String filePath) throws IOException {
+        long started = System.nanoTime();
+        JsonDataHandler.LoadContext ctx = new JsonDataHandler.LoadContext();
+        lastLoadStats = ctx.stats;
+        Path dir = Paths.get(filePath);
+
+        // Users first so product ratings can resolve their customers
+        for (String name : new String[] { USERS_FILE, PRODUCTS_FILE, CARTS_FILE }) {
+            File file = dir.resolve(name).toFile();
+            if (file.exists())
+                codec.readDocument(file, ctx);
+        }
+
+        // Current month eagerly, closed months stay on disk
+        long salesStart = System.nanoTime();
+        YearMonth current = YearMonth.now();
+        TreeSet<YearMonth> archived = new TreeSet<>();
+        Set<YearMonth> damaged = new HashSet<>();
+        for (YearMonth month : listMonths(dir)) {
+            if (month.isBefore(current))
+                archived.add(month);
+            else if (!readSegment(segmentPath(dir, month).toFile(), ctx, ctx.sales::add))
+                damaged.add(month);
+        }
+        // An unpartitioned segment is loaded whole; the next save splits it into months
+        File legacy = dir.resolve(LEGACY_SALES_SEGMENT).toFile();
+        boolean legacyIntact = !legacy.exists() || readSegment(legacy, ctx, ctx.sales::add);
+        ctx.stats.addRecords("sales", ctx.sales.size());
+        ctx.stats.addSectionTime("sales", System.nanoTime() - salesStart);
+
+        SystemStateDto state = ctx.finish(started);
+
+        segments = new HashMap<>();
+        for (Map.Entry<YearMonth, List<SaleRecord>> e : groupByMonth(state.getSales()).entrySet()) {
+            // A damaged segment is rewritten in full by the next save
+            if (!damaged.contains(e.getKey()))
+                segments.put(e.getKey(), Segment.of(e.getValue(), codec));
+        }
+        archive = new MonthArchive(dir, archived, current);
+        baselinePath = (legacy.exists() || !legacyIntact) ? null : filePath;
+        return state;
+    }
+
+    // Months that have a segment file, in ascending order
+    private static List<YearMonth> listMonths(Path dir) {
+        List<YearMonth> months = new ArrayList<>();
+        File[] files = dir.resolve(SALES_DIR).toFile().listFiles();
+        if (files == null)
+            return months;
+        for (File f : files) {
+            String name = f.getName();
+            if (!name.endsWith(SEGMENT_SUFFIX))
+                continue;
+            try {
+                months.add(YearMonth.parse(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            } catch (DateTimeParseException e) {
+                // Not a month segment
+            }
+        }
+        Collections.sort(months);
+        return months;
+    }
+
+    // Stream the sales of a segment; returns false if it ended in a damaged record. Names share
+    // the instances of the load ctx, if given.
+    private boolean readSegment(File file, JsonDataHandler.LoadContext ctx, Consumer<SaleRecord> sink)
+            throws IOException {
+        if (!file.exists())
+            return true;
+        try (JsonTokenizer in = new JsonTokenizer(codec.openReader(file))) {
+            while (in.peek() != JsonTokenizer.Token.END_DOCUMENT)
+                sink.accept(codec.readSale(in, ctx));
+            return true;
+        } catch (IOException e) {
+            // Typically a torn last line from an interrupted append; keep what was read
+            System.err.println("Warning: " + file + " is damaged, ignoring the rest: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static List<SaleRecord> concat(List<SaleRecord> a, List<SaleRecord> b) {
+        List<SaleRecord> all = new ArrayList<>(a.size() + b.size());
+        all.addAll(a);
+        all.addAll(b);
+        return all;
+    }
+
+    @Override
+    public LoadStats getLastLoadStats() {
+        return lastLoadStats;
+    }
+
+    @Override
+    public synchronized SalesArchive getSalesArchive() {
+        return archive;
+    }
+
+    // Number of sales in a month segment and the text of the last of them, as last written.
+    // Compared by text because the in-memory store creates new record objects on every read.
+    private static final class Segment {
+        final int count;
+        final String last;
+
+        private Segment(int count, String last) {
+            this.count = count;
+            this.last = last;
+        }
+
+        static Segment of(List<SaleRecord> sales, JsonDataHandler codec) {
+            return new Segment(sales.size(), sales.isEmpty() ? null : codec.formatSale(sales.get(sales.size() - 1)));
+        }
+
+        // True if the segment on disk is still the start of the given list
+        boolean isPrefixOf(List<SaleRecord> sales, JsonDataHandler codec) {
+            return sales.size() >= count && (count == 0 || codec.formatSale(sales.get(count - 1)).equals(last));
+        }
+    }
+
+    /**
+     * Closed months read on demand; shares the handler's lock with save().
+     *
+     * Sales added in memory for a closed month (an import, a late correction) do not make the
+     * month resident: they are written after the archived sales of its segment, and the
+     * archive leaves that tail out of what it returns, as those sales are already in memory.
+     */
+    private final class MonthArchive implements SalesArchive {
+        private Path dir;
+        private final TreeSet<YearMonth> months;
+        // First month loaded into memory; earlier months are the archive's
+        private final YearMonth residentFrom;
+        private final Map<YearMonth, BigDecimal> revenue = new HashMap<>();
+        // Resident sales written after the archived ones, per month, as last written
+        private final Map<YearMonth, Segment> tails = new HashMap<>();
+
+        MonthArchive(Path dir, TreeSet<YearMonth> months, YearMonth residentFrom) {
+            this.dir = dir;
+            this.months = months;
+            this.residentFrom = residentFrom;
+        }
+
+        boolean contains(YearMonth month) {
+            return months.contains(month);
+        }
+
+        /**
+         * Brings the resident tails of the archived months up to date in the target directory.
+         * A tail that only grew is appended to; otherwise the segment is rewritten from its
+         * archived sales and the resident ones. Saving to another directory copies every
+         * archived month there, and the archive follows.
+         */
+        void save(Path target, Map<YearMonth, List<SaleRecord>> byMonth) throws IOException {
+            boolean moving = !target.equals(dir);
+            for (YearMonth month : new ArrayList<>(months)) {
+                List<SaleRecord> resident = byMonth.getOrDefault(month, Collections.emptyList());
+                Segment tail = tails.get(month);
+                Path segment = segmentPath(target, month);
+                if (moving) {
+                    if (tail == null && resident.isEmpty())
+                        Files.copy(segmentPath(dir, month), segment, StandardCopyOption.REPLACE_EXISTING);
+                    else
+                        rewriteSegment(segment, merged(month, resident));
+                } else if (tail == null && resident.isEmpty()) {
+                    continue;
+                } else if (tail == null) {
+                    appendSales(segment, resident);
+                } else if (!resident.isEmpty() && tail.isPrefixOf(resident, codec)) {
+                    if (resident.size() > tail.count)
+                        appendSales(segment, resident.subList(tail.count, resident.size()));
+                } else {
+                    rewriteSegment(segment, merged(month, resident));
+                }
+                if (resident.isEmpty())
+                    tails.remove(month);
+                else
+                    tails.put(month, Segment.of(resident, codec));
+                revenue.remove(month);
+            }
+            dir = target;
+        }
+
+        // Archived sales of the month followed by the resident ones
+        private List<SaleRecord> merged(YearMonth month, List<SaleRecord> resident) throws IOException {
+            List<SaleRecord> sales = loadMonth(month);
+            sales.addAll(resident);
+            return sales;
+        }
+
+        // Every sale in the month's segment, resident tail included
+        private List<SaleRecord> readAll(YearMonth month) throws IOException {
+            List<SaleRecord> sales = new ArrayList<>();
+            readSegment(segmentPath(dir, month).toFile(), null, sales::add);
+            return sales;
+        }
+
+        private int tailCount(YearMonth month) {
+            Segment tail = tails.get(month);
+            return tail == null ? 0 : tail.count;
+        }
+
+        @Override
+        public List<YearMonth> getMonths() {
+            synchronized (SectionedDataHandler.this) {
+                return new ArrayList<>(months);
+            }
+        }
+
+        @Override
+        public List<SaleRecord> loadMonth(YearMonth month) throws IOException {
+            synchronized (SectionedDataHandler.this) {
+                if (!months.contains(month))
+                    return new ArrayList<>();
+                List<SaleRecord> sales = readAll(month);
+                sales.subList(Math.max(0, sales.size() - tailCount(month)), sales.size()).clear();
+                return sales;
+            }
+        }
+
+        @Override
+        public BigDecimal getRevenue(YearMonth month) throws IOException {
+            synchronized (SectionedDataHandler.this) {
+                BigDecimal total = revenue.get(month);
+                if (total == null && months.contains(month)) {
+                    total = BigDecimal.ZERO;
+                    for (SaleRecord s : loadMonth(month))
+                        total = total.add(s.getAmountPaid());
+                    revenue.put(month, total);
+                }
+                return total != null ? total : BigDecimal.ZERO;
+            }
+        }
+
+        @Override
+        public boolean holds(YearMonth month) {
+            synchronized (SectionedDataHandler.this) {
+                // A closed month kept in memory (e.g. from a legacy segment) stays there
+                return month.isBefore(residentFrom) && !segments.containsKey(month);
+            }
+        }
+
+        // Added before the resident tail, which must stay last in the segment
+        @Override
+        public void addSales(List<SaleRecord> sales) throws IOException {
+            synchronized (SectionedDataHandler.this) {
+                Files.createDirectories(dir.resolve(SALES_DIR));
+                for (Map.Entry<YearMonth, List<SaleRecord>> e : groupByMonth(sales).entrySet()) {
+                    YearMonth month = e.getKey();
+                    Path segment = segmentPath(dir, month);
+                    if (!months.contains(month)) {
+                        rewriteSegment(segment, e.getValue());
+                        months.add(month);
+                    } else if (tailCount(month) == 0) {
+                        appendSales(segment, e.getValue());
+                    } else {
+                        List<SaleRecord> all = readAll(month);
+                        int archived = all.size() - tailCount(month);
+                        List<SaleRecord> merged = new ArrayList<>(all.subList(0, archived));
+                        merged.addAll(e.getValue());
+                        merged.addAll(all.subList(archived, all.size()));
+                        rewriteSegment(segment, merged);
+                    }
+                    revenue.remove(month);
+                }
+            }
+        }
+
+        // Closed segments are immutable except for this explicit admin correction and imports
+        @Override
+        public boolean removeTransaction(String transactionId) throws IOException {
+            synchronized (SectionedDataHandler.this) {
+                boolean removed = false;
+                for (YearMonth month : new ArrayList<>(months)) {
+                    List<SaleRecord> sales = readAll(month);
+                    // The resident tail is deleted through the in-memory sales and the next save
+                    int archived = Math.max(0, sales.size() - tailCount(month));
+                    List<SaleRecord> kept = new ArrayList<>(sales.subList(0, archived));
+                    if (!kept.removeIf(s -> s.getTransactionId().equals(transactionId)))
+                        continue;
+                    List<SaleRecord> tail = sales.subList(archived, sales.size());
+                    if (kept.isEmpty() && tail.isEmpty())
+                        Files.deleteIfExists(segmentPath(dir, month));
+                    else
+                        rewriteSegment(segmentPath(dir, month), concat(kept, tail));
+                    if (kept.isEmpty()) {
+                        // Only resident sales are left; the month is theirs now
+                        months.remove(month);
+                        Segment resident = tails.remove(month);
+                        if (resident != null && baselinePath != null && dir.equals(Paths.get(baselinePath)))
+                            segments.put(month, resident);
+                    }
+                    revenue.remove(month);
+                    removed = true;
+                }
+                return removed;
+            }
+        }
+    }
+}
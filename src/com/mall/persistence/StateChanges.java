@@ -0,0 +1,86 @@
+package com.mall.persistence;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sections changed since the last save and, where the changing code said so, the ids of the
+ * entities changed in them (user ids for USERS and CARTS, product ids for PRODUCTS).
+ * Backends that write single records use the ids instead of comparing every entity; a
+ * dirty section without ids changed in ways nobody recorded and has to be written whole.
+ */
+public class StateChanges {
+    private final EnumSet<StateSection> sections = EnumSet.noneOf(StateSection.class);
+    // Ids per dirty section; a dirty section missing here has unknown changes
+    private final Map<StateSection, Set<String>> ids = new EnumMap<>(StateSection.class);
+
+    public StateChanges() {
+    }
+
+    // Every section changed in unknown ways
+    public static StateChanges all() {
+        StateChanges changes = new StateChanges();
+        changes.sections.addAll(EnumSet.allOf(StateSection.class));
+        return changes;
+    }
+
+    // The section changed in ways not tied to particular entities
+    public void add(StateSection section) {
+        sections.add(section);
+        ids.remove(section);
+    }
+
+    // One entity of the section changed
+    public void add(StateSection section, String id) {
+        if (sections.add(section))
+            ids.put(section, new HashSet<>());
+        Set<String> changed = ids.get(section);
+        if (changed != null)
+            changed.add(id);
+    }
+
+    public void addAll(StateChanges other) {
+        for (StateSection section : other.sections) {
+            Set<String> changed = other.ids.get(section);
+            if (changed == null) {
+                add(section);
+            } else {
+                for (String id : changed)
+                    add(section, id);
+            }
+        }
+    }
+
+    public boolean contains(StateSection section) {
+        return sections.contains(section);
+    }
+
+    public boolean isEmpty() {
+        return sections.isEmpty();
+    }
+
+    public Set<StateSection> getSections() {
+        return Collections.unmodifiableSet(sections);
+    }
+
+    /**
+     * @return Ids of the entities changed in the section (empty if it is clean), or null if
+     *         the section changed in unknown ways.
+     */
+    public Set<String> getIds(StateSection section) {
+        if (!sections.contains(section))
+            return Collections.emptySet();
+        Set<String> changed = ids.get(section);
+        return changed != null ? Collections.unmodifiableSet(changed) : null;
+    }
+
+    public StateChanges copy() {
+        StateChanges copy = new StateChanges();
+        copy.addAll(this);
+        return copy;
+    }
+}
@@ -0,0 +1,9 @@
+package com.mall.persistence;
+
+/**
+ * Independently persistable parts of the system state.
+ * Services report which sections they changed so storage backends can skip the rest.
+ */
+public enum StateSection {
+    USERS, PRODUCTS, SALES, CARTS
+}
@@ -0,0 +1,92 @@
+package com.mall.persistence;
+
+import java.io.File;
+
+/**
+ * Chooses a DataStorageInterface implementation from configuration and file extension.
+ *
+ * Modes: "json" and "binary" rewrite a single file of that format on every save;
+ * "journal" appends changes to a journal next to a snapshot whose format follows
+ * the file extension (".bin" for binary, anything else JSON); "sections" keeps one file
+ * per section in a directory and only rewrites the sections that changed; "paged" keeps
+ * B+trees in a single page file (".db") and only writes the pages of changed records.
+ * StorageOptions select how JSON data is read (streamed or memory-mapped, sequential or
+ * parallel) and the codec JSON and binary files are compressed with; the page file is
+ * not compressed, as its pages are rewritten in place.
+ */
+public final class StorageBackends {
+    public static final String BINARY_EXTENSION = ".bin";
+    public static final String PAGED_EXTENSION = ".db";
+
+    private StorageBackends() {
+    }
+
+    public static DataStorageInterface create(String mode, String filePath) {
+        return create(mode, filePath, StorageOptions.DEFAULTS);
+    }
+
+    /**
+     * @param mode        One of "journal", "json", "binary", "sections" or "paged" (case-insensitive).
+     * @param filePath    Data file the backend will be used with.
+     * @param options     Read mode and load parallelism for JSON data.
+     */
+    public static DataStorageInterface create(String mode, String filePath, StorageOptions options) {
+        switch (mode.toLowerCase()) {
+            case "json":
+                return new JsonDataHandler(options);
+            case "binary":
+                return new BinaryDataHandler(options);
+            case "journal":
+                // Per-section and paged storage already write incrementally; a journal on top would not help
+                if (isSectioned(filePath))
+                    return new SectionedDataHandler(options);
+                if (isPaged(filePath))
+                    return new PagedDataHandler();
+                return new JournaledDataHandler(forPath(filePath, options), options.getCheckpointRecords(),
+                        options.getCheckpointIntervalMillis());
+            case "sections":
+                return new SectionedDataHandler(options);
+            case "paged":
+                return new PagedDataHandler();
+            default:
+                throw new IllegalArgumentException("Unknown storage mode: " + mode);
+        }
+    }
+
+    /**
+     * Snapshot format for a file, picked by its extension (".bin" binary, ".db" paged, anything
+     * else JSON). A directory (or a path ending in a separator) uses per-section storage.
+     */
+    public static DataStorageInterface forPath(String filePath) {
+        return forPath(filePath, StorageOptions.DEFAULTS);
+    }
+
+    public static DataStorageInterface forPath(String filePath, StorageOptions options) {
+        if (isSectioned(filePath))
+            return new SectionedDataHandler(options);
+        if (filePath.toLowerCase().endsWith(BINARY_EXTENSION))
+            return new BinaryDataHandler(options);
+        if (isPaged(filePath))
+            return new PagedDataHandler();
+        return new JsonDataHandler(options);
+    }
+
+    /**
+     * Handler that reads everything stored at filePath, including a pending journal.
+     */
+    static DataStorageInterface readerFor(String filePath, StorageOptions options) {
+        if (new File(filePath + JournaledDataHandler.JOURNAL_SUFFIX).exists())
+            return new JournaledDataHandler(forPath(filePath, options));
+        return forPath(filePath, options);
+    }
+
+    // Paged storage is a single page file with the ".db" extension
+    static boolean isPaged(String filePath) {
+        return filePath.toLowerCase().endsWith(PAGED_EXTENSION);
+    }
+
+    // Per-section storage lives in a directory rather than a single file
+    static boolean isSectioned(String filePath) {
+        return new File(filePath).isDirectory() || filePath.endsWith("/") || filePath.endsWith(File.separator);
+    }
+}
@@ -0,0 +1,78 @@
+package com.mall.persistence;
+
+import com.mall.model.SaleRecord;
+import java.io.File;
+import java.io.IOException;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command-line converter between the JSON and binary storage formats.
+ * The target format follows the file extension (".bin" is binary, anything else JSON);
+ * a directory target (e.g. "data/") is written as per-section storage.
+ *
+ * Usage: java com.mall.persistence.StorageConverter data.json data.bin
+ * (-Dmall.load.mapped=true and -Dmall.load.parallelism=N apply to reading the source,
+ * -Dmall.storage.compression=gzip to writing the target)
+ */
+public class StorageConverter {
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: StorageConverter <source file> <target file>");
+            System.exit(2);
+        }
+        try {
+            convert(args[0], args[1]);
+        } catch (IOException e) {
+            System.err.println("Conversion failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Loads the complete state from source (replaying its journal, if any) and writes it to target.
+     */
+    public static void convert(String source, String target) throws IOException {
+        if (!new File(source).exists())
+            throw new IOException(source + " does not exist");
+
+        long started = System.nanoTime();
+        StorageOptions options = StorageOptions.fromSystemProperties();
+        DataStorageInterface reader = StorageBackends.readerFor(source, options);
+        SystemStateDto state = withArchivedSales(reader.load(source), reader.getSalesArchive());
+        long loaded = System.nanoTime();
+        StorageBackends.forPath(target, options).save(target, state);
+        long saved = System.nanoTime();
+
+        System.out.printf("Converted %d users, %d products, %d sales%n",
+                state.getUsers().size(), state.getProducts().size(), state.getSales().size());
+        System.out.printf("  %s: %,d bytes, loaded in %.1f ms%n",
+                source, sizeOf(new File(source)), (loaded - started) / 1_000_000.0);
+        System.out.printf("  %s: %,d bytes, saved in %.1f ms%n",
+                target, sizeOf(new File(target)), (saved - loaded) / 1_000_000.0);
+    }
+
+    // The converted state must carry the full history, including months left on disk
+    private static SystemStateDto withArchivedSales(SystemStateDto state, SalesArchive archive) throws IOException {
+        if (archive == null || archive.getMonths().isEmpty())
+            return state;
+        List<SaleRecord> sales = new ArrayList<>();
+        for (YearMonth month : archive.getMonths())
+            sales.addAll(archive.loadMonth(month));
+        sales.addAll(state.getSales());
+        return new SystemStateDto(state.getProducts(), state.getUsers(), sales);
+    }
+
+    // Size of a data file, or of all files under a per-section directory
+    private static long sizeOf(File file) {
+        File[] children = file.listFiles();
+        if (children == null)
+            return file.length();
+        long total = 0;
+        for (File child : children)
+            total += sizeOf(child);
+        return total;
+    }
+}
@@ -0,0 +1,117 @@
+package com.mall.persistence;
+
+/**
+ * Tuning options shared by the storage backends.
+ */
+public class StorageOptions {
+    public static final StorageOptions DEFAULTS = new StorageOptions(false, 1);
+
+    private final boolean mappedReads;
+    private final int loadParallelism;
+    private final StreamCodec compression;
+    private long checkpointIntervalMillis = JournaledDataHandler.DEFAULT_CHECKPOINT_INTERVAL_MILLIS;
+    private int checkpointRecords = JournaledDataHandler.DEFAULT_CHECKPOINT_RECORDS;
+    private boolean lazyDetails;
+    private int detailCacheSize = ProductDetailFile.DEFAULT_CACHE_SIZE;
+
+    /**
+     * @param mappedReads     Read JSON data through memory-mapped windows instead of a stream.
+     * @param loadParallelism Threads used to parse a JSON document; 1 parses sequentially.
+     */
+    public StorageOptions(boolean mappedReads, int loadParallelism) {
+        this(mappedReads, loadParallelism, StreamCodecs.NONE);
+    }
+
+    /**
+     * @param compression Codec new snapshot and segment files are written with. Files are read
+     *                    with whatever codec they were written with.
+     */
+    public StorageOptions(boolean mappedReads, int loadParallelism, StreamCodec compression) {
+        this.mappedReads = mappedReads;
+        this.loadParallelism = Math.max(1, loadParallelism);
+        this.compression = compression;
+    }
+
+    /**
+     * Copy of these options with other checkpoint triggers for the journaled mode.
+     *
+     * @param intervalMillis Snapshot age after which a checkpoint starts; 0 disables it.
+     * @param records        Journal records after which a checkpoint starts.
+     */
+    public StorageOptions withCheckpoints(long intervalMillis, int records) {
+        StorageOptions copy = copy();
+        copy.checkpointIntervalMillis = intervalMillis;
+        copy.checkpointRecords = records;
+        return copy;
+    }
+
+    /**
+     * Copy of these options that leaves product descriptions, image paths and ratings in
+     * uncompressed binary snapshots until they are first read.
+     *
+     * @param lazy      Load only the fields needed to list and search products.
+     * @param cacheSize Products whose details are kept in memory once read.
+     */
+    public StorageOptions withLazyDetails(boolean lazy, int cacheSize) {
+        StorageOptions copy = copy();
+        copy.lazyDetails = lazy;
+        copy.detailCacheSize = Math.max(1, cacheSize);
+        return copy;
+    }
+
+    private StorageOptions copy() {
+        StorageOptions copy = new StorageOptions(mappedReads, loadParallelism, compression);
+        copy.checkpointIntervalMillis = checkpointIntervalMillis;
+        copy.checkpointRecords = checkpointRecords;
+        copy.lazyDetails = lazyDetails;
+        copy.detailCacheSize = detailCacheSize;
+        return copy;
+    }
+
+    /**
+     * Options from -Dmall.load.mapped=true, -Dmall.load.parallelism=N
+     * (N=0 uses one thread per available processor), -Dmall.storage.compression=gzip,
+     * -Dmall.checkpoint.intervalMs, -Dmall.checkpoint.records, -Dmall.load.lazyDetails=true
+     * and -Dmall.details.cacheSize.
+     */
+    public static StorageOptions fromSystemProperties() {
+        int parallelism = Integer.getInteger("mall.load.parallelism", 1);
+        if (parallelism == 0)
+            parallelism = Runtime.getRuntime().availableProcessors();
+        return new StorageOptions(Boolean.getBoolean("mall.load.mapped"), parallelism,
+                StreamCodecs.forName(System.getProperty("mall.storage.compression", "none")))
+                .withCheckpoints(Long.getLong("mall.checkpoint.intervalMs",
+                        JournaledDataHandler.DEFAULT_CHECKPOINT_INTERVAL_MILLIS),
+                        Integer.getInteger("mall.checkpoint.records", JournaledDataHandler.DEFAULT_CHECKPOINT_RECORDS))
+                .withLazyDetails(Boolean.getBoolean("mall.load.lazyDetails"),
+                        Integer.getInteger("mall.details.cacheSize", ProductDetailFile.DEFAULT_CACHE_SIZE));
+    }
+
+    public boolean isMappedReads() {
+        return mappedReads;
+    }
+
+    public int getLoadParallelism() {
+        return loadParallelism;
+    }
+
+    public StreamCodec getCompression() {
+        return compression;
+    }
+
+    public long getCheckpointIntervalMillis() {
+        return checkpointIntervalMillis;
+    }
+
+    public int getCheckpointRecords() {
+        return checkpointRecords;
+    }
+
+    public boolean isLazyDetails() {
+        return lazyDetails;
+    }
+
+    public int getDetailCacheSize() {
+        return detailCacheSize;
+    }
+}
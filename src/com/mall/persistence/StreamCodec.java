@@ -0,0 +1,34 @@
+package com.mall.persistence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stream compression applied to data files. Files are recognized by their leading bytes
+ * on load, so the configured codec only decides how new files are written, and data written
+ * with any known codec (or none) can still be read.
+ */
+public interface StreamCodec {
+    /**
+     * @return Name used to select the codec, e.g. with -Dmall.storage.compression.
+     */
+    String getName();
+
+    /**
+     * Wraps a stream so that everything written to it is compressed. Closing the returned
+     * stream finishes the compressed data and closes 'out'.
+     */
+    OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * Wraps a stream positioned at the start of data written by compress(). Data written by
+     * several compress() streams one after another must read back as one stream.
+     */
+    InputStream decompress(InputStream in) throws IOException;
+
+    /**
+     * @return True if the first bytes of a file show it was written by this codec.
+     */
+    boolean matches(byte[] header, int length);
+}
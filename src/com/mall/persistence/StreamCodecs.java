@@ -0,0 +1,149 @@
+package com.mall.persistence;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The built-in stream codecs and the helpers the handlers use to open data files through them.
+ */
+public final class StreamCodecs {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Plain files. */
+    public static final StreamCodec NONE = new StreamCodec() {
+        @Override
+        public String getName() {
+            return "none";
+        }
+
+        @Override
+        public OutputStream compress(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) {
+            return in;
+        }
+
+        @Override
+        public boolean matches(byte[] header, int length) {
+            return false;
+        }
+    };
+
+    /** GZIP (java.util.zip); appended members read back as one stream. */
+    public static final StreamCodec GZIP = new StreamCodec() {
+        @Override
+        public String getName() {
+            return "gzip";
+        }
+
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+
+        @Override
+        public boolean matches(byte[] header, int length) {
+            return length >= 2 && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b;
+        }
+    };
+
+    private StreamCodecs() {
+    }
+
+    /**
+     * @param name "none" or "gzip" (case-insensitive), or the name of a StreamCodec class
+     *             with a public no-argument constructor.
+     */
+    public static StreamCodec forName(String name) {
+        switch (name.toLowerCase()) {
+            case "none":
+                return NONE;
+            case "gzip":
+                return GZIP;
+            default:
+                try {
+                    return (StreamCodec) Class.forName(name).getConstructor().newInstance();
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    throw new IllegalArgumentException("Unknown compression: " + name, e);
+                }
+        }
+    }
+
+    // --- File helpers used by the handlers ---
+
+    /**
+     * Codec a file was written with: 'preferred' or GZIP if the leading bytes match,
+     * otherwise NONE (also for missing and empty files).
+     */
+    static StreamCodec detect(File file, StreamCodec preferred) throws IOException {
+        byte[] header = new byte[16];
+        int length = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while (length < header.length && (n = in.read(header, length, header.length - length)) > 0)
+                length += n;
+        } catch (FileNotFoundException e) {
+            return NONE;
+        }
+        if (preferred.matches(header, length))
+            return preferred;
+        return GZIP.matches(header, length) ? GZIP : NONE;
+    }
+
+    // Decompressed contents of a file, whatever codec it was written with
+    static InputStream openInput(File file, StreamCodec preferred) throws IOException {
+        StreamCodec codec = detect(file, preferred);
+        InputStream in = new FileInputStream(file);
+        if (codec == NONE)
+            return in;
+        try {
+            return codec.decompress(new BufferedInputStream(in, BUFFER_SIZE));
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    // Create or truncate a file; compressed data is encoded on a background thread
+    static OutputStream openOutput(Path file, StreamCodec codec) throws IOException {
+        if (codec == NONE)
+            return new BufferedOutputStream(new FileOutputStream(file.toFile()), BUFFER_SIZE);
+        return new PipelinedCompressor(file, codec);
+    }
+
+    // Like openOutput(), for writers that fill their own buffers
+    static WritableByteChannel openChannel(Path file, StreamCodec codec) throws IOException {
+        if (codec == NONE)
+            return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        return new PipelinedCompressor(file, codec);
+    }
+
+    // A stream whose close() only flushes, so the caller can still force and close 'out' itself
+    static OutputStream keepOpen(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+    }
+}
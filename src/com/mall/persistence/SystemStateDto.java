@@ -1,22 +1,50 @@
 package com.mall.persistence;
 
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.mall.model.Product;
 import com.mall.model.User;
 import com.mall.model.SaleRecord;
 
 public class SystemStateDto {
+    // Orders captured states against other events, such as failed point writes
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
     // DTO fields: store lists representing the current saved state of the system
     private List<Product> products;
     private List<User> users;
     private List<SaleRecord> sales;
+    // Sections (and entities) changed since the last save; backends may skip writing the others
+    private StateChanges changes;
+    // Taken before the lists were copied, so every change made before it is in them
+    private final long sequence;
 
     // Constructor: initialize the DTO with lists of products, users, and sales
     public SystemStateDto(List<Product> products, List<User> users, List<SaleRecord> sales) {
+        this(products, users, sales, StateChanges.all());
+    }
+
+    // Constructor used by incremental saves: only the given changes are known to have happened
+    public SystemStateDto(List<Product> products, List<User> users, List<SaleRecord> sales,
+            StateChanges changes) {
+        this(products, users, sales, changes, nextSequence());
+    }
+
+    // Constructor used by captures that took their sequence number before copying the lists
+    public SystemStateDto(List<Product> products, List<User> users, List<SaleRecord> sales,
+            StateChanges changes, long sequence) {
         this.products = products;
         this.users = users;
         this.sales = sales;
+        this.changes = changes;
+        this.sequence = sequence;
+    }
+
+    // A number greater than every one handed out before
+    public static long nextSequence() {
+        return SEQUENCE.incrementAndGet();
     }
 
     // Getter for the list of products contained in the system state
@@ -33,4 +61,24 @@ public class SystemStateDto {
     public List<SaleRecord> getSales() {
         return sales;
     }
-}
\ No newline at end of file
+
+    // Getter for the sections that changed since the last save
+    public Set<StateSection> getDirtySections() {
+        return changes.getSections();
+    }
+
+    // Getter for the sections and entities that changed since the last save
+    public StateChanges getChanges() {
+        return changes;
+    }
+
+    // Getter for the sequence number taken when the state was captured
+    public long getSequence() {
+        return sequence;
+    }
+
+    // True if the given section has to be written
+    public boolean isDirty(StateSection section) {
+        return changes.contains(section);
+    }
+}
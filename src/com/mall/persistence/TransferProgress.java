@@ -0,0 +1,15 @@
+package com.mall.persistence;
+
+/**
+ * Receives progress of a long-running export or import.
+ */
+public interface TransferProgress {
+    /**
+     * @param section Kind of record being transferred: "users", "products", "sales" or "carts".
+     * @param lines   Lines of the export file written or read so far.
+     */
+    void update(String section, long lines);
+
+    // Prints a line per update
+    TransferProgress CONSOLE = (section, lines) -> System.out.printf("  %,d lines (%s)%n", lines, section);
+}
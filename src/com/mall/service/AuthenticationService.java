@@ -2,10 +2,14 @@ package com.mall.service;
 
 import com.mall.model.User;
 import com.mall.model.Customer;
+import com.mall.persistence.StateSection;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -13,13 +17,21 @@ import java.util.UUID;
  */
 public class AuthenticationService {
     private final List<User> users;
+    private final DirtyTracker dirtyTracker;
     private User currentUser;
 
     /**
-     * @param users The global list of users loaded from the persistence layer.
+     * @param users        The global list of users loaded from the persistence layer.
+     * @param dirtyTracker Receives the USERS section on account changes; customer carts
+     *                     report their CARTS changes to it as well.
      */
-    public AuthenticationService(List<User> users) {
+    public AuthenticationService(List<User> users, DirtyTracker dirtyTracker) {
         this.users = users;
+        this.dirtyTracker = dirtyTracker;
+        for (User u : users) {
+            if (u instanceof Customer)
+                ((Customer) u).getCart().setDirtyTracker(dirtyTracker, u.getId());
+        }
     }
 
     /**
@@ -38,10 +50,38 @@ public class AuthenticationService {
                 username,
                 password,
                 BigDecimal.ZERO);
+        newCustomer.getCart().setDirtyTracker(dirtyTracker, newCustomer.getId());
         users.add(newCustomer);
+        dirtyTracker.mark(StateSection.USERS, newCustomer.getId());
         return true;
     }
 
+    /**
+     * Adds a batch of existing accounts (e.g. from an import). Users whose id or username
+     * (ignoring case) is already taken are skipped.
+     *
+     * @return The users that were added.
+     */
+    public List<User> addUsers(List<User> batch) {
+        Set<String> ids = new HashSet<>();
+        Set<String> usernames = new HashSet<>();
+        for (User u : users) {
+            ids.add(u.getId());
+            usernames.add(u.getUsername().toLowerCase());
+        }
+        List<User> added = new ArrayList<>();
+        for (User u : batch) {
+            if (!ids.add(u.getId()) || !usernames.add(u.getUsername().toLowerCase()))
+                continue;
+            if (u instanceof Customer)
+                ((Customer) u).getCart().setDirtyTracker(dirtyTracker, u.getId());
+            users.add(u);
+            added.add(u);
+            dirtyTracker.mark(StateSection.USERS, u.getId());
+        }
+        return added;
+    }
+
     /**
      * Validates credentials and sets the active session.
      * 
@@ -75,6 +115,17 @@ public class AuthenticationService {
         return users;
     }
 
+    /**
+     * @return Frozen copies of all users, for writing in the background. Only customers
+     *         whose balance or cart changed since the last call are copied again.
+     */
+    public List<User> snapshotUsers() {
+        List<User> copies = new ArrayList<>(users.size());
+        for (User u : users)
+            copies.add(u.freeze());
+        return copies;
+    }
+
     /**
      * Increases the balance of the currently logged-in customer.
      * Demonstrates 'creativity in design' for extra credit.
@@ -86,9 +137,18 @@ public class AuthenticationService {
         if (isCustomer()) {
             Customer c = (Customer) currentUser;
             c.setBalance(c.getBalance().add(amount));
+            dirtyTracker.mark(StateSection.USERS, c.getId());
         }
     }
 
+    /**
+     * Deducts a purchase total from a customer's balance.
+     */
+    public void chargeCustomer(Customer customer, BigDecimal amount) {
+        customer.setBalance(customer.getBalance().subtract(amount));
+        dirtyTracker.mark(StateSection.USERS, customer.getId());
+    }
+
     // --- Role Checks ---
 
     public User getCurrentUser() {
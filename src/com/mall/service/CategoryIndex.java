@@ -0,0 +1,118 @@
+package com.mall.service;
+
+import com.mall.model.Product;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Products grouped by category, keyed by the shared dictionary code of the lower-cased
+ * category name, so filtering touches only the matching products and listing the categories
+ * only the categories.
+ *
+ * Each product keeps the sequence number it got when it entered the catalog, and members of
+ * a category are ordered by it, so results come out in catalog order even after a product
+ * moves to another category.
+ */
+class CategoryIndex {
+    private final Map<Integer, TreeMap<Long, Product>> byCategory = new HashMap<>();
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long nextSequence;
+
+    private static final class Entry {
+        final long sequence;
+        int code;
+
+        Entry(long sequence, int code) {
+            this.sequence = sequence;
+            this.code = code;
+        }
+    }
+
+    /**
+     * Replaces the index contents with the given products, in catalog order.
+     */
+    void rebuild(Iterable<Product> catalog) {
+        byCategory.clear();
+        entries.clear();
+        nextSequence = 0;
+        for (Product p : catalog)
+            put(p);
+    }
+
+    /**
+     * Indexes a new product, or moves one already indexed (matched by id) to its current category.
+     */
+    void put(Product p) {
+        int code = p.getCategoryCode();
+        Entry e = entries.get(p.getId());
+        if (e == null) {
+            e = new Entry(nextSequence++, code);
+            entries.put(p.getId(), e);
+        } else if (e.code != code) {
+            detach(e);
+            e.code = code;
+        }
+        if (code >= 0)
+            byCategory.computeIfAbsent(code, c -> new TreeMap<>()).put(e.sequence, p);
+    }
+
+    void remove(String id) {
+        Entry e = entries.remove(id);
+        if (e != null)
+            detach(e);
+    }
+
+    private void detach(Entry e) {
+        TreeMap<Long, Product> members = byCategory.get(e.code);
+        if (members == null)
+            return;
+        members.remove(e.sequence);
+        if (members.isEmpty())
+            byCategory.remove(e.code);
+    }
+
+    /**
+     * @return The products of the category with this code, in catalog order.
+     */
+    List<Product> products(int code) {
+        TreeMap<Long, Product> members = byCategory.get(code);
+        return members == null ? new ArrayList<>() : new ArrayList<>(members.values());
+    }
+
+    // Category code the product was indexed under, or -1 if it is not indexed
+    int codeOf(String id) {
+        Entry e = entries.get(id);
+        return e == null ? -1 : e.code;
+    }
+
+    // Products in the category with this code
+    int size(int code) {
+        TreeMap<Long, Product> members = byCategory.get(code);
+        return members == null ? 0 : members.size();
+    }
+
+    /**
+     * @return The category with this code as its first product spells it, or null if it is empty.
+     */
+    String name(int code) {
+        TreeMap<Long, Product> members = byCategory.get(code);
+        return members == null ? null : members.firstEntry().getValue().getCategory();
+    }
+
+    /**
+     * @return Product count per non-empty category, each named as its first product spells it,
+     *         sorted ignoring case.
+     */
+    Map<String, Integer> counts() {
+        Map<String, Integer> counts = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (TreeMap<Long, Product> members : byCategory.values()) {
+            String name = members.firstEntry().getValue().getCategory();
+            if (name != null && !name.isEmpty())
+                counts.put(name, members.size());
+        }
+        return counts;
+    }
+}
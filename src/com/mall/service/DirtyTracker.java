@@ -0,0 +1,54 @@
+package com.mall.service;
+
+import java.util.Collection;
+
+import com.mall.persistence.StateChanges;
+import com.mall.persistence.StateSection;
+
+/**
+ * Collects the state sections changed since the last save, and the entities changed in them.
+ * Services mark what they mutate as they mutate it; the persistence path drains the changes
+ * when it writes and restores them if the write fails.
+ */
+public class DirtyTracker {
+    private StateChanges changes = new StateChanges();
+
+    /**
+     * Marks a whole section, for changes not tied to particular entities.
+     */
+    public synchronized void mark(StateSection section) {
+        changes.add(section);
+    }
+
+    /**
+     * Marks one entity of a section: a user id for USERS and CARTS, a product id for PRODUCTS.
+     */
+    public synchronized void mark(StateSection section, String id) {
+        changes.add(section, id);
+    }
+
+    public synchronized void mark(StateSection section, Collection<String> ids) {
+        for (String id : ids)
+            changes.add(section, id);
+    }
+
+    /**
+     * @return The changes since the previous drain; the tracker is left clean.
+     */
+    public synchronized StateChanges drain() {
+        StateChanges drained = changes;
+        changes = new StateChanges();
+        return drained;
+    }
+
+    /**
+     * Puts back changes whose write did not succeed.
+     */
+    public synchronized void restore(StateChanges failed) {
+        changes.addAll(failed);
+    }
+
+    public synchronized boolean isDirty(StateSection section) {
+        return changes.contains(section);
+    }
+}
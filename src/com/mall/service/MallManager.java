@@ -1,8 +1,11 @@
 package com.mall.service;
 
+import com.mall.model.Product;
+import com.mall.model.User;
 import com.mall.persistence.*;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * The central controller for the Shopping Mall application.
@@ -14,21 +17,62 @@ public class MallManager {
     private AuthenticationService authService;
     private final SaleService saleService;
     private final DataStorageInterface dataHandler;
-    private final String DATA_PATH = "data.json";
+    private final String STORAGE_MODE = System.getProperty("mall.storage", "journal");
+    // Per-section storage keeps its files in a directory instead of a single data file
+    private final String DATA_PATH = System.getProperty("mall.data", defaultDataPath(STORAGE_MODE));
+    private final PersistenceScheduler saveScheduler;
+    private final DirtyTracker dirtyTracker = new DirtyTracker();
+    // Latest captured state not yet handed to the writer, and the last captured state overall;
+    // guarded by this
+    private SystemStateDto pendingState;
+    private SystemStateDto capturedState;
 
     /**
      * Initializes the system, sets up services, and loads initial state from
      * storage.
      */
     public MallManager() {
-        this.productService = new ProductService();
-        this.saleService = new SaleService(this);
-        this.dataHandler = new JsonDataHandler();
+        this.productService = new ProductService(dirtyTracker,
+                Integer.getInteger("mall.queryCache.size", QueryCache.DEFAULT_CAPACITY));
+        this.saleService = new SaleService(this, dirtyTracker);
+        this.dataHandler = createDataHandler();
 
         // Initial setup of authService with empty list in case file doesn't exist
-        this.authService = new AuthenticationService(new ArrayList<>());
+        this.authService = new AuthenticationService(new ArrayList<>(), dirtyTracker);
 
         loadData();
+
+        // Saves are coalesced and written in the background; pending changes are flushed on exit
+        this.saveScheduler = new PersistenceScheduler(this::writeState,
+                Long.getLong("mall.save.intervalMs", 2000),
+                Integer.getInteger("mall.save.dirtyThreshold", 50));
+        Runtime.getRuntime().addShutdownHook(new Thread(saveScheduler::shutdown, "mall-save-on-exit"));
+    }
+
+    /**
+     * Chooses the storage backend. The journaled mode is the default; its snapshot format
+     * follows the data file extension (-Dmall.data=data.bin for binary). Start with
+     * -Dmall.storage=json or -Dmall.storage=binary to rewrite a single file on every save,
+     * or -Dmall.storage=sections to keep one file per section and rewrite only changed ones.
+     * -Dmall.storage=paged keeps a page file (data.db) and writes only the changed records.
+     * -Dmall.load.mapped=true reads JSON data through memory mappings for faster cold starts,
+     * and -Dmall.load.parallelism=N (0 = all cores) parses large files on N threads.
+     * -Dmall.storage.compression=gzip compresses snapshots and sales segments as they are written.
+     * The journal is folded into a new snapshot in the background every
+     * -Dmall.checkpoint.intervalMs (default 60000) or -Dmall.checkpoint.records (default 5000).
+     * With a binary data file, -Dmall.load.lazyDetails=true leaves product descriptions, images
+     * and ratings in the file until first read (-Dmall.details.cacheSize caps how many stay cached).
+     */
+    private DataStorageInterface createDataHandler() {
+        return StorageBackends.create(STORAGE_MODE, DATA_PATH, StorageOptions.fromSystemProperties());
+    }
+
+    private static String defaultDataPath(String mode) {
+        if (mode.equalsIgnoreCase("sections"))
+            return "data";
+        if (mode.equalsIgnoreCase("paged"))
+            return "data.db";
+        return "data.json";
     }
 
     /**
@@ -43,12 +87,21 @@ public class MallManager {
             this.productService.setProducts(state.getProducts());
 
             // Re-initialize the auth service with persistent user data
-            this.authService = new AuthenticationService(state.getUsers());
+            this.authService = new AuthenticationService(state.getUsers(), dirtyTracker);
+
+            // Catalog changes are written through to disk if the backend supports it
+            this.productService.setRecordStore(dataHandler.getRecordStore());
 
-            // Load historical sales
-            this.saleService.setSales(state.getSales());
+            // Load recent sales; older months stay on disk if the backend archives them
+            this.saleService.setSales(state.getSales(), dataHandler.getSalesArchive());
+
+            synchronized (this) {
+                capturedState = null;
+            }
 
             System.out.println("System data loaded successfully.");
+            if (dataHandler.getLastLoadStats() != null)
+                System.out.println(dataHandler.getLastLoadStats());
         } catch (IOException e) {
             System.err.println("Failed to load data. Starting with a fresh state.");
             e.printStackTrace();
@@ -56,21 +109,81 @@ public class MallManager {
     }
 
     /**
-     * Collects data from all services and persists it using the DataHandler.
-     * Called whenever a significant state change occurs (e.g., add product,
-     * checkout).
+     * Marks the system state as changed. Called whenever a significant state change occurs
+     * (e.g., add product, cart update), on the thread that made it; the state is captured
+     * right away, the actual write happens in the background and bursts of calls are
+     * coalesced into a single save.
      */
     public void saveData() {
-        try {
-            SystemStateDto state = new SystemStateDto(
-                    productService.getAllProducts(),
-                    authService.getAllUsers(),
-                    saleService.getAllSales());
+        captureState();
+        saveScheduler.markDirty();
+    }
+
+    /**
+     * Writes all changes made so far and waits until they are stored.
+     * Used where the change must be durable before the user is told it succeeded (checkout).
+     *
+     * @throws IOException If the state could not be written; it stays pending and is retried.
+     */
+    public void saveDataNow() throws IOException {
+        saveData();
+        saveScheduler.flushNow();
+    }
 
+    /**
+     * Takes a point-in-time view of the state for the background writer. The lists hold
+     * frozen copies, so the writer never sees a half-applied change or a list being modified;
+     * copies are only made for sections marked dirty, and there only for entities that
+     * changed (copy-on-write), so this is cheap enough to run after every change.
+     */
+    private synchronized void captureState() {
+        long sequence = SystemStateDto.nextSequence();
+        StateChanges dirty = dirtyTracker.drain();
+        SystemStateDto last = capturedState;
+        List<Product> products = (last != null && !dirty.contains(StateSection.PRODUCTS))
+                ? last.getProducts()
+                : productService.snapshotProducts();
+        List<User> users = (last != null && !dirty.contains(StateSection.USERS) && !dirty.contains(StateSection.CARTS))
+                ? last.getUsers()
+                : authService.snapshotUsers();
+        // Changes since the last write, including captures it has not picked up yet
+        if (pendingState != null)
+            dirty.addAll(pendingState.getChanges());
+        capturedState = new SystemStateDto(products, users, saleService.getResidentSales(), dirty, sequence);
+        pendingState = capturedState;
+    }
+
+    /**
+     * Flushes pending changes and stops the background writer.
+     */
+    public void shutdown() {
+        saveScheduler.shutdown();
+    }
+
+    /**
+     * Persists the latest captured state using the DataHandler.
+     * Runs on the scheduler thread.
+     */
+    private void writeState() throws IOException {
+        SystemStateDto state;
+        synchronized (this) {
+            state = pendingState;
+            pendingState = null;
+        }
+        if (state == null)
+            return;
+
+        try {
             dataHandler.save(DATA_PATH, state);
-        } catch (IOException e) {
-            System.err.println("Critical Error: Failed to save system state.");
-            e.printStackTrace();
+        } catch (IOException | RuntimeException e) {
+            // Changes stay pending so the retry writes them again, with a newer capture if there is one
+            synchronized (this) {
+                if (pendingState == null)
+                    pendingState = state;
+                else
+                    pendingState.getChanges().addAll(state.getChanges());
+            }
+            throw e;
         }
     }
 
@@ -0,0 +1,158 @@
+package com.mall.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind scheduler for persisting the system state.
+ * Callers mark the state dirty after each change; bursts of changes are coalesced into a
+ * single write on a background thread, either once the flush interval has elapsed or as soon
+ * as the dirty-count threshold is reached. Critical flows (checkout) can force a durable flush,
+ * and shutdown() always flushes whatever is still pending.
+ */
+public class PersistenceScheduler {
+
+    /**
+     * Performs the actual write of the current state.
+     */
+    public interface StateWriter {
+        void write() throws IOException;
+    }
+
+    private final StateWriter writer;
+    private final long flushIntervalMillis;
+    private final int dirtyThreshold;
+    private final ScheduledExecutorService executor;
+
+    // Guarded by this: number of changes since the last successful write
+    private int dirtyCount;
+    private boolean flushScheduled;
+    private boolean shutDown;
+
+    /**
+     * @param writer              Callback that writes the state to storage.
+     * @param flushIntervalMillis Maximum time a change may wait before it is written.
+     * @param dirtyThreshold      Number of pending changes that triggers an immediate write.
+     */
+    public PersistenceScheduler(StateWriter writer, long flushIntervalMillis, int dirtyThreshold) {
+        this.writer = writer;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.dirtyThreshold = Math.max(1, dirtyThreshold);
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mall-persistence");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Records that the state has changed. Cheap enough to call on every UI action.
+     */
+    public synchronized void markDirty() {
+        if (shutDown)
+            return;
+        dirtyCount++;
+        if (dirtyCount >= dirtyThreshold) {
+            executor.execute(this::flushIfDirty);
+            flushScheduled = true;
+        } else if (!flushScheduled) {
+            executor.schedule(this::flushIfDirty, flushIntervalMillis, TimeUnit.MILLISECONDS);
+            flushScheduled = true;
+        }
+    }
+
+    /**
+     * Writes any pending changes and waits until they are on disk.
+     * Runs on the scheduler thread so it never overlaps a background write.
+     *
+     * @throws IOException If the write failed; the changes stay pending and are retried later.
+     */
+    public void flushNow() throws IOException {
+        Future<?> done;
+        synchronized (this) {
+            if (executor.isShutdown())
+                return;
+            done = executor.submit(() -> {
+                writePending();
+                return null;
+            });
+        }
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while saving system state");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException("Failed to save system state", e.getCause());
+        }
+    }
+
+    /**
+     * Flushes pending changes and stops the background thread.
+     */
+    public void shutdown() {
+        try {
+            flushNow();
+        } catch (IOException e) {
+            System.err.println("Critical Error: Failed to save system state on exit.");
+            e.printStackTrace();
+        }
+        synchronized (this) {
+            shutDown = true;
+            executor.shutdown();
+        }
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized boolean isDirty() {
+        return dirtyCount > 0;
+    }
+
+    // Runs on the scheduler thread. Failed writes keep the state dirty and are retried later.
+    private void flushIfDirty() {
+        try {
+            writePending();
+        } catch (IOException | RuntimeException e) {
+            // The writer only sees frozen copies, so a RuntimeException is a bug in the backend;
+            // either way the failed changes were queued again by the write itself.
+            System.err.println("Critical Error: Failed to save system state. Will retry.");
+            e.printStackTrace();
+        }
+    }
+
+    // Runs on the scheduler thread. A failed write puts its changes back and schedules a retry.
+    private void writePending() throws IOException {
+        int pending;
+        synchronized (this) {
+            flushScheduled = false;
+            pending = dirtyCount;
+            dirtyCount = 0;
+        }
+        if (pending == 0)
+            return;
+
+        try {
+            writer.write();
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                dirtyCount += pending;
+                if (!flushScheduled && !shutDown) {
+                    executor.schedule(this::flushIfDirty, flushIntervalMillis, TimeUnit.MILLISECONDS);
+                    flushScheduled = true;
+                }
+            }
+            throw e;
+        }
+    }
+}
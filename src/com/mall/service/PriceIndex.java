@@ -0,0 +1,155 @@
+package com.mall.service;
+
+import com.mall.model.Product;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Products ordered by price, for price-sorted listings, price ranges and top-K queries
+ * without sorting the catalog.
+ *
+ * Products with the same price (by compareTo, so 5.0 and 5.00 tie) share a bucket ordered
+ * by the sequence number each product got when it entered the catalog. Ties therefore come
+ * out in catalog order in both directions, as a stable sort of the catalog would give them.
+ * Products without a price are kept aside in catalog order and belong to no range.
+ */
+class PriceIndex {
+    private final TreeMap<BigDecimal, TreeMap<Long, Product>> byPrice = new TreeMap<>();
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long nextSequence;
+    // Products without a price, in catalog order
+    private final TreeMap<Long, Product> unpriced = new TreeMap<>();
+
+    private static final class Entry {
+        final long sequence;
+        BigDecimal price;
+
+        Entry(long sequence, BigDecimal price) {
+            this.sequence = sequence;
+            this.price = price;
+        }
+    }
+
+    /**
+     * Replaces the index contents with the given products, in catalog order.
+     */
+    void rebuild(Iterable<Product> catalog) {
+        byPrice.clear();
+        entries.clear();
+        nextSequence = 0;
+        unpriced.clear();
+        for (Product p : catalog)
+            put(p);
+    }
+
+    /**
+     * Indexes a new product, or moves one already indexed (matched by id) to its current price.
+     */
+    void put(Product p) {
+        BigDecimal price = p.getPrice();
+        Entry e = entries.get(p.getId());
+        if (e == null) {
+            e = new Entry(nextSequence++, price);
+            entries.put(p.getId(), e);
+        } else if (!samePrice(e.price, price)) {
+            detach(e);
+            e.price = price;
+        }
+        if (price != null)
+            byPrice.computeIfAbsent(price, k -> new TreeMap<>()).put(e.sequence, p);
+        else
+            unpriced.put(e.sequence, p);
+    }
+
+    void remove(String id) {
+        Entry e = entries.remove(id);
+        if (e != null)
+            detach(e);
+    }
+
+    private void detach(Entry e) {
+        if (e.price == null) {
+            unpriced.remove(e.sequence);
+            return;
+        }
+        TreeMap<Long, Product> bucket = byPrice.get(e.price);
+        if (bucket == null)
+            return;
+        bucket.remove(e.sequence);
+        if (bucket.isEmpty())
+            byPrice.remove(e.price);
+    }
+
+    private static boolean samePrice(BigDecimal a, BigDecimal b) {
+        return a == null ? b == null : b != null && a.compareTo(b) == 0;
+    }
+
+    /**
+     * @return How many products are priced within [min, max], counting no further than cap.
+     */
+    int count(BigDecimal min, BigDecimal max, int cap) {
+        if (min != null && max != null && min.compareTo(max) > 0)
+            return 0;
+        NavigableMap<BigDecimal, TreeMap<Long, Product>> prices = byPrice;
+        if (min != null)
+            prices = prices.tailMap(min, true);
+        if (max != null)
+            prices = prices.headMap(max, true);
+        int count = 0;
+        for (TreeMap<Long, Product> bucket : prices.values()) {
+            count += bucket.size();
+            if (count > cap)
+                break;
+        }
+        return count;
+    }
+
+    /**
+     * @return Products without a price, which no range includes, in catalog order.
+     */
+    List<Product> unpriced() {
+        return new ArrayList<>(unpriced.values());
+    }
+
+    /**
+     * @return Catalog sequence number of an indexed product; lower numbers entered the catalog first.
+     */
+    long sequence(String id) {
+        Entry e = entries.get(id);
+        return e == null ? Long.MAX_VALUE : e.sequence;
+    }
+
+    /**
+     * Products priced within [min, max], walked from the cheapest or the dearest, stopping
+     * after limit products; costs O(log N + limit).
+     *
+     * @param min   Inclusive lower bound, or null for none.
+     * @param max   Inclusive upper bound, or null for none.
+     * @param limit Maximum number of products returned; negative for no limit.
+     */
+    List<Product> range(BigDecimal min, BigDecimal max, boolean ascending, int limit) {
+        List<Product> result = new ArrayList<>(limit >= 0 ? Math.min(limit, 1024) : 16);
+        if (limit == 0 || (min != null && max != null && min.compareTo(max) > 0))
+            return result;
+        NavigableMap<BigDecimal, TreeMap<Long, Product>> prices = byPrice;
+        if (min != null)
+            prices = prices.tailMap(min, true);
+        if (max != null)
+            prices = prices.headMap(max, true);
+        if (!ascending)
+            prices = prices.descendingMap();
+        for (TreeMap<Long, Product> bucket : prices.values()) {
+            for (Product p : bucket.values()) {
+                result.add(p);
+                if (result.size() == limit)
+                    return result;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,48 @@
+package com.mall.service;
+
+import com.mall.model.Product;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One page of the results of a ProductQuery.
+ */
+public class ProductPage {
+    private final List<Product> items;
+    private final int total;
+    private final int offset;
+    private final Map<String, Integer> categoryCounts;
+
+    ProductPage(List<Product> items, int total, int offset, Map<String, Integer> categoryCounts) {
+        this.items = Collections.unmodifiableList(items);
+        this.total = total;
+        this.offset = offset;
+        this.categoryCounts = Collections.unmodifiableMap(categoryCounts);
+    }
+
+    public List<Product> getItems() {
+        return items;
+    }
+
+    // Matches on all pages
+    public int getTotal() {
+        return total;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public boolean hasMore() {
+        return offset + items.size() < total;
+    }
+
+    /**
+     * @return Matches per category with every other filter applied, sorted by name ignoring
+     *         case; empty if the query did not ask for facets.
+     */
+    public Map<String, Integer> getCategoryCounts() {
+        return categoryCounts;
+    }
+}
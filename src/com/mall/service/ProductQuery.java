@@ -0,0 +1,194 @@
+package com.mall.service;
+
+import java.math.BigDecimal;
+import java.util.Objects;
+
+/**
+ * Criteria for ProductService.query(): every set filter must match, then results are sorted
+ * and one page of them is returned. Instances are immutable; each with-method returns a copy.
+ */
+public class ProductQuery {
+    public enum Sort {
+        // Order in which products entered the catalog
+        CATALOG,
+        PRICE_ASCENDING,
+        PRICE_DESCENDING,
+        // Highest average rating first
+        RATING,
+        // Name ignoring case
+        NAME
+    }
+
+    public static final ProductQuery ALL = new ProductQuery();
+
+    private String text;
+    private String category;
+    private BigDecimal minPrice;
+    private BigDecimal maxPrice;
+    private boolean inStockOnly;
+    private double minRating;
+    private Sort sort = Sort.CATALOG;
+    private int offset;
+    private int limit = -1;
+    private boolean facets = true;
+
+    private ProductQuery() {
+    }
+
+    private ProductQuery copy() {
+        ProductQuery q = new ProductQuery();
+        q.text = text;
+        q.category = category;
+        q.minPrice = minPrice;
+        q.maxPrice = maxPrice;
+        q.inStockOnly = inStockOnly;
+        q.minRating = minRating;
+        q.sort = sort;
+        q.offset = offset;
+        q.limit = limit;
+        q.facets = facets;
+        return q;
+    }
+
+    /**
+     * @param text Case-insensitive substring of the name; blank matches everything.
+     */
+    public ProductQuery withText(String text) {
+        ProductQuery q = copy();
+        q.text = (text == null || text.isBlank()) ? null : text;
+        return q;
+    }
+
+    /**
+     * @param category Category ignoring case; null, blank or "All" matches everything.
+     */
+    public ProductQuery withCategory(String category) {
+        ProductQuery q = copy();
+        q.category = (category == null || category.isBlank() || category.equalsIgnoreCase("All")) ? null : category;
+        return q;
+    }
+
+    /**
+     * @param min Inclusive lower bound, or null for none.
+     * @param max Inclusive upper bound, or null for none.
+     */
+    public ProductQuery withPriceRange(BigDecimal min, BigDecimal max) {
+        ProductQuery q = copy();
+        q.minPrice = min;
+        q.maxPrice = max;
+        return q;
+    }
+
+    public ProductQuery withInStockOnly(boolean inStockOnly) {
+        ProductQuery q = copy();
+        q.inStockOnly = inStockOnly;
+        return q;
+    }
+
+    /**
+     * @param minRating Lowest average rating to include; 0 includes unrated products.
+     */
+    public ProductQuery withMinRating(double minRating) {
+        ProductQuery q = copy();
+        q.minRating = minRating;
+        return q;
+    }
+
+    public ProductQuery withSort(Sort sort) {
+        ProductQuery q = copy();
+        q.sort = sort == null ? Sort.CATALOG : sort;
+        return q;
+    }
+
+    /**
+     * @param offset Matches to skip.
+     * @param limit  Matches to return; negative for all.
+     */
+    public ProductQuery withPage(int offset, int limit) {
+        ProductQuery q = copy();
+        q.offset = Math.max(0, offset);
+        q.limit = limit;
+        return q;
+    }
+
+    /**
+     * @param facets Whether to count matches per category; counting may need more work than
+     *               the page itself when a category is selected.
+     */
+    public ProductQuery withFacets(boolean facets) {
+        ProductQuery q = copy();
+        q.facets = facets;
+        return q;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public BigDecimal getMinPrice() {
+        return minPrice;
+    }
+
+    public BigDecimal getMaxPrice() {
+        return maxPrice;
+    }
+
+    public boolean isInStockOnly() {
+        return inStockOnly;
+    }
+
+    public double getMinRating() {
+        return minRating;
+    }
+
+    public Sort getSort() {
+        return sort;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean isFacets() {
+        return facets;
+    }
+
+    /**
+     * The same query with case folded and prices stripped of trailing zeros, so queries with
+     * the same results are equal.
+     */
+    ProductQuery normalized() {
+        ProductQuery q = copy();
+        q.text = text == null ? null : text.toLowerCase();
+        q.category = category == null ? null : category.toLowerCase();
+        q.minPrice = minPrice == null ? null : minPrice.stripTrailingZeros();
+        q.maxPrice = maxPrice == null ? null : maxPrice.stripTrailingZeros();
+        return q;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof ProductQuery))
+            return false;
+        ProductQuery q = (ProductQuery) o;
+        return inStockOnly == q.inStockOnly && Double.compare(minRating, q.minRating) == 0
+                && offset == q.offset && limit == q.limit && facets == q.facets && sort == q.sort
+                && Objects.equals(text, q.text) && Objects.equals(category, q.category)
+                && Objects.equals(minPrice, q.minPrice) && Objects.equals(maxPrice, q.maxPrice);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(text, category, minPrice, maxPrice, inStockOnly, minRating, sort, offset, limit, facets);
+    }
+}
@@ -0,0 +1,211 @@
+package com.mall.service;
+
+import com.mall.model.Product;
+import com.mall.model.StringDictionary;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * Runs a ProductQuery against the catalog indexes of ProductService.
+ *
+ * The index expected to yield the fewest candidates drives the query (name trigrams,
+ * category, price range, or the whole catalog); the remaining filters are checked on those
+ * candidates only. Category facets are counted while filtering, over the matches of every
+ * filter but the category, or come straight from the category index when there is no other
+ * filter. Sorting keeps only the requested page's worth of results in a bounded heap, and a
+ * price sort driven by the price index needs no sorting at all.
+ */
+class ProductQueryEngine {
+    // Category code that no product has, for a category nobody ever used
+    private static final int UNKNOWN_CATEGORY = Integer.MIN_VALUE;
+
+    private enum Source { CATALOG, NAME, CATEGORY, PRICE }
+
+    private final TrigramIndex names;
+    private final CategoryIndex categories;
+    private final PriceIndex prices;
+    private final Supplier<Collection<Product>> catalog;
+
+    ProductQueryEngine(TrigramIndex names, CategoryIndex categories, PriceIndex prices,
+            Supplier<Collection<Product>> catalog) {
+        this.names = names;
+        this.categories = categories;
+        this.prices = prices;
+        this.catalog = catalog;
+    }
+
+    ProductPage run(ProductQuery q) {
+        String text = q.getText() == null ? null : q.getText().toLowerCase();
+        int code = 0;
+        if (q.getCategory() != null) {
+            code = StringDictionary.shared().findFolded(q.getCategory());
+            if (code < 0)
+                code = UNKNOWN_CATEGORY;
+        }
+        boolean priceBounded = q.getMinPrice() != null || q.getMaxPrice() != null;
+        boolean otherFilters = text != null || priceBounded || q.isInStockOnly() || q.getMinRating() > 0;
+        // Facets ignore the category filter, so with other filters the category index cannot drive
+        boolean facetsWhileFiltering = q.isFacets() && otherFilters;
+        boolean priceSort = q.getSort() == ProductQuery.Sort.PRICE_ASCENDING
+                || q.getSort() == ProductQuery.Sort.PRICE_DESCENDING;
+
+        Source source = chooseSource(q, text, code, !facetsWhileFiltering);
+        List<Product> candidates;
+        switch (source) {
+            case NAME:
+                candidates = names.search(q.getText());
+                break;
+            case CATEGORY:
+                candidates = categories.products(code);
+                break;
+            case PRICE:
+                candidates = prices.range(q.getMinPrice(), q.getMaxPrice(),
+                        q.getSort() != ProductQuery.Sort.PRICE_DESCENDING, -1);
+                // Without bounds the unpriced products match too, and sort last either way
+                if (!priceBounded)
+                    candidates.addAll(prices.unpriced());
+                break;
+            default:
+                candidates = new ArrayList<>(catalog.get());
+        }
+
+        List<Product> matches = new ArrayList<>();
+        Map<Integer, Integer> facetCodes = facetsWhileFiltering ? new HashMap<>() : null;
+        for (Product p : candidates) {
+            if (text != null && source != Source.NAME && !nameContains(p, text))
+                continue;
+            if (priceBounded && source != Source.PRICE && !inRange(p.getPrice(), q.getMinPrice(), q.getMaxPrice()))
+                continue;
+            if (q.isInStockOnly() && p.getStockQty() <= 0)
+                continue;
+            if (q.getMinRating() > 0 && p.getAverageRating() < q.getMinRating())
+                continue;
+            if (facetCodes != null)
+                facetCodes.merge(p.getCategoryCode(), 1, Integer::sum);
+            if (q.getCategory() != null && source != Source.CATEGORY && p.getCategoryCode() != code)
+                continue;
+            matches.add(p);
+        }
+
+        // Everything but the price index yields catalog order
+        if (source == Source.PRICE && !priceSort)
+            matches.sort(Comparator.comparingLong(p -> prices.sequence(p.getId())));
+        Comparator<Product> order = order(q.getSort());
+        int end = q.getLimit() < 0 ? matches.size() : (int) Math.min(matches.size(), (long) q.getOffset() + q.getLimit());
+        List<Product> sorted = (order == null || (priceSort && source == Source.PRICE))
+                ? matches
+                : firstInOrder(matches, order, end);
+        List<Product> page = q.getOffset() >= end
+                ? new ArrayList<>()
+                : new ArrayList<>(sorted.subList(q.getOffset(), end));
+
+        Map<String, Integer> facets;
+        if (!q.isFacets())
+            facets = new TreeMap<>();
+        else if (facetCodes == null)
+            facets = categories.counts();
+        else
+            facets = facetNames(facetCodes);
+        return new ProductPage(page, matches.size(), q.getOffset(), facets);
+    }
+
+    private Source chooseSource(ProductQuery q, String text, int code, boolean categoryAllowed) {
+        Collection<Product> all = catalog.get();
+        // The name index also answers short queries by scanning its cached lower-cased names
+        Source best = text != null ? Source.NAME : Source.CATALOG;
+        int bestSize = text != null ? names.estimate(text) : all.size();
+        if (q.getCategory() != null && categoryAllowed) {
+            int size = categories.size(code);
+            if (size < bestSize) {
+                best = Source.CATEGORY;
+                bestSize = size;
+            }
+        }
+        boolean priceBounded = q.getMinPrice() != null || q.getMaxPrice() != null;
+        if (priceBounded) {
+            int size = prices.count(q.getMinPrice(), q.getMaxPrice(), bestSize);
+            if (size < bestSize)
+                best = Source.PRICE;
+        } else if (best == Source.CATALOG && (q.getSort() == ProductQuery.Sort.PRICE_ASCENDING
+                || q.getSort() == ProductQuery.Sort.PRICE_DESCENDING)) {
+            // Walking the whole price index yields the catalog already sorted
+            best = Source.PRICE;
+        }
+        return best;
+    }
+
+    private static boolean nameContains(Product p, String lowerText) {
+        return p.getName() != null && p.getName().toLowerCase().contains(lowerText);
+    }
+
+    private static boolean inRange(BigDecimal price, BigDecimal min, BigDecimal max) {
+        return price != null
+                && (min == null || price.compareTo(min) >= 0)
+                && (max == null || price.compareTo(max) <= 0);
+    }
+
+    // Ties keep the order of the matches, which is catalog order; null for catalog order itself
+    private static Comparator<Product> order(ProductQuery.Sort sort) {
+        switch (sort) {
+            case PRICE_ASCENDING:
+                return Comparator.comparing(Product::getPrice, Comparator.nullsLast(Comparator.naturalOrder()));
+            case PRICE_DESCENDING:
+                return Comparator.comparing(Product::getPrice, Comparator.nullsLast(Comparator.<BigDecimal>reverseOrder()));
+            case RATING:
+                return Comparator.comparingDouble(Product::getAverageRating).reversed();
+            case NAME:
+                return Comparator.comparing(Product::getName, Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * The first count items in the given order, ties in list order. Small pages keep a heap of
+     * count items instead of sorting everything.
+     */
+    static List<Product> firstInOrder(List<Product> items, Comparator<Product> order, int count) {
+        if (count >= items.size() / 4) {
+            List<Product> sorted = new ArrayList<>(items);
+            sorted.sort(order);
+            return sorted;
+        }
+        if (count == 0)
+            return new ArrayList<>();
+        // Positions, worst on top, so the heap can drop the worst when it is full
+        Comparator<Integer> byOrder = (a, b) -> {
+            int c = order.compare(items.get(a), items.get(b));
+            return c != 0 ? c : Integer.compare(a, b);
+        };
+        PriorityQueue<Integer> heap = new PriorityQueue<>(count + 1, byOrder.reversed());
+        for (int i = 0; i < items.size(); i++) {
+            heap.add(i);
+            if (heap.size() > count)
+                heap.poll();
+        }
+        List<Integer> best = new ArrayList<>(heap);
+        best.sort(byOrder);
+        List<Product> result = new ArrayList<>(best.size());
+        for (int i : best)
+            result.add(items.get(i));
+        return result;
+    }
+
+    private Map<String, Integer> facetNames(Map<Integer, Integer> counts) {
+        Map<String, Integer> named = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<Integer, Integer> e : counts.entrySet()) {
+            String name = e.getKey() < 0 ? null : categories.name(e.getKey());
+            if (name != null && !name.isEmpty())
+                named.merge(name, e.getValue(), Integer::sum);
+        }
+        return named;
+    }
+}
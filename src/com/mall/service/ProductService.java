@@ -1,14 +1,23 @@
 package com.mall.service;
 
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
 
+import com.mall.model.Customer;
 import com.mall.model.Product;
+import com.mall.model.StringDictionary;
+import com.mall.persistence.RecordStore;
+import com.mall.persistence.StateSection;
 
 /**
  * Manages the collection of products available in the mall.
@@ -21,6 +30,33 @@ public class ProductService {
      * LinkedHashMap maintains order for consistent UI display.
      */
     private final Map<String, Product> products = new LinkedHashMap<>();
+    // Name search, category and price indexes over the same products, kept in step by every change below
+    private final TrigramIndex nameIndex = new TrigramIndex();
+    private final CategoryIndex categoryIndex = new CategoryIndex();
+    private final PriceIndex priceIndex = new PriceIndex();
+    private final ProductQueryEngine queryEngine =
+            new ProductQueryEngine(nameIndex, categoryIndex, priceIndex, products::values);
+    // Recent query pages, made stale by every change below
+    private final QueryCache queryCache;
+    private final DirtyTracker dirtyTracker;
+    // Backend records for write-through, or null when changes are only written by the next save
+    private RecordStore recordStore;
+
+    /**
+     * @param dirtyTracker Receives the PRODUCTS section whenever the catalog changes.
+     */
+    public ProductService(DirtyTracker dirtyTracker) {
+        this(dirtyTracker, QueryCache.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param dirtyTracker   Receives the PRODUCTS section whenever the catalog changes.
+     * @param queryCacheSize Query result pages to keep; 0 disables the cache.
+     */
+    public ProductService(DirtyTracker dirtyTracker, int queryCacheSize) {
+        this.dirtyTracker = dirtyTracker;
+        this.queryCache = new QueryCache(queryCacheSize);
+    }
 
     /**
      * Initializes the catalog with products loaded from persistence.
@@ -34,12 +70,38 @@ public class ProductService {
                 products.put(p.getId(), p);
             }
         }
+        nameIndex.rebuild(products.values());
+        categoryIndex.rebuild(products.values());
+        priceIndex.rebuild(products.values());
+        queryCache.clear();
+    }
+
+    /**
+     * Makes catalog changes write through to the storage backend right away. The whole
+     * catalog stays in memory all the same: the name, category and price indexes need every
+     * product.
+     *
+     * @param recordStore Point access to stored products, or null.
+     */
+    public void setRecordStore(RecordStore recordStore) {
+        this.recordStore = recordStore;
     }
 
     public List<Product> getAllProducts() {
         return new ArrayList<>(products.values());
     }
 
+    /**
+     * @return Frozen copies of all products, for writing in the background. Only products
+     *         changed since the last call are copied again.
+     */
+    public List<Product> snapshotProducts() {
+        List<Product> copies = new ArrayList<>(products.size());
+        for (Product p : products.values())
+            copies.add(p.freeze());
+        return copies;
+    }
+
     /**
      * Adds a new product to the system.
      */
@@ -47,9 +109,33 @@ public class ProductService {
         if (p == null || p.getId() == null || products.containsKey(p.getId()))
             return false;
         products.put(p.getId(), p);
+        index(p);
+        queryCache.changed(p.getCategoryCode());
+        dirtyTracker.mark(StateSection.PRODUCTS, p.getId());
+        writeThrough(p);
         return true;
     }
 
+    /**
+     * Adds a batch of products (e.g. from an import), skipping ids already in the catalog.
+     *
+     * @return The number of products added.
+     */
+    public int addProducts(List<Product> batch) {
+        List<Product> added = new ArrayList<>();
+        for (Product p : batch) {
+            if (p == null || p.getId() == null || products.containsKey(p.getId()))
+                continue;
+            products.put(p.getId(), p);
+            index(p);
+            queryCache.changed(p.getCategoryCode());
+            dirtyTracker.mark(StateSection.PRODUCTS, p.getId());
+            added.add(p);
+        }
+        writeThrough(added);
+        return added.size();
+    }
+
     public Optional<Product> getProductById(String id) {
         return Optional.ofNullable(products.get(id));
     }
@@ -62,47 +148,188 @@ public class ProductService {
         if (updated == null || updated.getId() == null || !products.containsKey(updated.getId()))
             return false;
         products.put(updated.getId(), updated);
+        // Name, category and price may have been changed on the product itself before this call,
+        // so the category it was indexed under is the one it may have left
+        queryCache.changed(categoryIndex.codeOf(updated.getId()));
+        index(updated);
+        queryCache.changed(updated.getCategoryCode());
+        dirtyTracker.mark(StateSection.PRODUCTS, updated.getId());
+        writeThrough(updated);
         return true;
     }
 
     public boolean removeProduct(String id) {
-        return products.remove(id) != null;
+        boolean removed = products.remove(id) != null;
+        if (removed) {
+            queryCache.changed(categoryIndex.codeOf(id));
+            nameIndex.remove(id);
+            categoryIndex.remove(id);
+            priceIndex.remove(id);
+            dirtyTracker.mark(StateSection.PRODUCTS, id);
+            if (recordStore != null) {
+                try {
+                    recordStore.deleteProduct(id);
+                } catch (IOException e) {
+                    System.err.println("Failed to delete product " + id + " from storage.");
+                    e.printStackTrace();
+                }
+            }
+        }
+        return removed;
     }
 
     /**
-     * Searches for products containing the query string (case-insensitive).
+     * Records a customer's rating for a product (one rating per customer).
+     */
+    public void rateProduct(Product product, Customer customer, int rating) {
+        product.addOrUpdateRating(customer, rating);
+        queryCache.changed(product.getCategoryCode());
+        dirtyTracker.mark(StateSection.PRODUCTS, product.getId());
+        writeThrough(product);
+    }
+
+    /**
+     * Tells the service that the stock of these products was changed on the products
+     * themselves (e.g. by a checkout), so in-stock results are recomputed and the new stock
+     * is written through; with a record store, saves no longer write products themselves.
+     */
+    public void stockChanged(Collection<Product> changed) {
+        for (Product p : changed)
+            queryCache.changed(p.getCategoryCode());
+        writeThrough(changed);
+    }
+
+    private void index(Product p) {
+        nameIndex.put(p);
+        categoryIndex.put(p);
+        priceIndex.put(p);
+    }
+
+    // The store remembers a failed write and the next save retries it
+    private void writeThrough(Product p) {
+        writeThrough(Collections.singletonList(p));
+    }
+
+    private void writeThrough(Collection<Product> changed) {
+        if (recordStore == null || changed.isEmpty())
+            return;
+        try {
+            recordStore.writeProducts(changed);
+        } catch (IOException e) {
+            System.err.println("Failed to write " + changed.size() + " product(s) to storage.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Searches for products containing the query string (case-insensitive), in catalog order.
+     * Answered from a trigram index rather than a scan of the catalog.
      */
     public List<Product> searchByName(String q) {
         if (q == null || q.isBlank())
             return getAllProducts();
-        String s = q.toLowerCase();
-        return products.values().stream()
-                .filter(p -> p.getName().toLowerCase().contains(s))
-                .collect(Collectors.toList());
+        return nameIndex.search(q);
     }
 
     /**
-     * Filters products by their category.
+     * Filters products by their category (case-insensitive), in catalog order.
      */
     public List<Product> filterByCategory(String category) {
         if (category == null || category.isBlank() || category.equalsIgnoreCase("All"))
             return getAllProducts();
-        String c = category.toLowerCase();
-        return products.values().stream()
-                .filter(p -> p.getCategory() != null && p.getCategory().toLowerCase().equals(c))
-                .collect(Collectors.toList());
+        // A category no product was ever given has no code and matches nothing
+        int code = StringDictionary.shared().findFolded(category);
+        if (code < 0)
+            return new ArrayList<>();
+        return categoryIndex.products(code);
+    }
+
+    /**
+     * @return Number of products in each category, sorted by name ignoring case. Categories
+     *         differing only in case are counted together.
+     */
+    public Map<String, Integer> getCategoryCounts() {
+        return categoryIndex.counts();
+    }
+
+    /**
+     * Runs a combined search: text, category, price range, stock and rating filters, sorted
+     * and cut to one page. The most selective index picks the candidates, so a narrow query
+     * costs about as much as its results.
+     *
+     * @return The requested page, the total number of matches, and matches per category.
+     */
+    public ProductPage query(ProductQuery q) {
+        ProductQuery key = (q == null ? ProductQuery.ALL : q).normalized();
+        int scope = cacheScope(key);
+        ProductPage page = queryCache.get(key, scope);
+        if (page == null) {
+            page = queryEngine.run(key);
+            queryCache.put(key, scope, page);
+        }
+        return page;
+    }
+
+    // A page of one known category without facets depends on that category alone
+    private static int cacheScope(ProductQuery q) {
+        if (q.getCategory() == null || q.isFacets())
+            return -1;
+        return StringDictionary.shared().findFolded(q.getCategory());
+    }
+
+    /**
+     * @return Hits, misses, evictions and invalidations of the query cache.
+     */
+    public QueryCacheStats getQueryCacheStats() {
+        return queryCache.stats();
     }
 
     /**
      * Sorts products by price.
      * Higher-level functionality that earns extra design points.
+     * Read from the price index; products with the same price stay in catalog order.
      */
     public List<Product> sortByPrice(boolean ascending) {
-        Comparator<Product> cmp = Comparator.comparing(Product::getPrice);
-        if (!ascending)
-            cmp = cmp.reversed();
-        return products.values().stream()
-                .sorted(cmp)
-                .collect(Collectors.toList());
+        return priceIndex.range(null, null, ascending, -1);
+    }
+
+    /**
+     * Sorts some of the catalog's products (e.g. search results) by price, ties in catalog
+     * order. A large share of the catalog is picked out of the price index in order; a small
+     * one is cheaper to sort.
+     */
+    public List<Product> sortByPrice(List<Product> subset, boolean ascending) {
+        if (subset.size() * 4L < products.size()) {
+            List<Product> sorted = new ArrayList<>(subset);
+            Comparator<Product> cmp = Comparator.comparing(Product::getPrice);
+            sorted.sort(ascending ? cmp : cmp.reversed());
+            return sorted;
+        }
+        Set<Product> wanted = Collections.newSetFromMap(new IdentityHashMap<>(subset.size() * 2));
+        wanted.addAll(subset);
+        List<Product> sorted = new ArrayList<>(subset.size());
+        for (Product p : priceIndex.range(null, null, ascending, -1)) {
+            if (wanted.contains(p))
+                sorted.add(p);
+        }
+        return sorted;
+    }
+
+    /**
+     * The limit cheapest (or dearest) products, without sorting the catalog.
+     */
+    public List<Product> sortByPrice(boolean ascending, int limit) {
+        return priceIndex.range(null, null, ascending, Math.max(0, limit));
+    }
+
+    /**
+     * Products priced between min and max, both inclusive, in price order.
+     *
+     * @param min   Lower bound, or null for none.
+     * @param max   Upper bound, or null for none.
+     * @param limit Maximum number of products returned; negative for no limit.
+     */
+    public List<Product> findByPriceRange(BigDecimal min, BigDecimal max, boolean ascending, int limit) {
+        return priceIndex.range(min, max, ascending, limit);
     }
 }
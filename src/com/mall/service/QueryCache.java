@@ -0,0 +1,106 @@
+package com.mall.service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recently used query results, kept until the products they depend on change.
+ *
+ * The catalog has a version, bumped by every change, and each category an epoch, bumped by
+ * changes to its products (a product moving between categories bumps both). A page listing
+ * only one known category, without facets, is stamped with that category's epoch and
+ * survives changes elsewhere in the catalog; any other page is stamped with the catalog
+ * version. Stale pages are dropped when next looked up rather than searched for on every
+ * change, so a change costs O(1).
+ */
+class QueryCache {
+    static final int DEFAULT_CAPACITY = 256;
+
+    private final int capacity;
+    private final Map<ProductQuery, Cached> pages;
+    private final Map<Integer, Long> categoryEpochs = new HashMap<>();
+    private long catalogVersion;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    private static final class Cached {
+        final ProductPage page;
+        // Category code the stamp is an epoch of, or -1 for the catalog version
+        final int code;
+        final long stamp;
+
+        Cached(ProductPage page, int code, long stamp) {
+            this.page = page;
+            this.code = code;
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * @param capacity Pages kept at most; 0 disables caching.
+     */
+    QueryCache(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.pages = new LinkedHashMap<ProductQuery, Cached>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ProductQuery, Cached> eldest) {
+                if (size() <= QueryCache.this.capacity)
+                    return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param key  A normalized query.
+     * @param code Category code the query is limited to, or -1 if it depends on the whole catalog.
+     * @return The cached page, or null if there is none or it is stale.
+     */
+    ProductPage get(ProductQuery key, int code) {
+        Cached cached = pages.get(key);
+        if (cached != null && cached.code == code && cached.stamp == stamp(code)) {
+            hits++;
+            return cached.page;
+        }
+        if (cached != null) {
+            pages.remove(key);
+            invalidations++;
+        }
+        misses++;
+        return null;
+    }
+
+    void put(ProductQuery key, int code, ProductPage page) {
+        if (capacity > 0)
+            pages.put(key, new Cached(page, code, stamp(code)));
+    }
+
+    private long stamp(int code) {
+        return code < 0 ? catalogVersion : categoryEpochs.getOrDefault(code, 0L);
+    }
+
+    /**
+     * Records a change to products of the category with this code (negative for none),
+     * making stale every page that may have included them.
+     */
+    void changed(int code) {
+        catalogVersion++;
+        if (code >= 0)
+            categoryEpochs.merge(code, 1L, Long::sum);
+    }
+
+    // After the whole catalog is replaced; counters are kept
+    void clear() {
+        catalogVersion++;
+        categoryEpochs.clear();
+        pages.clear();
+    }
+
+    QueryCacheStats stats() {
+        return new QueryCacheStats(hits, misses, evictions, invalidations, pages.size(), capacity);
+    }
+}
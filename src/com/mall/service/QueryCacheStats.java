@@ -0,0 +1,60 @@
+package com.mall.service;
+
+/**
+ * Counters of the product query cache since the product service was created.
+ */
+public class QueryCacheStats {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long invalidations;
+    private final int size;
+    private final int capacity;
+
+    QueryCacheStats(long hits, long misses, long evictions, long invalidations, int size, int capacity) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.invalidations = invalidations;
+        this.size = size;
+        this.capacity = capacity;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    // Queries run against the indexes, including those whose cached page had gone stale
+    public long getMisses() {
+        return misses;
+    }
+
+    // Pages dropped to make room, least recently used first
+    public long getEvictions() {
+        return evictions;
+    }
+
+    // Cached pages found stale because the catalog changed after they were computed
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Query cache: %d hits, %d misses (%.1f%% hit rate), %d evictions, %d invalidations, %d/%d pages",
+                hits, misses, getHitRate() * 100, evictions, invalidations, size, capacity);
+    }
+}
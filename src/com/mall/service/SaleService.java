@@ -1,36 +1,107 @@
 package com.mall.service;
 
 import com.mall.model.SaleRecord;
+import com.mall.persistence.SalesArchive;
+import com.mall.persistence.StateSection;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.TreeSet;
 
 /**
  * Manages transaction history and revenue reporting.
  * Allows Administrators to monitor sales.
+ *
+ * Recent sales are kept in memory in a column store (see SalesColumns); when the storage
+ * backend archives closed months, those are read from disk only for the date ranges a query
+ * asks for and are not retained.
  */
 public class SaleService {
-    private List<SaleRecord> sales = new ArrayList<>();
+    private SalesColumns sales = new SalesColumns();
+    private SalesArchive archive;
     private final MallManager manager;
+    private final DirtyTracker dirtyTracker;
 
     /**
-     * @param manager The central controller used to trigger data persistence.
+     * @param manager      The central controller used to trigger data persistence.
+     * @param dirtyTracker Receives the SALES section whenever the history changes.
      */
-    public SaleService(MallManager manager) {
+    public SaleService(MallManager manager, DirtyTracker dirtyTracker) {
         this.manager = manager;
+        this.dirtyTracker = dirtyTracker;
     }
 
     public void setSales(List<SaleRecord> loadedSales) {
+        setSales(loadedSales, null);
+    }
+
+    /**
+     * @param loadedSales Sales loaded into memory.
+     * @param archive     Older months left on disk by the storage backend, or null.
+     */
+    public void setSales(List<SaleRecord> loadedSales, SalesArchive archive) {
         if (loadedSales != null) {
-            this.sales = new ArrayList<>(loadedSales);
+            SalesColumns columns = new SalesColumns();
+            columns.addAll(loadedSales);
+            this.sales = columns;
         }
+        this.archive = archive;
     }
 
     /**
-     * @return A copy of all sales records for administrative review.
+     * @return A copy of all sales records for administrative review, including archived months.
      */
     public List<SaleRecord> getAllSales() {
-        return new ArrayList<>(sales);
+        return getSales(null, null);
+    }
+
+    /**
+     * @return The sales held in memory; archived months are not included. The list is a
+     *         read-only snapshot that creates each record as it is read.
+     */
+    public List<SaleRecord> getResidentSales() {
+        return sales.snapshot();
+    }
+
+    /**
+     * Sales made in [from, to). Archived months overlapping the range are paged in.
+     *
+     * @param from Inclusive start, or null for no lower bound.
+     * @param to   Exclusive end, or null for no upper bound.
+     */
+    public List<SaleRecord> getSales(LocalDateTime from, LocalDateTime to) {
+        List<SaleRecord> result = new ArrayList<>();
+        if (archive != null) {
+            for (YearMonth month : archive.getMonths()) {
+                if (!overlaps(month, from, to))
+                    continue;
+                try {
+                    for (SaleRecord s : archive.loadMonth(month)) {
+                        if (inRange(s, from, to))
+                            result.add(s);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Failed to read archived sales for " + month + ".");
+                    e.printStackTrace();
+                }
+            }
+        }
+        result.addAll(sales.snapshot().select(lowerBound(from), upperBound(to)));
+        return result;
+    }
+
+    /**
+     * @return Every month that has sales, newest first.
+     */
+    public List<YearMonth> getSalesMonths() {
+        TreeSet<YearMonth> months = new TreeSet<>();
+        if (archive != null)
+            months.addAll(archive.getMonths());
+        months.addAll(sales.snapshot().months());
+        return new ArrayList<>(months.descendingSet());
     }
 
     /**
@@ -39,26 +110,117 @@ public class SaleService {
     public void addSale(SaleRecord record) {
         if (record != null) {
             this.sales.add(record);
+            dirtyTracker.mark(StateSection.SALES);
             manager.saveData();
         }
     }
 
     /**
-     * Removes a specific transaction record.
+     * Records a batch of past transactions (e.g. from an import). Sales of months the storage
+     * backend archives are written to the archive right away and never held in memory; the
+     * rest are added in memory and, unlike addSale(), not saved: the caller persists once the
+     * whole batch set is in.
+     */
+    public void addSales(List<SaleRecord> batch) throws IOException {
+        List<SaleRecord> resident = new ArrayList<>(batch.size());
+        List<SaleRecord> archived = new ArrayList<>();
+        for (SaleRecord s : batch) {
+            if (archive != null && archive.holds(YearMonth.from(s.getDate())))
+                archived.add(s);
+            else
+                resident.add(s);
+        }
+        if (!archived.isEmpty())
+            archive.addSales(archived);
+        if (!resident.isEmpty()) {
+            sales.addAll(resident);
+            dirtyTracker.mark(StateSection.SALES);
+        }
+    }
+
+    /**
+     * Removes a specific transaction record, wherever it is stored.
      */
     public void deleteRecord(String transactionId) {
-        boolean removed = sales.removeIf(s -> s.getTransactionId().equals(transactionId));
+        boolean removed = sales.removeTransaction(transactionId);
         if (removed) {
+            dirtyTracker.mark(StateSection.SALES);
             manager.saveData();
         }
+        if (archive != null) {
+            try {
+                archive.removeTransaction(transactionId);
+            } catch (IOException e) {
+                System.err.println("Failed to delete archived transaction " + transactionId + ".");
+                e.printStackTrace();
+            }
+        }
     }
 
     /**
      * Calculates total revenue from all completed sales.
      */
     public BigDecimal getTotalRevenue() {
-        return sales.stream()
-                .map(SaleRecord::getAmountPaid)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        return getRevenue(null, null);
+    }
+
+    /**
+     * Revenue of the sales made in [from, to). Whole archived months use their cached totals.
+     */
+    public BigDecimal getRevenue(LocalDateTime from, LocalDateTime to) {
+        BigDecimal total = BigDecimal.ZERO;
+        if (archive != null) {
+            for (YearMonth month : archive.getMonths()) {
+                if (!overlaps(month, from, to))
+                    continue;
+                try {
+                    if (covers(month, from, to)) {
+                        total = total.add(archive.getRevenue(month));
+                    } else {
+                        for (SaleRecord s : archive.loadMonth(month)) {
+                            if (inRange(s, from, to))
+                                total = total.add(s.getAmountPaid());
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("Failed to read archived sales for " + month + ".");
+                    e.printStackTrace();
+                }
+            }
+        }
+        return total.add(sales.snapshot().revenue(lowerBound(from), upperBound(to)));
+    }
+
+    // --- Date range helpers (null bounds are open) ---
+
+    private static boolean inRange(SaleRecord s, LocalDateTime from, LocalDateTime to) {
+        return (from == null || !s.getDate().isBefore(from)) && (to == null || s.getDate().isBefore(to));
+    }
+
+    // Range bounds as epoch nanoseconds for the column store; dates beyond its range clamp
+    private static long lowerBound(LocalDateTime from) {
+        if (from == null)
+            return Long.MIN_VALUE;
+        Long nanos = SalesColumns.epochNanos(from);
+        return nanos != null ? nanos : (from.getYear() < 1970 ? Long.MIN_VALUE : Long.MAX_VALUE);
+    }
+
+    private static long upperBound(LocalDateTime to) {
+        if (to == null)
+            return Long.MAX_VALUE;
+        Long nanos = SalesColumns.epochNanos(to);
+        return nanos != null ? nanos : (to.getYear() < 1970 ? Long.MIN_VALUE : Long.MAX_VALUE);
+    }
+
+    private static boolean overlaps(YearMonth month, LocalDateTime from, LocalDateTime to) {
+        LocalDateTime start = month.atDay(1).atStartOfDay();
+        LocalDateTime end = month.plusMonths(1).atDay(1).atStartOfDay();
+        return (from == null || from.isBefore(end)) && (to == null || to.isAfter(start));
+    }
+
+    private static boolean covers(YearMonth month, LocalDateTime from, LocalDateTime to) {
+        LocalDateTime start = month.atDay(1).atStartOfDay();
+        LocalDateTime end = month.plusMonths(1).atDay(1).atStartOfDay();
+        return (from == null || !from.isAfter(start)) && (to == null || !to.isBefore(end));
     }
 }
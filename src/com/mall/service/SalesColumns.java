@@ -0,0 +1,339 @@
+package com.mall.service;
+
+import com.mall.model.SaleRecord;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Column store for the sales held in memory.
+ *
+ * Every sale is one row across growable arrays: the transaction id as its String, customer
+ * and product name as codes into per-column dictionaries, the quantity, the amount as an
+ * unscaled long with its scale, and the date as nanoseconds since the epoch (read as UTC).
+ * Transaction ids are nearly all distinct, so a dictionary would only add a map entry per
+ * sale. A row costs about 33 bytes plus its id instead of a SaleRecord with its BigDecimal
+ * and LocalDateTime, and revenue scans are loops over the arrays. SaleRecord objects are only created when a row is read.
+ *
+ * Values are stored exactly, so a row reads back as an equal record. The rare sale whose
+ * amount or date does not fit a long (or is null) is kept as an object on the side.
+ *
+ * Rows are appended in place and removals copy the arrays, so a snapshot stays valid while
+ * the store keeps changing; the background writer reads snapshots without locking.
+ */
+final class SalesColumns {
+    // Marks a row whose record lives in 'irregular'
+    private static final byte IRREGULAR = -1;
+    // Longest unscaled amount that is stored as a long; partial sums stay below 2^63
+    private static final int MAX_PRECISION = 18;
+    private static final long FLUSH_LIMIT = 1L << 62;
+
+    // Each distinct name is held once; the dictionaries go away with the store
+    private final Dictionary customers = new Dictionary();
+    private final Dictionary products = new Dictionary();
+
+    private int size;
+    private String[] transaction = new String[16];
+    private int[] customer = new int[16];
+    private int[] product = new int[16];
+    private int[] quantity = new int[16];
+    private long[] amount = new long[16];
+    private byte[] scale = new byte[16];
+    private long[] timestamp = new long[16];
+    private Map<Integer, SaleRecord> irregular = new HashMap<>();
+
+    synchronized void add(SaleRecord s) {
+        if (size == quantity.length)
+            grow(size * 2);
+        int row = size;
+        transaction[row] = s.getTransactionId();
+        customer[row] = customers.code(s.getCustomerUsername());
+        product[row] = products.code(s.getProductName());
+        quantity[row] = s.getQuantity();
+        BigDecimal amt = s.getAmountPaid();
+        Long nanos = epochNanos(s.getDate());
+        if (amt == null || amt.scale() < 0 || amt.scale() > MAX_PRECISION || amt.precision() > MAX_PRECISION
+                || nanos == null) {
+            scale[row] = IRREGULAR;
+            timestamp[row] = 0;
+            irregular.put(row, s);
+        } else {
+            amount[row] = amt.unscaledValue().longValue();
+            scale[row] = (byte) amt.scale();
+            timestamp[row] = nanos;
+        }
+        size++;
+    }
+
+    synchronized void addAll(Collection<SaleRecord> sales) {
+        // Doubling at least, so appending many small batches stays linear
+        if (size + sales.size() > quantity.length)
+            grow(Math.max(size + sales.size(), quantity.length * 2));
+        for (SaleRecord s : sales)
+            add(s);
+    }
+
+    private void grow(int capacity) {
+        transaction = Arrays.copyOf(transaction, capacity);
+        customer = Arrays.copyOf(customer, capacity);
+        product = Arrays.copyOf(product, capacity);
+        quantity = Arrays.copyOf(quantity, capacity);
+        amount = Arrays.copyOf(amount, capacity);
+        scale = Arrays.copyOf(scale, capacity);
+        timestamp = Arrays.copyOf(timestamp, capacity);
+    }
+
+    /**
+     * Removes every row of a transaction.
+     *
+     * @return True if any row was removed.
+     */
+    synchronized boolean removeTransaction(String transactionId) {
+        if (transactionId == null)
+            return false;
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (!transactionId.equals(transaction[i]))
+                kept++;
+        }
+        if (kept == size)
+            return false;
+
+        // New arrays, so snapshots taken before the removal are not disturbed
+        int capacity = Math.max(16, kept);
+        String[] t = new String[capacity];
+        int[] c = new int[capacity], p = new int[capacity], q = new int[capacity];
+        long[] a = new long[capacity], ts = new long[capacity];
+        byte[] sc = new byte[capacity];
+        Map<Integer, SaleRecord> irr = new HashMap<>();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            if (transactionId.equals(transaction[i]))
+                continue;
+            t[j] = transaction[i];
+            c[j] = customer[i];
+            p[j] = product[i];
+            q[j] = quantity[i];
+            a[j] = amount[i];
+            sc[j] = scale[i];
+            ts[j] = timestamp[i];
+            if (sc[j] == IRREGULAR)
+                irr.put(j, irregular.get(i));
+            j++;
+        }
+        transaction = t;
+        customer = c;
+        product = p;
+        quantity = q;
+        amount = a;
+        scale = sc;
+        timestamp = ts;
+        irregular = irr;
+        size = kept;
+        return true;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return A read-only view of the current rows; records are created as they are read.
+     */
+    synchronized Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Nanoseconds since the epoch of a date read as UTC, or null if it is null or out of
+     * range (years outside about 1677-2262).
+     */
+    static Long epochNanos(LocalDateTime date) {
+        if (date == null)
+            return null;
+        try {
+            return Math.addExact(Math.multiplyExact(date.toEpochSecond(ZoneOffset.UTC), 1_000_000_000L),
+                    date.getNano());
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The rows of the store at one point in time. Reads need no lock: the arrays are only
+     * written past this snapshot's size, or replaced.
+     */
+    static final class Snapshot extends AbstractList<SaleRecord> implements RandomAccess {
+        private final int size;
+        private final String[] transaction;
+        private final int[] customer;
+        private final int[] product;
+        private final int[] quantity;
+        private final long[] amount;
+        private final byte[] scale;
+        private final long[] timestamp;
+        private final String[] customers;
+        private final String[] products;
+        private final Map<Integer, SaleRecord> irregular;
+
+        // Called with the store's lock held
+        private Snapshot(SalesColumns s) {
+            this.size = s.size;
+            this.transaction = s.transaction;
+            this.customer = s.customer;
+            this.product = s.product;
+            this.quantity = s.quantity;
+            this.amount = s.amount;
+            this.scale = s.scale;
+            this.timestamp = s.timestamp;
+            this.customers = s.customers.values;
+            this.products = s.products.values;
+            this.irregular = s.irregular.isEmpty() ? Map.of() : new HashMap<>(s.irregular);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public SaleRecord get(int row) {
+            if (row < 0 || row >= size)
+                throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+            if (scale[row] == IRREGULAR)
+                return irregular.get(row);
+            return new SaleRecord(transaction[row], lookup(customers, customer[row]),
+                    lookup(products, product[row]), quantity[row], BigDecimal.valueOf(amount[row], scale[row]),
+                    toDate(timestamp[row]));
+        }
+
+        private static LocalDateTime toDate(long nanos) {
+            return LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L),
+                    (int) Math.floorMod(nanos, 1_000_000_000L), ZoneOffset.UTC);
+        }
+
+        private static String lookup(String[] values, int code) {
+            return code < 0 ? null : values[code];
+        }
+
+        /**
+         * Records whose date is in [from, to), in row order.
+         *
+         * @param from Inclusive start in epoch nanoseconds.
+         * @param to   Exclusive end in epoch nanoseconds.
+         */
+        List<SaleRecord> select(long from, long to) {
+            List<SaleRecord> result = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                if (scale[i] == IRREGULAR) {
+                    SaleRecord s = irregular.get(i);
+                    if (inRange(s, from, to))
+                        result.add(s);
+                } else if (timestamp[i] >= from && timestamp[i] < to) {
+                    result.add(get(i));
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Sum of the amounts of the rows whose date is in [from, to).
+         */
+        BigDecimal revenue(long from, long to) {
+            // Sums per scale; nearly every amount has scale 2, so this is a single running long
+            long[] sums = new long[MAX_PRECISION + 1];
+            BigDecimal total = BigDecimal.ZERO;
+            for (int i = 0; i < size; i++) {
+                long ts = timestamp[i];
+                int sc = scale[i];
+                if (ts < from || ts >= to || sc < 0)
+                    continue;
+                long sum = sums[sc] + amount[i];
+                // Amounts are below 10^18, so a sum under 2^62 cannot overflow on the next add
+                if (sum > FLUSH_LIMIT || sum < -FLUSH_LIMIT) {
+                    total = total.add(BigDecimal.valueOf(sum, sc));
+                    sum = 0;
+                }
+                sums[sc] = sum;
+            }
+            for (int sc = 0; sc < sums.length; sc++) {
+                if (sums[sc] != 0)
+                    total = total.add(BigDecimal.valueOf(sums[sc], sc));
+            }
+            for (SaleRecord s : irregular.values()) {
+                if (inRange(s, from, to) && s.getAmountPaid() != null)
+                    total = total.add(s.getAmountPaid());
+            }
+            return total;
+        }
+
+        /**
+         * Months that have at least one sale.
+         */
+        Set<YearMonth> months() {
+            Set<YearMonth> months = new TreeSet<>();
+            // Bounds of the month found last; rows mostly arrive in date order
+            long start = 0, end = 0;
+            for (int i = 0; i < size; i++) {
+                if (scale[i] == IRREGULAR) {
+                    LocalDateTime date = irregular.get(i).getDate();
+                    if (date != null)
+                        months.add(YearMonth.from(date));
+                    continue;
+                }
+                long ts = timestamp[i];
+                if (ts >= start && ts < end)
+                    continue;
+                YearMonth month = YearMonth.from(toDate(ts));
+                months.add(month);
+                Long first = epochNanos(month.atDay(1).atStartOfDay());
+                Long next = epochNanos(month.plusMonths(1).atDay(1).atStartOfDay());
+                start = first != null ? first : Long.MIN_VALUE;
+                end = next != null ? next : Long.MAX_VALUE;
+            }
+            return months;
+        }
+
+        // Irregular rows are compared as dates; an out-of-range date falls on the matching side
+        private static boolean inRange(SaleRecord s, long from, long to) {
+            LocalDateTime date = s.getDate();
+            if (date == null)
+                return from == Long.MIN_VALUE && to == Long.MAX_VALUE;
+            Long nanos = epochNanos(date);
+            if (nanos == null)
+                return date.getYear() < 1970 ? from == Long.MIN_VALUE : to == Long.MAX_VALUE;
+            return nanos >= from && nanos < to;
+        }
+    }
+
+    // Distinct values of a column; codes are assigned in first-seen order and never reused
+    private static final class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private String[] values = new String[16];
+        private int size;
+
+        int code(String value) {
+            if (value == null)
+                return -1;
+            Integer code = codes.get(value);
+            if (code != null)
+                return code;
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size] = value;
+            codes.put(value, size);
+            return size++;
+        }
+    }
+}
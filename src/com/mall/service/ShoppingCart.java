@@ -7,6 +7,7 @@ import java.util.Optional;
 
 import com.mall.model.CartItem;
 import com.mall.model.Product;
+import com.mall.persistence.StateSection;
 
 /**
  * Manages items selected by the customer for purchase.
@@ -15,6 +16,34 @@ import com.mall.model.Product;
 public class ShoppingCart {
 
     private final List<CartItem> items = new ArrayList<>();
+    // Attached by AuthenticationService; null for carts that are not part of the live state
+    private DirtyTracker dirtyTracker;
+    // Id of the customer owning the cart, reported with its changes
+    private String ownerId;
+    // Incremented by every change
+    private int version;
+
+    public void setDirtyTracker(DirtyTracker dirtyTracker, String ownerId) {
+        this.dirtyTracker = dirtyTracker;
+        this.ownerId = ownerId;
+    }
+
+    /**
+     * @return A number that changes whenever the items do, so owners can tell whether a copy is current.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return A cart with copies of the items, detached from dirty tracking.
+     */
+    public ShoppingCart copy() {
+        ShoppingCart copy = new ShoppingCart();
+        for (CartItem item : items)
+            copy.items.add(new CartItem(item.getProduct(), item.getQuantity()));
+        return copy;
+    }
 
     /**
      * Adds a product to the cart. If the product already exists, increases the
@@ -43,6 +72,7 @@ public class ShoppingCart {
                 throw new IllegalArgumentException("Not enough stock available");
             items.add(new CartItem(product, qty));
         }
+        markDirty();
     }
 
     /**
@@ -60,15 +90,18 @@ public class ShoppingCart {
                             throw new IllegalArgumentException("Insufficient stock");
                         item.setQuantity(qty);
                     }
+                    markDirty();
                 });
     }
 
     public void removeProduct(String productId) {
-        items.removeIf(i -> i.getProduct().getId().equals(productId));
+        if (items.removeIf(i -> i.getProduct().getId().equals(productId)))
+            markDirty();
     }
 
     public void remove(CartItem item) {
-        items.remove(item);
+        if (items.remove(item))
+            markDirty();
     }
 
     /**
@@ -101,12 +134,24 @@ public class ShoppingCart {
         if (!validateStock())
             return false;
 
+        List<String> bought = new ArrayList<>(items.size());
         for (CartItem item : items) {
             Product p = item.getProduct();
             p.setStockQty(p.getStockQty() - item.getQuantity());
+            bought.add(p.getId());
         }
 
         items.clear();
+        // Stock levels changed as well as the cart
+        if (dirtyTracker != null)
+            dirtyTracker.mark(StateSection.PRODUCTS, bought);
+        markDirty();
         return true;
     }
+
+    private void markDirty() {
+        version++;
+        if (dirtyTracker != null)
+            dirtyTracker.mark(StateSection.CARTS, ownerId);
+    }
 }
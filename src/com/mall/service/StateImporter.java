@@ -0,0 +1,295 @@
+package com.mall.service;
+
+import com.mall.model.CartItem;
+import com.mall.model.Customer;
+import com.mall.model.Product;
+import com.mall.model.SaleRecord;
+import com.mall.model.User;
+import com.mall.persistence.NdjsonReader;
+import com.mall.persistence.TransferProgress;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Imports an export written by NdjsonExport into a running mall.
+ *
+ * Entities are collected in batches and handed to the services a batch at a time; the
+ * state is saved once, when the import ends. If a line cannot be read, everything before it
+ * is still applied and saved, and the error names the line to resume from: a later import
+ * started there with the same file continues where this one stopped. Users and products
+ * already present (by id) are kept as they are, and sales and cart lines already recorded
+ * are skipped.
+ * Sales of months the storage backend archives go straight to the archive, so importing a
+ * long history does not hold it in memory.
+ *
+ * Usage: java -Dmall.data=data.json com.mall.service.StateImporter export.ndjson [first line]
+ */
+public class StateImporter {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    // Lines between progress updates
+    private static final int PROGRESS_INTERVAL = 50_000;
+    // Months whose recorded sales are kept for spotting duplicates
+    private static final int KNOWN_SALES_MONTHS = 3;
+
+    private final MallManager manager;
+    private final int batchSize;
+
+    private final List<User> users = new ArrayList<>();
+    private final List<Product> products = new ArrayList<>();
+    private final List<SaleRecord> sales = new ArrayList<>();
+    private final List<String[]> cartItems = new ArrayList<>();
+    private final List<Integer> cartQuantities = new ArrayList<>();
+    // Existing and imported customers by id, for ratings and carts
+    private Map<String, Customer> customers;
+    // Sales recorded in the most recently imported months; exports list sales by date, so a
+    // few months at a time are enough and the rest are read again if they come back
+    private final Map<YearMonth, Set<String>> knownSales =
+            new LinkedHashMap<YearMonth, Set<String>>(8, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<YearMonth, Set<String>> eldest) {
+                    return size() > KNOWN_SALES_MONTHS;
+                }
+            };
+    private int usersAdded, productsAdded, salesAdded, cartItemsAdded, skipped;
+    // Last line read, and last line whose entities were all handed to the services
+    private long readLine;
+    private long resumeLine;
+
+    public StateImporter(MallManager manager) {
+        this(manager, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param batchSize Entities collected before they are handed to a service.
+     */
+    public StateImporter(MallManager manager, int batchSize) {
+        this.manager = manager;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: StateImporter <export file> [first line]");
+            System.exit(2);
+        }
+        MallManager manager = new MallManager();
+        StateImporter importer = new StateImporter(manager);
+        try {
+            importer.importFile(new File(args[0]), args.length > 1 ? Long.parseLong(args[1]) : 0,
+                    TransferProgress.CONSOLE);
+            System.out.println(importer);
+        } catch (IOException e) {
+            System.err.println("Import failed: " + e.getMessage());
+            System.err.println(importer + "; resume with first line " + importer.getResumeLine());
+            System.exit(1);
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    /**
+     * Applies every entity in the file, starting at the given line, and saves the result.
+     *
+     * @param fromLine Lines to skip (0 for a new import); the header line is optional.
+     * @param progress Told about every PROGRESS_INTERVAL lines, or null.
+     */
+    public void importFile(File file, long fromLine, TransferProgress progress) throws IOException {
+        if (!file.exists())
+            throw new IOException(file + " does not exist");
+        customers = new HashMap<>();
+        for (User u : manager.getAuthService().getAllUsers()) {
+            if (u instanceof Customer)
+                customers.put(u.getId(), (Customer) u);
+        }
+        readLine = fromLine;
+        resumeLine = fromLine;
+
+        try (NdjsonReader reader = new NdjsonReader(file, customers::get)) {
+            reader.skipLines(fromLine);
+            Collector sink = new Collector();
+            try {
+                while (reader.next(sink)) {
+                    readLine = reader.getLineNumber();
+                    if (progress != null && readLine % PROGRESS_INTERVAL == 0)
+                        progress.update(reader.getSection(), readLine);
+                }
+                if (progress != null)
+                    progress.update(reader.getSection(), readLine);
+                if (reader.getStats().getUnresolvedRatings() > 0)
+                    System.err.println("Dropped " + reader.getStats().getUnresolvedRatings()
+                            + " ratings by unknown customers.");
+            } finally {
+                // Lines read before a failure are kept, so a resumed import does not repeat them;
+                // whatever was applied is saved even if the last batch fails
+                try {
+                    flush();
+                } finally {
+                    manager.saveDataNow();
+                }
+            }
+        }
+    }
+
+    // Hands the collected entities to the services, in dependency order. Each batch is taken
+    // out of its list first, so a failure never applies the same entities twice.
+    private void flush() throws IOException {
+        // Entities of lines up to here are all in the batches below (or already applied)
+        long through = readLine;
+        if (!users.isEmpty()) {
+            List<User> batch = new ArrayList<>(users);
+            users.clear();
+            List<User> added = manager.getAuthService().addUsers(batch);
+            usersAdded += added.size();
+            skipped += batch.size() - added.size();
+            // A skipped user must not stand in for the account that kept its id or name. Users
+            // are equal by id, so the entry is compared by identity.
+            if (added.size() < batch.size()) {
+                Set<User> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+                kept.addAll(added);
+                for (User u : batch) {
+                    if (!kept.contains(u) && customers.get(u.getId()) == u)
+                        customers.remove(u.getId());
+                }
+            }
+        }
+        if (!products.isEmpty()) {
+            List<Product> batch = new ArrayList<>(products);
+            products.clear();
+            int added = manager.getProductService().addProducts(batch);
+            productsAdded += added;
+            skipped += batch.size() - added;
+        }
+        if (!sales.isEmpty()) {
+            List<SaleRecord> batch = new ArrayList<>(sales);
+            sales.clear();
+            List<SaleRecord> fresh = newSales(batch);
+            manager.getSaleService().addSales(fresh);
+            salesAdded += fresh.size();
+            skipped += batch.size() - fresh.size();
+        }
+        List<String[]> items = new ArrayList<>(cartItems);
+        List<Integer> quantities = new ArrayList<>(cartQuantities);
+        cartItems.clear();
+        cartQuantities.clear();
+        ProductService productService = manager.getProductService();
+        for (int i = 0; i < items.size(); i++) {
+            Customer customer = customers.get(items.get(i)[0]);
+            Product product = productService.getProductById(items.get(i)[1]).orElse(null);
+            if (customer == null || product == null) {
+                skipped++;
+                continue;
+            }
+            // A product already in the cart was put there by this import or before it
+            if (inCart(customer, product)) {
+                skipped++;
+                continue;
+            }
+            try {
+                customer.getCart().addProduct(product, quantities.get(i));
+                cartItemsAdded++;
+            } catch (IllegalArgumentException e) {
+                // Less stock in this catalog than the exported cart asks for
+                skipped++;
+            }
+        }
+        resumeLine = through;
+    }
+
+    private static boolean inCart(Customer customer, Product product) {
+        for (CartItem item : customer.getCart().getItems()) {
+            if (item.getProduct().getId().equals(product.getId()))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Drops sales already recorded, so an import run again or resumed does not repeat them.
+     * A sale is identified by its transaction and product: a transaction has one line per
+     * product, and a resumed import may find part of a transaction already in.
+     */
+    private List<SaleRecord> newSales(List<SaleRecord> batch) {
+        List<SaleRecord> fresh = new ArrayList<>(batch.size());
+        for (SaleRecord s : batch) {
+            YearMonth month = YearMonth.from(s.getDate());
+            Set<String> known = knownSales.get(month);
+            if (known == null) {
+                known = new HashSet<>();
+                for (SaleRecord r : manager.getSaleService().getSales(month.atDay(1).atStartOfDay(),
+                        month.plusMonths(1).atDay(1).atStartOfDay()))
+                    known.add(saleKey(r));
+                knownSales.put(month, known);
+            }
+            if (known.add(saleKey(s)))
+                fresh.add(s);
+        }
+        return fresh;
+    }
+
+    private static String saleKey(SaleRecord s) {
+        return s.getTransactionId() + '\n' + s.getProductName();
+    }
+
+    /**
+     * @return Lines of the file fully applied; an import started there continues this one.
+     *         Entities already present are skipped, so a batch that
+     *         failed half-way is safe to read again.
+     */
+    public long getResumeLine() {
+        return resumeLine;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Imported %,d users, %,d products, %,d sales, %,d cart items (%,d skipped)",
+                usersAdded, productsAdded, salesAdded, cartItemsAdded, skipped);
+    }
+
+    // Batches entities; a batch is flushed once full, and earlier kinds before later ones
+    private final class Collector implements NdjsonReader.Sink {
+        @Override
+        public void user(User u) throws IOException {
+            // Raters and cart owners can be resolved before the batch reaches the service
+            if (u instanceof Customer)
+                customers.putIfAbsent(u.getId(), (Customer) u);
+            users.add(u);
+            if (users.size() >= batchSize)
+                flush();
+        }
+
+        @Override
+        public void product(Product p) throws IOException {
+            products.add(p);
+            if (products.size() >= batchSize)
+                flush();
+        }
+
+        @Override
+        public void sale(SaleRecord s) throws IOException {
+            sales.add(s);
+            if (sales.size() >= batchSize)
+                flush();
+        }
+
+        @Override
+        public void cartItem(String customerId, String productId, int quantity) throws IOException {
+            // Carts refer to products, which must be in the catalog first
+            if (!products.isEmpty())
+                flush();
+            cartItems.add(new String[] { customerId, productId });
+            cartQuantities.add(quantity);
+            if (cartItems.size() >= batchSize)
+                flush();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.mall.service;
+
+import com.mall.model.Product;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inverted index from the three-character substrings (trigrams) of lower-cased product
+ * names to the products containing them, for substring search without a catalog scan.
+ *
+ * Every product gets a slot number in catalog order; a posting list holds the slots of the
+ * products whose name contains its trigram, sorted ascending. A query intersects the lists
+ * of its own trigrams, shortest first, and only the surviving candidates are checked with
+ * contains(). Queries shorter than a trigram scan the cached lower-cased names instead.
+ * Removed products leave an empty slot until enough accumulate to renumber.
+ */
+class TrigramIndex {
+    private static final int[] EMPTY = new int[0];
+
+    // Indexed product and its lower-cased name per slot; null for removed products
+    private Product[] products = new Product[16];
+    private String[] names = new String[16];
+    private int slots;
+    private int live;
+    private final Map<String, Integer> slotsById = new HashMap<>();
+    private final Map<Long, Postings> postings = new HashMap<>();
+
+    /**
+     * Replaces the index contents with the given products, in order.
+     */
+    void rebuild(Iterable<Product> catalog) {
+        products = new Product[16];
+        names = new String[16];
+        slots = 0;
+        live = 0;
+        slotsById.clear();
+        postings.clear();
+        for (Product p : catalog)
+            put(p);
+    }
+
+    /**
+     * Indexes a new product, or re-indexes the name of one already indexed (matched by id).
+     */
+    void put(Product p) {
+        Integer slot = slotsById.get(p.getId());
+        String name = normalize(p.getName());
+        if (slot != null) {
+            // Same slot, so the product keeps its place in results
+            String old = names[slot];
+            products[slot] = p;
+            if (!old.equals(name)) {
+                forEachTrigram(old, key -> postings.get(key).remove(slot));
+                names[slot] = name;
+                forEachTrigram(name, key -> postings.computeIfAbsent(key, k -> new Postings()).insert(slot));
+            }
+            return;
+        }
+        if (slots == products.length) {
+            products = Arrays.copyOf(products, slots * 2);
+            names = Arrays.copyOf(names, slots * 2);
+        }
+        int s = slots++;
+        products[s] = p;
+        names[s] = name;
+        slotsById.put(p.getId(), s);
+        live++;
+        // Slots only grow, so appending keeps each list sorted
+        forEachTrigram(name, key -> postings.computeIfAbsent(key, k -> new Postings()).append(s));
+    }
+
+    void remove(String id) {
+        Integer slot = slotsById.remove(id);
+        if (slot == null)
+            return;
+        forEachTrigram(names[slot], key -> postings.get(key).remove(slot));
+        products[slot] = null;
+        names[slot] = null;
+        live--;
+        // Renumber once most slots are empty, so scans and slot arrays stay proportional
+        if (slots - live > 1024 && slots - live > live)
+            compact();
+    }
+
+    /**
+     * @param query Case-insensitive substring; must not be blank.
+     * @return The products whose name contains it, in catalog order.
+     */
+    List<Product> search(String query) {
+        String q = query.toLowerCase();
+        List<Product> result = new ArrayList<>();
+        if (q.length() < 3) {
+            for (int s = 0; s < slots; s++) {
+                if (names[s] != null && names[s].contains(q))
+                    result.add(products[s]);
+            }
+            return result;
+        }
+
+        List<Postings> lists = new ArrayList<>();
+        boolean[] missing = new boolean[1];
+        forEachTrigram(q, key -> {
+            Postings list = postings.get(key);
+            if (list == null || list.size == 0)
+                missing[0] = true;
+            else
+                lists.add(list);
+        });
+        if (missing[0])
+            return result;
+        lists.sort((a, b) -> Integer.compare(a.size, b.size));
+
+        int[] candidates = Arrays.copyOf(lists.get(0).slots, lists.get(0).size);
+        int count = candidates.length;
+        for (int i = 1; i < lists.size() && count > 0; i++)
+            count = lists.get(i).retainAll(candidates, count);
+        // Every trigram matching does not mean they are adjacent in the right order
+        for (int i = 0; i < count; i++) {
+            int s = candidates[i];
+            if (names[s].contains(q))
+                result.add(products[s]);
+        }
+        return result;
+    }
+
+    /**
+     * @return An upper bound on the matches of a query, from its rarest trigram; short
+     *         queries count every indexed product.
+     */
+    int estimate(String query) {
+        String q = query.toLowerCase();
+        if (q.length() < 3)
+            return live;
+        int[] smallest = { live };
+        forEachTrigram(q, key -> {
+            Postings list = postings.get(key);
+            smallest[0] = Math.min(smallest[0], list == null ? 0 : list.size);
+        });
+        return smallest[0];
+    }
+
+    private void compact() {
+        List<Product> remaining = new ArrayList<>(live);
+        for (int s = 0; s < slots; s++) {
+            if (products[s] != null)
+                remaining.add(products[s]);
+        }
+        rebuild(remaining);
+    }
+
+    private static String normalize(String name) {
+        return name == null ? "" : name.toLowerCase();
+    }
+
+    private interface TrigramConsumer {
+        void accept(long key);
+    }
+
+    // Each distinct trigram once, packed as three 16-bit chars
+    private static void forEachTrigram(String s, TrigramConsumer consumer) {
+        int n = s.length() - 2;
+        if (n <= 0)
+            return;
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+        Arrays.sort(keys);
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || keys[i] != keys[i - 1])
+                consumer.accept(keys[i]);
+        }
+    }
+
+    // Sorted, growable list of slots
+    private static final class Postings {
+        int[] slots = EMPTY;
+        int size;
+
+        void append(int slot) {
+            if (size == slots.length)
+                slots = Arrays.copyOf(slots, Math.max(4, size * 2));
+            slots[size++] = slot;
+        }
+
+        void insert(int slot) {
+            int at = Arrays.binarySearch(slots, 0, size, slot);
+            if (at >= 0)
+                return;
+            at = -at - 1;
+            if (size == slots.length)
+                slots = Arrays.copyOf(slots, Math.max(4, size * 2));
+            System.arraycopy(slots, at, slots, at + 1, size - at);
+            slots[at] = slot;
+            size++;
+        }
+
+        void remove(int slot) {
+            int at = Arrays.binarySearch(slots, 0, size, slot);
+            if (at < 0)
+                return;
+            System.arraycopy(slots, at + 1, slots, at, size - at - 1);
+            size--;
+        }
+
+        // Keeps the first count candidates that are also in this list; returns how many remain.
+        // Candidates are few and sorted, so each is found by a binary search from the last hit.
+        int retainAll(int[] candidates, int count) {
+            int kept = 0;
+            int from = 0;
+            for (int i = 0; i < count && from < size; i++) {
+                int at = Arrays.binarySearch(slots, from, size, candidates[i]);
+                if (at >= 0) {
+                    candidates[kept++] = candidates[i];
+                    from = at + 1;
+                } else {
+                    from = -at - 1;
+                }
+            }
+            return kept;
+        }
+    }
+}
@@ -178,6 +178,7 @@ public class AddProductPanel extends JPanel {
                 existingProduct.setPrice(price);
                 existingProduct.setStockQty(stock);
                 existingProduct.setDescription(descArea.getText());
+                manager.getProductService().updateProduct(existingProduct);
                 manager.saveData();
             } else {
                 // Create a new Product and add it to the product service
@@ -2,12 +2,17 @@ package com.mall.ui;
 
 import com.mall.model.Product;
 import com.mall.service.MallManager;
+import com.mall.service.ProductPage;
+import com.mall.service.ProductQuery;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.util.List;
 
 public class AdminDashboardPanel extends JPanel {
+    // Product cards added per page so large catalogs open quickly
+    private static final int PAGE_SIZE = 60;
+
     // Reference to the main application frame for navigation between views
     private MainFrame parent;
     // Manager that provides access to services like productService and persistence
@@ -18,6 +23,11 @@ public class AdminDashboardPanel extends JPanel {
     private JTextField searchField;
     // Scroll pane wrapping the gridPanel to provide scrolling for long lists
     private JScrollPane scrollPane;
+    // Footer with the result count and a button loading the next page
+    private JLabel resultCountLabel;
+    private ModernButton showMoreBtn;
+    // Number of results currently requested from the service
+    private int shownLimit = PAGE_SIZE;
 
     // Constructor: builds the admin dashboard UI and wires up actions
     public AdminDashboardPanel(MainFrame parent, MallManager manager) {
@@ -48,7 +58,10 @@ public class AdminDashboardPanel extends JPanel {
         ModernButton searchBtn = new ModernButton("Search");
         searchBtn.setPreferredSize(new Dimension(90, 32));
         // When search button is clicked, refresh the product grid using the search text
-        searchBtn.addActionListener(e -> refreshProductGrid());
+        searchBtn.addActionListener(e -> {
+            shownLimit = PAGE_SIZE;
+            refreshProductGrid();
+        });
 
         leftWrapper.add(adminTitle);
         leftWrapper.add(searchField);
@@ -87,8 +100,28 @@ public class AdminDashboardPanel extends JPanel {
         gridPanel.setBorder(
                 new EmptyBorder(UIConstants.GUTTER, UIConstants.GUTTER, UIConstants.GUTTER, UIConstants.GUTTER));
 
+        // Footer below the grid: how many products are shown and a button for the next page
+        JPanel footer = new JPanel(new FlowLayout(FlowLayout.CENTER, 15, 10));
+        footer.setOpaque(false);
+        resultCountLabel = new JLabel();
+        resultCountLabel.setFont(UIConstants.CAPTION_FONT);
+        resultCountLabel.setForeground(UIConstants.TEXT_SECONDARY);
+        showMoreBtn = new ModernButton("Show more");
+        showMoreBtn.setPreferredSize(new Dimension(130, 36));
+        showMoreBtn.addActionListener(e -> {
+            shownLimit += PAGE_SIZE;
+            showProducts(false);
+        });
+        footer.add(resultCountLabel);
+        footer.add(showMoreBtn);
+
+        JPanel content = new JPanel(new BorderLayout());
+        content.setBackground(UIConstants.BG_COLOR);
+        content.add(gridPanel, BorderLayout.CENTER);
+        content.add(footer, BorderLayout.SOUTH);
+
         // Scroll pane wraps the grid to allow vertical scrolling for long catalogs
-        scrollPane = new JScrollPane(gridPanel);
+        scrollPane = new JScrollPane(content);
         scrollPane.setBorder(null);
         // Improve scroll smoothness/step
         scrollPane.getVerticalScrollBar().setUnitIncrement(16);
@@ -109,9 +142,19 @@ public class AdminDashboardPanel extends JPanel {
     // Rebuilds the product grid based on the current search query.
     // Queries the product service for matching results and populates ProductCard components.
     public void refreshProductGrid() {
+        showProducts(true);
+    }
+
+    // Shows the first shownLimit products matching the search, keeping the scroll position when paging
+    private void showProducts(boolean scrollToTop) {
         gridPanel.removeAll();
-        // Use the product service searchByName which performs case-insensitive substring search
-        List<Product> products = manager.getProductService().searchByName(searchField.getText());
+        // Case-insensitive substring search in catalog order, one page at a time
+        ProductQuery query = ProductQuery.ALL
+                .withText(searchField.getText())
+                .withPage(0, shownLimit)
+                .withFacets(false);
+        ProductPage page = manager.getProductService().query(query);
+        List<Product> products = page.getItems();
 
         if (products.isEmpty()) {
             // Show an empty message when no products match the search
@@ -124,9 +167,16 @@ public class AdminDashboardPanel extends JPanel {
                 gridPanel.add(new ProductCard(p, manager, parent));
             }
         }
+        resultCountLabel.setText(page.getTotal() == 0 ? ""
+                : "Showing " + products.size() + " of " + page.getTotal() + " products");
+        showMoreBtn.setVisible(page.hasMore());
+
         // Refresh layout and repaint to reflect new content
         gridPanel.revalidate();
         gridPanel.repaint();
+        if (!scrollToTop) {
+            return;
+        }
 
         // Scroll to top of the grid after refresh to show the first results
         SwingUtilities.invokeLater(() -> {
@@ -196,16 +196,10 @@ public class CartPanel extends JPanel {
         // Listeners for modifications: update quantity or remove item
         minusBtn.addActionListener(e -> {
             if (item.getQuantity() > 1) {
-                item.setQuantity(item.getQuantity() - 1);
-                manager.saveData();
-                refresh();
+                changeQuantity(item, item.getQuantity() - 1);
             }
         });
-        plusBtn.addActionListener(e -> {
-            item.setQuantity(item.getQuantity() + 1);
-            manager.saveData();
-            refresh();
-        });
+        plusBtn.addActionListener(e -> changeQuantity(item, item.getQuantity() + 1));
         removeBtn.addActionListener(e -> {
             Customer c = (Customer) manager.getAuthService().getCurrentUser();
             c.getCart().remove(item);
@@ -224,6 +218,18 @@ public class CartPanel extends JPanel {
         return row;
     }
 
+    // Update an item's quantity through the cart so stock is validated and the change is saved
+    private void changeQuantity(CartItem item, int qty) {
+        Customer c = (Customer) manager.getAuthService().getCurrentUser();
+        try {
+            c.getCart().updateProductQuantity(item.getProduct().getId(), qty);
+            manager.saveData();
+        } catch (IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(this, ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+        refresh();
+    }
+
     // Creates a compact button used for increment/decrement quantity
     private JButton createQtyBtn(String text) {
         JButton b = new JButton(text);
@@ -286,10 +292,27 @@ public class CartPanel extends JPanel {
 
         // 5. Update User Balance and Clear Cart
         if (c.getCart().checkout()) {
-            c.setBalance(c.getBalance().subtract(total));
-
-            // 6. Persistence
-            manager.saveData();
+            manager.getAuthService().chargeCustomer(c, total);
+            // Stock was taken from the products directly; cached catalog pages must see it
+            java.util.List<Product> bought = new java.util.ArrayList<>();
+            for (CartItem item : itemsToProcess) {
+                bought.add(item.getProduct());
+            }
+            manager.getProductService().stockChanged(bought);
+
+            // 6. Persistence: the order must be stored before it is confirmed to the user
+            try {
+                manager.saveDataNow();
+            } catch (java.io.IOException e) {
+                e.printStackTrace();
+                JOptionPane.showMessageDialog(this,
+                        "Your order was placed but could not be saved yet.\n"
+                                + "Saving will be retried; please do not close the application.\n"
+                                + "Transaction ID: " + tid + "\n" + e.getMessage(),
+                        "Save Error", JOptionPane.ERROR_MESSAGE);
+                parent.showView("CATALOG_CUSTOMER");
+                return;
+            }
 
             JOptionPane.showMessageDialog(this,
                     "Order Placed Successfully!\nTransaction ID: " + tid,
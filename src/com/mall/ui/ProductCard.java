@@ -211,7 +211,7 @@ public class ProductCard extends JPanel {
                 JOptionPane.showMessageDialog(ratingDialog, "Please select a star rating.");
                 return;
             }
-            product.addOrUpdateRating(currentCustomer, selectedRating[0]);
+            manager.getProductService().rateProduct(product, currentCustomer, selectedRating[0]);
             manager.saveData();
             ratingDialog.dispose();
             updateRating();
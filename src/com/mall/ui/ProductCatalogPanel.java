@@ -2,17 +2,20 @@ package com.mall.ui;
 
 import com.mall.model.Product;
 import com.mall.service.MallManager;
+import com.mall.service.ProductPage;
+import com.mall.service.ProductQuery;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.math.BigDecimal;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.stream.Collectors;
 
 public class ProductCatalogPanel extends JPanel {
+    // Product cards added per page; large catalogs are shown a page at a time
+    private static final int PAGE_SIZE = 60;
+
     // Reference to main application frame for navigation and callbacks
     private MainFrame parent;
     // Manager for product and user services
@@ -29,6 +32,11 @@ public class ProductCatalogPanel extends JPanel {
     private JLabel balanceLabel;
     // Scroll pane to hold the grid of products
     private JScrollPane scrollPane;
+    // Footer showing how many results are on screen, with a button for the next page
+    private JLabel resultCountLabel;
+    private ModernButton showMoreBtn;
+    // Number of results currently requested from the service
+    private int shownLimit = PAGE_SIZE;
 
     public ProductCatalogPanel(MainFrame parent, MallManager manager) {
         this.parent = parent;
@@ -125,8 +133,28 @@ public class ProductCatalogPanel extends JPanel {
         gridPanel.setBackground(UIConstants.BG_COLOR);
         gridPanel.setBorder(new EmptyBorder(UIConstants.GUTTER, UIConstants.GUTTER, UIConstants.GUTTER, UIConstants.GUTTER));
 
+        // Footer below the grid for paging through large result sets
+        JPanel footer = new JPanel(new FlowLayout(FlowLayout.CENTER, 15, 10));
+        footer.setOpaque(false);
+        resultCountLabel = new JLabel();
+        resultCountLabel.setFont(UIConstants.CAPTION_FONT);
+        resultCountLabel.setForeground(UIConstants.TEXT_SECONDARY);
+        showMoreBtn = new ModernButton("Show more");
+        showMoreBtn.setPreferredSize(new Dimension(130, 36));
+        showMoreBtn.addActionListener(e -> {
+            shownLimit += PAGE_SIZE;
+            showResults(false);
+        });
+        footer.add(resultCountLabel);
+        footer.add(showMoreBtn);
+
+        JPanel content = new JPanel(new BorderLayout());
+        content.setBackground(UIConstants.BG_COLOR);
+        content.add(gridPanel, BorderLayout.CENTER);
+        content.add(footer, BorderLayout.SOUTH);
+
         // Scroll pane to make product grid scrollable
-        scrollPane = new JScrollPane(gridPanel);
+        scrollPane = new JScrollPane(content);
         scrollPane.setBorder(null);
         scrollPane.setOpaque(false);
         scrollPane.getViewport().setOpaque(false);
@@ -167,13 +195,8 @@ public class ProductCatalogPanel extends JPanel {
         Set<String> categories = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
         categories.add("All Categories");
 
-        // Populate categories from all products
-        List<Product> allProducts = manager.getProductService().searchByName("");
-        for (Product p : allProducts) {
-            if (p.getCategory() != null && !p.getCategory().isEmpty()) {
-                categories.add(p.getCategory());
-            }
-        }
+        // Populate categories from the service's category index
+        categories.addAll(manager.getProductService().getCategoryCounts().keySet());
 
         // Set updated model and restore selection if possible
         categoryFilter.setModel(new DefaultComboBoxModel<>(categories.toArray(new String[0])));
@@ -197,29 +220,34 @@ public class ProductCatalogPanel extends JPanel {
         applyFilters();
     }
 
-    // Apply search, category, and sort filters to product grid
+    // Apply search, category, and sort filters to product grid, starting again from the first page
     private void applyFilters() {
+        shownLimit = PAGE_SIZE;
+        showResults(true);
+    }
+
+    // Show the first shownLimit results of the current filters
+    private void showResults(boolean scrollToTop) {
         gridPanel.removeAll();
 
-        List<Product> results = manager.getProductService().searchByName(searchField.getText());
         String cat = (String) categoryFilter.getSelectedItem();
         String sortOption = (String) sortFilter.getSelectedItem();
 
-        // Filter by selected category
-        if (!cat.equals("All Categories")) {
-            results = results.stream()
-                    .filter(p -> p.getCategory().equalsIgnoreCase(cat))
-                    .collect(Collectors.toList());
-        }
-
-        // Sort products based on selected option
-        if (sortOption != null) {
-            if (sortOption.equals("Price: Low to High")) {
-                results.sort(Comparator.comparing(Product::getPrice));
-            } else if (sortOption.equals("Price: High to Low")) {
-                results.sort(Comparator.comparing(Product::getPrice).reversed());
-            }
+        // One query answers search, category and sort together from the service's indexes
+        ProductQuery.Sort sort = ProductQuery.Sort.CATALOG;
+        if ("Price: Low to High".equals(sortOption)) {
+            sort = ProductQuery.Sort.PRICE_ASCENDING;
+        } else if ("Price: High to Low".equals(sortOption)) {
+            sort = ProductQuery.Sort.PRICE_DESCENDING;
         }
+        ProductQuery query = ProductQuery.ALL
+                .withText(searchField.getText())
+                .withCategory("All Categories".equals(cat) ? null : cat)
+                .withSort(sort)
+                .withPage(0, shownLimit)
+                .withFacets(false);
+        ProductPage page = manager.getProductService().query(query);
+        List<Product> results = page.getItems();
 
         // Display message if no products match filters
         if (results.isEmpty()) {
@@ -237,9 +265,16 @@ public class ProductCatalogPanel extends JPanel {
             }
         }
 
+        resultCountLabel.setText(page.getTotal() == 0 ? ""
+                : "Showing " + results.size() + " of " + page.getTotal() + " products");
+        showMoreBtn.setVisible(page.hasMore());
+
         // Refresh UI
         gridPanel.revalidate();
         gridPanel.repaint();
+        if (!scrollToTop) {
+            return;
+        }
 
         // Reset scroll position to top
         SwingUtilities.invokeLater(() -> {
@@ -5,6 +5,9 @@ import com.mall.service.MallManager;
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 
@@ -13,6 +16,9 @@ public class SalesHistoryPanel extends JPanel {
     private DefaultTableModel model;
     private MallManager manager;
     private JLabel totalRevenueLabel;
+    private JComboBox<Object> periodBox;
+    private static final String ALL_TIME = "All time";
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("MMMM yyyy");
 
     public SalesHistoryPanel(MainFrame parent, MallManager manager) {
         this.manager = manager;
@@ -33,7 +39,28 @@ public class SalesHistoryPanel extends JPanel {
         totalRevenueLabel.setFont(new Font("SansSerif", Font.BOLD, 16));
         totalRevenueLabel.setForeground(new Color(46, 125, 50));
 
+        // Period filter: older months are only read from disk when selected
+        periodBox = new JComboBox<>();
+        periodBox.setRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                    boolean isSelected, boolean cellHasFocus) {
+                Object text = (value instanceof YearMonth) ? ((YearMonth) value).format(MONTH_FORMAT) : value;
+                return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            }
+        });
+        periodBox.addActionListener(e -> {
+            if (periodBox.isEnabled())
+                loadPeriod();
+        });
+
+        JPanel periodPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 8, 0));
+        periodPanel.setOpaque(false);
+        periodPanel.add(new JLabel("Period:"));
+        periodPanel.add(periodBox);
+
         topPanel.add(header, BorderLayout.WEST);
+        topPanel.add(periodPanel, BorderLayout.CENTER);
         topPanel.add(totalRevenueLabel, BorderLayout.EAST);
         add(topPanel, BorderLayout.NORTH);
 
@@ -76,8 +103,35 @@ public class SalesHistoryPanel extends JPanel {
     }
 
     public void refresh() {
+        // Rebuild the period list, keeping the current choice if it still exists
+        Object selected = periodBox.getSelectedItem();
+        List<YearMonth> months = manager.getSaleService().getSalesMonths();
+        periodBox.setEnabled(false);
+        periodBox.removeAllItems();
+        for (YearMonth month : months)
+            periodBox.addItem(month);
+        periodBox.addItem(ALL_TIME);
+        if (selected != null && (selected == ALL_TIME || months.contains(selected)))
+            periodBox.setSelectedItem(selected);
+        else
+            periodBox.setSelectedIndex(0);
+        periodBox.setEnabled(true);
+
+        loadPeriod();
+    }
+
+    // Fill the table and revenue label for the selected month (or all time)
+    private void loadPeriod() {
         model.setRowCount(0);
-        List<SaleRecord> sales = manager.getSaleService().getAllSales();
+        Object period = periodBox.getSelectedItem();
+        LocalDateTime from = null;
+        LocalDateTime to = null;
+        if (period instanceof YearMonth) {
+            from = ((YearMonth) period).atDay(1).atStartOfDay();
+            to = ((YearMonth) period).plusMonths(1).atDay(1).atStartOfDay();
+        }
+
+        List<SaleRecord> sales = manager.getSaleService().getSales(from, to);
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
 
         for (SaleRecord s : sales) {
@@ -92,8 +146,9 @@ public class SalesHistoryPanel extends JPanel {
         }
 
         // Update the Revenue label at the top
-        String total = String.format("%.2f", manager.getSaleService().getTotalRevenue());
-        totalRevenueLabel.setText("Total Revenue: $" + total);
+        BigDecimal revenue = manager.getSaleService().getRevenue(from, to);
+        String label = (period instanceof YearMonth) ? "Revenue" : "Total Revenue";
+        totalRevenueLabel.setText(label + ": $" + String.format("%.2f", revenue));
     }
 
     private void handleDelete() {